@@ -1,6 +1,7 @@
 #include "consensusinstance.h"
+#include <algorithm>
 
-bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, jbyteArray newValue){
+bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, const jbyte* newValue, jsize newValueLength){
     if(view < lastSeenView){
         assert (state == DECIDED);
         return false;
@@ -12,19 +13,18 @@ bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender,
 
         assert(valueLength==0 && value==nullptr);
         
-        valueLength = env->GetArrayLength(newValue);
+        valueLength = newValueLength;
         
         // code below does: value = newValue;
-        jbyte* ba = env->GetByteArrayElements(newValue, nullptr);
         value = blockReuser->pop(valueLength);
         if(value == nullptr)
             value = make_persistent<jbyte[]>(valueLength);
-        pmem_memcpy_persist(value.get(), ba, valueLength);
-        env->ReleaseByteArrayElements(newValue, ba, JNI_ABORT);
+        pmem_memcpy_persist(value.get(), newValue, valueLength);
         
         state = KNOWN;
         
-        accepts |= (1 << proposeSender) | (1 << localId());
+        addAccept(proposeSender);
+        addAccept(localId());
     };
                 
     pmem::obj::transaction::automatic tx(*pop);
@@ -35,14 +35,14 @@ bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender,
             break;
         case KNOWN:
             if(view > lastSeenView){
-                accepts = 0;
+                clearAccepts();
                 deleteValueUnchecked();
                 update();
             }
             break;
         case RESET:
             if(view > lastSeenView){
-                accepts = 0;
+                clearAccepts();
             }
             deleteValueUnchecked();
             update();
@@ -66,7 +66,7 @@ bool ConsensusInstance::updateStateFromAccept(jint view, jint acceptSender){
         case RESET:
             if(view > lastSeenView){
                 lastSeenView = view;
-                accepts = 0;
+                clearAccepts();
                 state = RESET;
             }
             break;
@@ -78,12 +78,32 @@ bool ConsensusInstance::updateStateFromAccept(jint view, jint acceptSender){
         default:
             throw "bad / unknown instance state";
     }
-    accepts |= (1<<acceptSender);
+    addAccept(acceptSender);
     pmem::obj::transaction::commit();
     
     return isReadyToBeDecieded();
 }
 
+void ConsensusInstance::addAccept(jint replica){
+    if(replica < 32){
+        accepts |= (1u<<replica);
+        return;
+    }
+    if(!acceptsExt)
+        acceptsExt = make_persistent<uint32_t[]>(acceptWords()-1);
+    uint32_t & word = acceptsExt[replica/32-1];
+    pmem::obj::transaction::snapshot(&word);
+    word |= (1u<<(replica%32));
+}
+
+void ConsensusInstance::clearAccepts(){
+    accepts = 0;
+    if(acceptsExt){
+        pmem::obj::transaction::snapshot(acceptsExt.get(), acceptWords()-1);
+        std::fill(acceptsExt.get(), acceptsExt.get()+acceptWords()-1, 0);
+    }
+}
+
 void ConsensusInstance::updateStateFromDecision(JNIEnv* env, jint view, jbyteArray newValue){
     pmem::obj::transaction::automatic tx(*pop);
     lastSeenView  = view;
@@ -108,10 +128,10 @@ void ConsensusInstance::updateStateFromDecision(JNIEnv* env, jint view, jbyteArr
 void ConsensusInstance::dump(FILE* out) const {
     char acc[numReplicas()+1];
     for(int i=numReplicas()-1,j=0; i>=0; i--,j++)
-        acc[j] = accepts&(1<<i) ? '1' : '0';
+        acc[j] = hasAccept(i) ? '1' : '0';
     acc[numReplicas()]=0;
     
-    fprintf(out, "%7d: %s, seen view: %-7d  voted view: %-7d accepts: 0b%s  value: %6luB  ", id, 
+    fprintf(out, "%7d: %s, seen view: %-7d  voted view: %-7d accepts: 0b%s  value: %6uB  ", id, 
         state == UNKNOWN ? "UNKNO" :
         state == KNOWN   ? "KNOWN" :
         state == RESET   ? "RESET" :
@@ -147,6 +167,11 @@ JNIEXPORT jbyteArray JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_
     return consensusLog->getInstanceRo(id).getValue(env);
 }
 
+JNIEXPORT jobject JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_getValueDirect (JNIEnv * env, jclass, jint id){
+    assert(consensusLog->getInstanceIfExists(id)!=nullptr);
+    return consensusLog->getInstanceRo(id).getValueDirect(env);
+}
+
 JNIEXPORT jbyte JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_getState (JNIEnv *, jclass, jint id){
     assert(consensusLog->getInstanceIfExists(id)!=nullptr);
     return consensusLog->getInstanceRo(id).getState();
@@ -188,7 +213,19 @@ JNIEXPORT jint JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_byteSi
 
 JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromPropose (JNIEnv * env, jclass, jint id, jint proposeSender, jint view, jbyteArray newValue){
     assert(consensusLog->getInstanceIfExists(id)!=nullptr);
-    return consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, newValue);
+    jsize length = env->GetArrayLength(newValue);
+    jbyte* ba = env->GetByteArrayElements(newValue, nullptr);
+    jboolean result = consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, ba, length);
+    env->ReleaseByteArrayElements(newValue, ba, JNI_ABORT);
+    return result;
+}
+
+JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromProposeDirect (JNIEnv * env, jclass, jint id, jint proposeSender, jint view, jobject newValue, jint offset, jint length){
+    assert(consensusLog->getInstanceIfExists(id)!=nullptr);
+    // the value is copied straight from the (network) buffer to the log
+    jbyte* ba = (jbyte*) env->GetDirectBufferAddress(newValue);
+    assert(ba != nullptr);
+    return consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, ba + offset, length);
 }
 
 JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromAccept (JNIEnv *, jclass, jint id, jint view, jint acceptSender){
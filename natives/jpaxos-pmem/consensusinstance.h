@@ -24,12 +24,28 @@ class ConsensusInstance{
     pmem::obj::p<jint> lastSeenView    {-1};
     pmem::obj::p<jint> lastVotedView   {-1};
     pmem::obj::p<LogEntryState> state  {UNKNOWN};
+    /// accepts of replicas 0-31
     pmem::obj::p<uint32_t> accepts     {0};
-    pmem::obj::p<size_t> valueLength   {0};
+    // values are far below 4 GiB; the narrower length leaves room for
+    // acceptsExt without growing the instance
+    pmem::obj::p<uint32_t> valueLength {0};
+    /// accepts of replicas 32 and above, allocated only for larger clusters
+    pmem::obj::experimental::self_relative_ptr<uint32_t[]> acceptsExt {nullptr};
     pmem::obj::experimental::self_relative_ptr<jbyte[]> value {nullptr};
     
     bool isReadyToBeDecieded(){return state==KNOWN && isMajority();}
     
+    void addAccept(jint replica);
+    void clearAccepts();
+    
+    static unsigned popcount(uint32_t word) {
+        #ifdef __GNUC__
+        return __builtin_popcount(word);
+        #else
+        return std::bitset<32>(word).count();
+        #endif
+    }
+    
     void deleteValueUnchecked() {
         assert(valueLength!=0 && value!=nullptr);
         blockReuser->push(value, valueLength);
@@ -49,17 +65,43 @@ public:
         env->SetByteArrayRegion(ba, 0, valueLength, value.get());
         return ba;
     }
+    /// direct buffer over the value in pmem; valid until the value is freed
+    jobject getValueDirect(JNIEnv * env) const {
+        if(!value)
+            return nullptr;
+        return env->NewDirectByteBuffer(const_cast<jbyte*>(value.get()), valueLength);
+    }
     LogEntryState getState() const {return state;}
+    bool hasAccept(unsigned replica) const {
+        if(replica < 32)
+            return accepts & (1u<<replica);
+        return acceptsExt && (acceptsExt[replica/32-1] & (1u<<(replica%32)));
+    }
+    unsigned acceptCount() const {
+        unsigned count = popcount(accepts);
+        if(acceptsExt)
+            for(unsigned i = 0; i < acceptWords()-1; ++i)
+                count += popcount(acceptsExt[i]);
+        return count;
+    }
     bool isMajority() const {
-        #ifdef __GNUC__
-        return __builtin_popcountl(accepts) >= majority();
-        #else
-        return std::bitset<32>(accepts).count() >= majority();
-        #endif
+        if(!phase2Quorums().empty()){
+            const auto & quorums = phase2Quorums();
+            const unsigned words = acceptWords();
+            for(size_t q = 0; q < quorums.size(); q += words){
+                bool contained = (accepts & quorums[q]) == quorums[q];
+                for(unsigned i = 1; contained && i < words; ++i)
+                    contained = quorums[q+i] == 0 || (acceptsExt && (acceptsExt[i-1] & quorums[q+i]) == quorums[q+i]);
+                if(contained)
+                    return true;
+            }
+            return false;
+        }
+        return acceptCount() >= majority();
     }
     void setDecided() {state = DECIDED;}
     
-    bool updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, jbyteArray newValue);
+    bool updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, const jbyte* newValue, jsize newValueLength);
     bool updateStateFromAccept(jint view, jint acceptSender);
     void updateStateFromDecision(JNIEnv * env, jint view, jbyteArray newValue);
     
@@ -80,11 +122,17 @@ public:
         }
     }
     
-    void freeMemory(){if(value) blockReuser->push(value, valueLength);};
+    void freeMemory(){
+        if(value) blockReuser->push(value, valueLength);
+        if(acceptsExt) pmem::obj::delete_persistent<uint32_t[]>(acceptsExt, acceptWords()-1);
+    };
     
     void dump(FILE* out) const;
 };
 
+// every instance of the log is stored in pmem; keep it at the pre-acceptsExt size
+static_assert(sizeof(ConsensusInstance) <= 40, "ConsensusInstance grew");
+
 namespace pmem::detail
 {
     template <>
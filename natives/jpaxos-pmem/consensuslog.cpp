@@ -93,6 +93,22 @@ jintArray ConsensusLog::clearUndecidedBelow(JNIEnv * env, jint id){
     return ja;
 }
 
+jintArray ConsensusLog::updateStateFromAcceptRange(JNIEnv * env, jint first, jint last, jint view, jint acceptSender){
+    std::vector<jint> ready;
+    pmem::obj::transaction::automatic tx(*pop);
+        for(jint id = std::max(first, lowestAvaialbale.get_ro()); id <= last; ++id){
+            auto inst = instances.get_if_exists(id);
+            if(!inst || inst->getState() == DECIDED)
+                continue;
+            if(inst->updateStateFromAccept(view, acceptSender))
+                ready.push_back(id);
+        }
+    pmem::obj::transaction::commit();
+    jintArray ja = env->NewIntArray(ready.size());
+    env->SetIntArrayRegion(ja, 0, ready.size(), ready.data());
+    return ja;
+}
+
 void ConsensusLog::dump(FILE* out) const {
     fprintf(out, "Consensus log contains ids [%d-%d)\n", lowestAvaialbale.get_ro(), nextId.get_ro());
 
@@ -142,6 +158,10 @@ JNIEXPORT jintArray JNICALL Java_lsr_paxos_storage_PersistentLog_clearUndecidedB
     return consensusLog->clearUndecidedBelow(env, id);
 }
 
+JNIEXPORT jintArray JNICALL Java_lsr_paxos_storage_PersistentLog_updateStateFromAcceptRange_1 (JNIEnv * env, jclass, jint first, jint last, jint view, jint acceptSender){
+    return consensusLog->updateStateFromAcceptRange(env, first, last, view, acceptSender);
+}
+
 #ifdef __cplusplus
 } // extern "C"
 #endif
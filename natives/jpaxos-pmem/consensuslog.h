@@ -32,6 +32,7 @@ public:
     const ConsensusInstance * getInstanceIfExists(jint id);
     void truncateBelow(jint id);
     jintArray clearUndecidedBelow(JNIEnv * env, jint id);
+    jintArray updateStateFromAcceptRange(JNIEnv * env, jint first, jint last, jint view, jint acceptSender);
     
     jint getNextId() const {return nextId;}
     jint getLowestAvailable() const {return lowestAvaialbale;}
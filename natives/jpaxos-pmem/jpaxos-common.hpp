@@ -15,6 +15,8 @@
 
 #include <unistd.h>
 #include <cstdio>
+#include <cstdint>
+#include <vector>
 
 #include <libpmem.h>
 #include <libpmemobj++/pool.hpp>
@@ -47,8 +49,14 @@ extern ReplicaStorage * replicaStorage;
 extern MultiBlockReuser<pmx::self_relative_ptr<jbyte[]>> * blockReuser;
 
 const unsigned char & numReplicas();
+/// minimal phase 2 quorum size
 const unsigned char & majority();
+/// minimal phase 2 quorums if these are not defined by size only (grid);
+/// each quorum is a bitset of acceptWords() consecutive words
+const std::vector<uint32_t> & phase2Quorums();
 const unsigned char & localId();
+/// number of 32-bit words in a bitset of replicas
+inline unsigned acceptWords() {return (numReplicas()+31)/32;}
 
 #include "paxosstorage.h"
 #include "replicastorage.h" 
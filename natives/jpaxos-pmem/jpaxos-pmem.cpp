@@ -20,6 +20,11 @@ void on_SIGABRT(int){
 
 #endif
 
+/// Layout name of the pool; change it whenever the persistent structures
+/// change, so that pools of older versions are refused rather than misread.
+/// Version 2: ConsensusInstance holds acceptsExt and a 32-bit valueLength.
+static const std::string POOL_LAYOUT = "jpaxos-pmem-2";
+
 struct root {
     unsigned char numReplicas;
     ConsensusLog consensusLog;
@@ -47,6 +52,8 @@ unsigned char majority_;
 unsigned char localId_;
 const unsigned char & numReplicas(){return numReplicas_;}
 const unsigned char & majority(){return majority_;}
+std::vector<uint32_t> phase2Quorums_;
+const std::vector<uint32_t> & phase2Quorums(){return phase2Quorums_;}
 const unsigned char & localId(){return localId_;}
 
 inline void createRootDataItem(jint numReplicas);
@@ -69,8 +76,8 @@ JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_init (JNIEnv * jni
     #ifndef NDEBUG
     original_sigabrt = signal(SIGABRT, on_SIGABRT);
     #endif
-    if(numReplicas > 32)
-        jnienv->ThrowNew(jnienv->FindClass("java/lang/IllegalArgumentException"), "JPaxos PM natives use 32-bit integer for acceptor bitset - you have too many replicas!");
+    if(numReplicas > 255)
+        jnienv->ThrowNew(jnienv->FindClass("java/lang/IllegalArgumentException"), "JPaxos PM natives store the number of replicas on a single byte - you have too many replicas!");
     
     // unwrap java.lang.String
     auto len = jnienv->GetStringUTFLength(jPmemFile);
@@ -81,13 +88,19 @@ JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_init (JNIEnv * jni
     // create/open pool
     pop = new pm::pool<root>();
     if(access(pmemFile,R_OK|W_OK)){
-        *pop = pm::pool<root>::create(pmemFile, std::string(), jPmemFileSize);
+        *pop = pm::pool<root>::create(pmemFile, POOL_LAYOUT, jPmemFileSize);
         ::numReplicas_ = numReplicas;
         pm::transaction::run(*pop, [&]{
             createRootDataItem(numReplicas);
         });
     } else {
-        *pop = pm::pool<root>::open(pmemFile, std::string());
+        try {
+            *pop = pm::pool<root>::open(pmemFile, POOL_LAYOUT);
+        } catch (const pmem::pool_error & e) {
+            // e.g. a pool of an older version, with a different layout
+            jnienv->ThrowNew(jnienv->FindClass("java/lang/IllegalStateException"), ("Cannot open pmem file "s + pmemFile + " with layout " + POOL_LAYOUT + " (created by an incompatible version?): " + e.what()).c_str());
+            return;
+        }
         pop->root()->replicaStorage.onPoolOpen();
         pop->root()->consensusLog.onPoolOpen();
     }
@@ -120,6 +133,13 @@ JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_init (JNIEnv * jni
 
 }
 
+JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_setPhase2Quorums (JNIEnv * jnienv, jclass, jint quorumSize, jintArray quorumMasks){
+    ::majority_ = quorumSize;
+    jsize count = jnienv->GetArrayLength(quorumMasks);
+    phase2Quorums_.resize(count);
+    jnienv->GetIntArrayRegion(quorumMasks, 0, count, reinterpret_cast<jint*>(phase2Quorums_.data()));
+}
+
 JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_startThreadLocalTx (JNIEnv *, jclass){
     if(!currentTransaction)
         currentTransaction = new pm::transaction::automatic(*pop);
@@ -152,7 +172,12 @@ void dumpJpaxosPmem(char * pmemFile, FILE * outFile){
         printf("File \"%s\" unavailable\n", pmemFile);
         return;
     }
-    *pop = pm::pool<root>::open(pmemFile, std::string());
+    try {
+        *pop = pm::pool<root>::open(pmemFile, POOL_LAYOUT);
+    } catch (const pmem::pool_error & e) {
+        printf("File \"%s\" is not a %s pool: %s\n", pmemFile, POOL_LAYOUT.c_str(), e.what());
+        return;
+    }
     paxosStorage = &(pop->root()->paxosStorage);
     replicaStorage = &(pop->root()->replicaStorage);
     consensusLog = &(pop->root()->consensusLog);
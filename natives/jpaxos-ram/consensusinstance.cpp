@@ -2,7 +2,7 @@
 #include "consensuslog.h"
 
 
-bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, jbyteArray newValue){
+bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, const jbyte* newValue, jsize newValueLength){
     if(view < lastSeenView){
         assert (state == DECIDED);
         return false;
@@ -14,13 +14,11 @@ bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender,
 
         assert(valueLength==0 && value==nullptr);
         
-        valueLength = env->GetArrayLength(newValue);
+        valueLength = newValueLength;
         
         // code below does: value = newValue;
-        jbyte* ba = env->GetByteArrayElements(newValue, nullptr);
         value = new jbyte[valueLength];
-        memcpy(value, ba, valueLength);
-        env->ReleaseByteArrayElements(newValue, ba, JNI_ABORT);
+        memcpy(value, newValue, valueLength);
         
         #ifdef DEBUG_DISAPPEARING_CI_VALUE
         fprintf(debugLogFile, "Setting value for inst %d (this: %p, value: %p, %luB) thread: %d\n", id, this, value, valueLength, gettid());
@@ -28,7 +26,8 @@ bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender,
         
         state = KNOWN;
         
-        accepts |= (1 << proposeSender) | (1 << localId());
+        addAccept(proposeSender);
+        addAccept(localId());
     };
                 
     switch(state){
@@ -37,14 +36,14 @@ bool ConsensusInstance::updateStateFromPropose(JNIEnv* env, jint proposeSender,
             break;
         case KNOWN:
             if(view > lastSeenView){
-                accepts = 0;
+                clearAccepts();
                 deleteValueUnchecked();
                 update();
             }
             break;
         case RESET:
             if(view > lastSeenView){
-                accepts = 0;
+                clearAccepts();
             }
             deleteValueUnchecked();
             update();
@@ -65,7 +64,7 @@ bool ConsensusInstance::updateStateFromAccept(jint view, jint acceptSender){
         case RESET:
             if(view > lastSeenView){
                 lastSeenView = view;
-                accepts = 0;
+                clearAccepts();
                 state = RESET;
             }
             break;
@@ -77,7 +76,7 @@ bool ConsensusInstance::updateStateFromAccept(jint view, jint acceptSender){
         default:
             throw "bad / unknown instance state";
     }
-    accepts |= (1<<acceptSender);
+    addAccept(acceptSender);
 return isReadyToBeDecieded();
 }
 
@@ -122,6 +121,11 @@ JNIEXPORT jbyteArray JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_
     return consensusLog->getInstanceRo(id).getValue(env);
 }
 
+JNIEXPORT jobject JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_getValueDirect (JNIEnv * env, jclass, jint id){
+    assert(consensusLog->getInstanceIfExists(id)!=nullptr);
+    return consensusLog->getInstanceRo(id).getValueDirect(env);
+}
+
 JNIEXPORT jbyte JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_getState (JNIEnv *, jclass, jint id){
     assert(consensusLog->getInstanceIfExists(id)!=nullptr);
     return consensusLog->getInstanceRo(id).getState();
@@ -163,7 +167,19 @@ JNIEXPORT jint JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_byteSi
 
 JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromPropose (JNIEnv * env, jclass, jint id, jint proposeSender, jint view, jbyteArray newValue){
     assert(consensusLog->getInstanceIfExists(id)!=nullptr);
-    return consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, newValue);
+    jsize length = env->GetArrayLength(newValue);
+    jbyte* ba = env->GetByteArrayElements(newValue, nullptr);
+    jboolean result = consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, ba, length);
+    env->ReleaseByteArrayElements(newValue, ba, JNI_ABORT);
+    return result;
+}
+
+JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromProposeDirect (JNIEnv * env, jclass, jint id, jint proposeSender, jint view, jobject newValue, jint offset, jint length){
+    assert(consensusLog->getInstanceIfExists(id)!=nullptr);
+    // the value is copied straight from the (network) buffer to the log
+    jbyte* ba = (jbyte*) env->GetDirectBufferAddress(newValue);
+    assert(ba != nullptr);
+    return consensusLog->getInstanceRw(id).updateStateFromPropose(env, proposeSender, view, ba + offset, length);
 }
 
 JNIEXPORT jboolean JNICALL Java_lsr_paxos_storage_PersistentConsensusInstance_updateStateFromAccept (JNIEnv *, jclass, jint id, jint view, jint acceptSender){
@@ -10,6 +10,7 @@
 #include "jpaxos-common.hpp"
 
 #include <atomic>
+#include <memory>
 
 #include "headers/lsr_paxos_storage_PersistentConsensusInstance.h"
 
@@ -25,12 +26,38 @@ class ConsensusInstance{
     jint lastSeenView    {-1};
     jint lastVotedView   {-1};
     LogEntryState state  {UNKNOWN};
+    /// accepts of replicas 0-31
     uint32_t accepts     {0};
+    /// accepts of replicas 32 and above, allocated only for larger clusters
+    std::unique_ptr<uint32_t[]> acceptsExt;
     size_t valueLength   {0};
     jbyte * value        {nullptr};
     
     bool isReadyToBeDecieded(){return state==KNOWN && isMajority();}
     
+    void addAccept(jint replica){
+        if(replica < 32){
+            accepts |= (1u<<replica);
+            return;
+        }
+        if(!acceptsExt)
+            acceptsExt = std::make_unique<uint32_t[]>(acceptWords()-1);
+        acceptsExt[replica/32-1] |= (1u<<(replica%32));
+    }
+    void clearAccepts(){
+        accepts = 0;
+        if(acceptsExt)
+            std::fill(acceptsExt.get(), acceptsExt.get()+acceptWords()-1, 0);
+    }
+    
+    static unsigned popcount(uint32_t word) {
+        #ifdef __GNUC__
+        return __builtin_popcount(word);
+        #else
+        return std::bitset<32>(word).count();
+        #endif
+    }
+    
     void deleteValueUnchecked() {
         #ifdef DEBUG_DISAPPEARING_CI_VALUE
         fprintf(debugLogFile, "Erasing value for inst %d (this: %p, value: %p, %luB) thread: %d\n", id, this, value, valueLength, gettid());
@@ -57,13 +84,39 @@ public:
         env->SetByteArrayRegion(ba, 0, valueLength, value);
         return ba;
     }
+    /// direct buffer over the value; valid until the value is freed
+    jobject getValueDirect(JNIEnv * env) const {
+        if(!value)
+            return nullptr;
+        return env->NewDirectByteBuffer(value, valueLength);
+    }
     LogEntryState getState() const {return state;}
+    bool hasAccept(unsigned replica) const {
+        if(replica < 32)
+            return accepts & (1u<<replica);
+        return acceptsExt && (acceptsExt[replica/32-1] & (1u<<(replica%32)));
+    }
+    unsigned acceptCount() const {
+        unsigned count = popcount(accepts);
+        if(acceptsExt)
+            for(unsigned i = 0; i < acceptWords()-1; ++i)
+                count += popcount(acceptsExt[i]);
+        return count;
+    }
     bool isMajority() const {
-        #ifdef __GNUC__
-        return __builtin_popcountl(accepts) >= majority();
-        #else
-        return std::bitset<32>(accepts).count() >= majority();
-        #endif
+        if(!phase2Quorums().empty()){
+            const auto & quorums = phase2Quorums();
+            const unsigned words = acceptWords();
+            for(size_t q = 0; q < quorums.size(); q += words){
+                bool contained = (accepts & quorums[q]) == quorums[q];
+                for(unsigned i = 1; contained && i < words; ++i)
+                    contained = quorums[q+i] == 0 || (acceptsExt && (acceptsExt[i-1] & quorums[q+i]) == quorums[q+i]);
+                if(contained)
+                    return true;
+            }
+            return false;
+        }
+        return acceptCount() >= majority();
     }
     void setDecided() {
         #ifdef DEBUG_DISAPPEARING_CI_VALUE
@@ -72,7 +125,7 @@ public:
         state = DECIDED;
     }
     
-    bool updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, jbyteArray newValue);
+    bool updateStateFromPropose(JNIEnv* env, jint proposeSender, jint view, const jbyte* newValue, jsize newValueLength);
     bool updateStateFromAccept(jint view, jint acceptSender);
     void updateStateFromDecision(JNIEnv * env, jint view, jbyteArray newValue);
     
@@ -94,6 +147,7 @@ public:
     }
     
     void freeMemory(){
+        acceptsExt.reset();
         if(value){
             delete [] value;
             #ifdef DEBUG_DISAPPEARING_CI_VALUE
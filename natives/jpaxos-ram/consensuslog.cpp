@@ -115,6 +115,23 @@ jintArray ConsensusLog::clearUndecidedBelow(JNIEnv * env, jint id){
     return ja;
 }
 
+jintArray ConsensusLog::updateStateFromAcceptRange(JNIEnv * env, jint first, jint last, jint view, jint acceptSender){
+    std::vector<jint> ready;
+    {
+        auto l = std::unique_lock(instancesMutex);
+        for(jint id = std::max(first, lowestAvaialbale); id <= last; ++id){
+            auto inst = instances.find(id);
+            if(inst==instances.end() || inst->second.getState() == DECIDED)
+                continue;
+            if(inst->second.updateStateFromAccept(view, acceptSender))
+                ready.push_back(id);
+        }
+    }
+    jintArray ja = env->NewIntArray(ready.size());
+    env->SetIntArrayRegion(ja, 0, ready.size(), ready.data());
+    return ja;
+}
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -147,6 +164,10 @@ JNIEXPORT jintArray JNICALL Java_lsr_paxos_storage_PersistentLog_clearUndecidedB
     return consensusLog->clearUndecidedBelow(env, id);
 }
 
+JNIEXPORT jintArray JNICALL Java_lsr_paxos_storage_PersistentLog_updateStateFromAcceptRange_1 (JNIEnv * env, jclass, jint first, jint last, jint view, jint acceptSender){
+    return consensusLog->updateStateFromAcceptRange(env, first, last, view, acceptSender);
+}
+
 #ifdef __cplusplus
 } // extern "C"
 #endif
@@ -27,6 +27,7 @@ public:
     const ConsensusInstance * getInstanceIfExists(jint id) const;
     void truncateBelow(jint id);
     jintArray clearUndecidedBelow(JNIEnv * env, jint id);
+    jintArray updateStateFromAcceptRange(JNIEnv * env, jint first, jint last, jint view, jint acceptSender);
     
     jint getNextId() const {return nextId;}
     jint getLowestAvailable() const {return lowestAvaialbale;}
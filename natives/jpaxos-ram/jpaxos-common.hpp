@@ -5,6 +5,8 @@
 #include <cstdio>
 #include <algorithm>
 #include <cassert>
+#include <cstdint>
+#include <vector>
 
 #include <jni.h>
 
@@ -25,8 +27,14 @@ extern PaxosStorage * paxosStorage;
 extern ReplicaStorage * replicaStorage;
 
 const unsigned char & numReplicas();
+/// minimal phase 2 quorum size
 const unsigned char & majority();
+/// minimal phase 2 quorums if these are not defined by size only (grid);
+/// each quorum is a bitset of acceptWords() consecutive words
+const std::vector<uint32_t> & phase2Quorums();
 const unsigned char & localId();
+/// number of 32-bit words in a bitset of replicas
+inline unsigned acceptWords() {return (numReplicas()+31)/32;}
 
 #ifdef DEBUGFILE
     #include <string>
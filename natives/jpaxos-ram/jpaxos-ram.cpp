@@ -29,6 +29,8 @@ unsigned char majority_;
 unsigned char localId_;
 const unsigned char & numReplicas(){return numReplicas_;}
 const unsigned char & majority(){return majority_;}
+std::vector<uint32_t> phase2Quorums_;
+const std::vector<uint32_t> & phase2Quorums(){return phase2Quorums_;}
 const unsigned char & localId(){return localId_;}
 
 #ifdef DEBUGFILE
@@ -53,8 +55,8 @@ JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_init (JNIEnv * jni
     #ifndef NDEBUG
     original_sigabrt = signal(SIGABRT, on_SIGABRT);
     #endif
-    if(numReplicas > 32)
-        jnienv->ThrowNew(jnienv->FindClass("java/lang/IllegalArgumentException"), "JPaxos PM natives use 32-bit integer for acceptor bitset - you have too many replicas!");
+    if(numReplicas > 255)
+        jnienv->ThrowNew(jnienv->FindClass("java/lang/IllegalArgumentException"), "JPaxos PM natives store the number of replicas on a single byte - you have too many replicas!");
     
     paxosStorage = new PaxosStorage();
     replicaStorage = new ReplicaStorage();
@@ -74,6 +76,13 @@ JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_init (JNIEnv * jni
     #endif
 }
 
+JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_setPhase2Quorums (JNIEnv * jnienv, jclass, jint quorumSize, jintArray quorumMasks){
+    ::majority_ = quorumSize;
+    jsize count = jnienv->GetArrayLength(quorumMasks);
+    phase2Quorums_.resize(count);
+    jnienv->GetIntArrayRegion(quorumMasks, 0, count, reinterpret_cast<jint*>(phase2Quorums_.data()));
+}
+
 JNIEXPORT void JNICALL Java_lsr_paxos_NATIVE_PersistentMemory_startThreadLocalTx (JNIEnv *, jclass){
 }
 
@@ -0,0 +1,40 @@
+package lsr.common;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity pool of reusable objects that does not allocate when taking
+ * or returning objects. Any thread may take and return objects.
+ *
+ * Objects are kept in an array of slots; a thread takes an object by clearing
+ * an occupied slot and returns one by filling an empty slot. If the pool is
+ * empty, {@link #poll()} returns null and the caller creates a new object; if
+ * it is full, {@link #offer(Object)} drops the object.
+ */
+public final class BoundedPool<T> {
+    private final AtomicReferenceArray<T> slots;
+
+    public BoundedPool(int capacity) {
+        slots = new AtomicReferenceArray<T>(capacity);
+    }
+
+    /** Takes an object from the pool; returns null if there is none */
+    public T poll() {
+        for (int i = 0; i < slots.length(); ++i) {
+            T object = slots.get(i);
+            if (object != null && slots.compareAndSet(i, object, null))
+                return object;
+        }
+        return null;
+    }
+
+    /** Puts an object to the pool; returns false if the pool is full */
+    public boolean offer(T object) {
+        assert object != null;
+        for (int i = 0; i < slots.length(); ++i) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, object))
+                return true;
+        }
+        return false;
+    }
+}
@@ -13,10 +13,11 @@ public class ClientCommand implements Serializable {
     private final ClientRequest request;
 
     /**
-     * The type of command.
+     * The type of command. READ_ONLY is a request that does not modify the
+     * service state; replicas may execute it without ordering.
      */
     public enum CommandType {
-        REQUEST, ALIVE
+        REQUEST, ALIVE, READ_ONLY
     };
 
     /**
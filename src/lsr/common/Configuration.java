@@ -92,6 +92,30 @@ public final class Configuration {
         this.processes = processes;
     }
 
+    /**
+     * Returns the configuration of the given Paxos group of a process running
+     * many groups: the same properties, with the group index set and all ports
+     * shifted by <code>group * GroupPortOffset</code>.
+     * 
+     * @param group - index of the group, from 0 to Groups - 1
+     */
+    public Configuration forGroup(int group) {
+        int offset = group * getIntProperty(ProcessDescriptor.GROUP_PORT_OFFSET,
+                ProcessDescriptor.DEFAULT_GROUP_PORT_OFFSET);
+        List<PID> shifted = new ArrayList<PID>(processes.size());
+        for (PID p : processes)
+            shifted.add(new PID(p.getId(), p.getHostname(), p.getReplicaPort() + offset,
+                    p.getClientPort() + offset));
+
+        Configuration result = new Configuration(Collections.unmodifiableList(shifted));
+        result.configuration.putAll(configuration);
+        result.configuration.setProperty(ProcessDescriptor.GROUP, String.valueOf(group));
+        result.configuration.setProperty(ProcessDescriptor.MULTICAST_PORT,
+                String.valueOf(getIntProperty(ProcessDescriptor.MULTICAST_PORT,
+                        ProcessDescriptor.DEFAULT_MULTICAST_PORT) + offset));
+        return result;
+    }
+
     public int getN() {
         return processes.size();
     }
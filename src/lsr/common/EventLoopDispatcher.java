@@ -0,0 +1,559 @@
+package lsr.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single-threaded event loop offering the same API as
+ * {@link SingleThreadDispatcher}, but not backed by the lock-based queue of
+ * the {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+ *
+ * Tasks passed to {@link #execute(Runnable)} are put on a bounded lock-free
+ * multi-producer single-consumer ring (no allocation per task) and are
+ * drained by the dispatcher thread in batches. Delayed and periodic tasks are
+ * kept apart from the ring, on a hashed timer wheel owned by the dispatcher
+ * thread.
+ *
+ * If the ring is full, producers spin until the dispatcher thread frees a
+ * slot. Tasks enqueued by the dispatcher thread itself on a full ring go to
+ * an unbounded overflow queue instead, as waiting would deadlock.
+ *
+ * The way the dispatcher thread waits for work is selected by
+ * {@link WaitStrategy}.
+ *
+ * Note: the thread pool inherited from the superclass is never started - all
+ * methods that could start it are overridden.
+ */
+public class EventLoopDispatcher extends SingleThreadDispatcher {
+
+    /** How the dispatcher thread waits for new tasks */
+    public enum WaitStrategy {
+        /** parks the thread at once; lowest CPU usage, highest latency */
+        Park,
+        /** spins for some time, then yields for some time, then parks */
+        SpinThenPark,
+        /** never parks; occupies a CPU core all the time */
+        BusySpin
+    }
+
+    /** How many tasks are run before timers are checked */
+    private static final int DRAIN_BATCH = 256;
+
+    /** How many empty polls are done before parking in SpinThenPark mode */
+    private static final int SPIN_TRIES = 20000;
+
+    /** How many times a producer spins on a full ring before yielding */
+    private static final int PRODUCER_SPIN_TRIES = 64;
+
+    /** Timer wheel resolution */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** Number of wheel buckets, must be a power of two */
+    private static final int WHEEL_SIZE = 512;
+
+    private final String threadName;
+    private final WaitStrategy waitStrategy;
+    private final Thread thread;
+
+    private volatile boolean shutdown = false;
+    /** Set by shutdownNow(); the tasks still queued are then not executed */
+    private volatile boolean discardPending = false;
+    /** True iff the dispatcher thread is parked or about to park */
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+
+    /*
+     * The ring. A slot with sequence equal to position is free for the
+     * producer taking that position, with sequence equal to position+1 is
+     * ready for the consumer.
+     */
+    private final int ringMask;
+    private final AtomicReferenceArray<Runnable> ringSlots;
+    private final AtomicLongArray ringSequences;
+    private final AtomicLong ringTail = new AtomicLong(0);
+    /** accessed only by the dispatcher thread */
+    private long ringHead = 0;
+
+    /** Tasks enqueued by the dispatcher thread when the ring was full */
+    private final ArrayDeque<Runnable> overflow = new ArrayDeque<Runnable>();
+
+    /** Timers scheduled by other threads, not yet put on the wheel */
+    private final ConcurrentLinkedQueue<TimerTask<?>> newTimers = new ConcurrentLinkedQueue<TimerTask<?>>();
+
+    /* Timer wheel; accessed only by the dispatcher thread */
+    private final TimerTask<?>[] wheel = new TimerTask<?>[WHEEL_SIZE];
+    private final long wheelStart = System.nanoTime();
+    /** last tick for which the timers are expired */
+    private long wheelTick = 0;
+    private int timerCount = 0;
+
+    public EventLoopDispatcher(String threadName, WaitStrategy waitStrategy, int ringSize) {
+        super(threadName);
+        if (ringSize < 2 || Integer.bitCount(ringSize) != 1)
+            throw new IllegalArgumentException("Ring size must be a power of two: " + ringSize);
+
+        this.threadName = threadName;
+        this.waitStrategy = waitStrategy;
+
+        ringMask = ringSize - 1;
+        ringSlots = new AtomicReferenceArray<Runnable>(ringSize);
+        ringSequences = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; ++i)
+            ringSequences.set(i, i);
+
+        thread = new Thread(this::runLoop, threadName);
+        thread.setUncaughtExceptionHandler(new KillOnExceptionHandler());
+        thread.start();
+    }
+
+    @Override
+    public boolean amIInDispatcher() {
+        return Thread.currentThread() == thread;
+    }
+
+    // *****************
+    // Task submission
+    // *****************
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null)
+            throw new NullPointerException();
+        if (shutdown) {
+            reject(task);
+            return;
+        }
+
+        if (amIInDispatcher()) {
+            if (!overflow.isEmpty() || !offer(task))
+                overflow.add(task);
+            return;
+        }
+
+        int tries = 0;
+        while (!offer(task)) {
+            if (shutdown) {
+                reject(task);
+                return;
+            }
+            // the dispatcher may be parked even though the ring is full
+            wakeUp();
+            if (++tries < PRODUCER_SPIN_TRIES)
+                Thread.onSpinWait();
+            else
+                Thread.yield();
+        }
+        wakeUp();
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Object> future = new FutureTask<Object>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        FutureTask<T> future = new FutureTask<T>(task, result);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return addTimer(new TimerTask<Object>(command, null, deadline(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return addTimer(new TimerTask<V>(callable, deadline(delay, unit)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                  long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException();
+        return addTimer(new TimerTask<Object>(command, null, deadline(initialDelay, unit),
+                unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                                                     long delay, TimeUnit unit) {
+        if (delay <= 0)
+            throw new IllegalArgumentException();
+        return addTimer(new TimerTask<Object>(command, null, deadline(initialDelay, unit),
+                -unit.toNanos(delay)));
+    }
+
+    private static long deadline(long delay, TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+    }
+
+    private <V> TimerTask<V> addTimer(TimerTask<V> timer) {
+        if (shutdown) {
+            reject(timer);
+            return timer;
+        }
+        if (amIInDispatcher()) {
+            putOnWheel(timer);
+        } else {
+            newTimers.add(timer);
+            wakeUp();
+        }
+        return timer;
+    }
+
+    private void reject(Runnable task) {
+        getRejectedExecutionHandler().rejectedExecution(task, this);
+    }
+
+    // *****************
+    // Lifecycle
+    // *****************
+
+    /**
+     * Rejects new tasks; the tasks already queued are executed before the
+     * dispatcher thread stops, while pending timers are dropped.
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        super.shutdown();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops the dispatcher thread after the currently executed task. Pending
+     * tasks are returned only if called from within the dispatcher, as no
+     * other thread may take tasks from the ring.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        discardPending = true;
+        shutdown = true;
+        super.shutdownNow();
+        List<Runnable> pending = new ArrayList<Runnable>();
+        if (amIInDispatcher()) {
+            Runnable task;
+            while ((task = poll()) != null)
+                pending.add(task);
+            pending.addAll(overflow);
+            overflow.clear();
+        } else {
+            LockSupport.unpark(thread);
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && !thread.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(Math.max(1, unit.toMillis(timeout)));
+        return !thread.isAlive();
+    }
+
+    // *****************
+    // The ring
+    // *****************
+
+    /** Called by producers; returns false if the ring is full */
+    private boolean offer(Runnable task) {
+        long pos = ringTail.get();
+        while (true) {
+            int idx = (int) pos & ringMask;
+            long dif = ringSequences.get(idx) - pos;
+            if (dif == 0) {
+                if (ringTail.compareAndSet(pos, pos + 1)) {
+                    ringSlots.lazySet(idx, task);
+                    // volatile write, so that it is not reordered with the
+                    // subsequent read of 'parked'
+                    ringSequences.set(idx, pos + 1);
+                    return true;
+                }
+                pos = ringTail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = ringTail.get();
+            }
+        }
+    }
+
+    /** Called by the dispatcher thread only */
+    private Runnable poll() {
+        int idx = (int) ringHead & ringMask;
+        if (ringSequences.get(idx) != ringHead + 1)
+            return null;
+        Runnable task = ringSlots.get(idx);
+        ringSlots.lazySet(idx, null);
+        ringSequences.lazySet(idx, ringHead + ringMask + 1);
+        ringHead++;
+        return task;
+    }
+
+    private boolean hasPendingWork() {
+        return ringSequences.get((int) ringHead & ringMask) == ringHead + 1 ||
+               !overflow.isEmpty() || !newTimers.isEmpty();
+    }
+
+    private void wakeUp() {
+        if (parked.get() && parked.compareAndSet(true, false))
+            LockSupport.unpark(thread);
+    }
+
+    // *****************
+    // Dispatcher thread
+    // *****************
+
+    private void runLoop() {
+        int idleRounds = 0;
+        while (!shutdown) {
+            int done = drain();
+            TimerTask<?> timer;
+            while ((timer = newTimers.poll()) != null)
+                putOnWheel(timer);
+            done += expireTimers();
+
+            if (done != 0) {
+                idleRounds = 0;
+                continue;
+            }
+
+            switch (waitStrategy) {
+                case BusySpin:
+                    Thread.onSpinWait();
+                    break;
+                case SpinThenPark:
+                    if (++idleRounds < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                    } else if (idleRounds < 2 * SPIN_TRIES) {
+                        Thread.yield();
+                    } else {
+                        park();
+                        idleRounds = 0;
+                    }
+                    break;
+                case Park:
+                    park();
+                    idleRounds = 0;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown wait strategy " + waitStrategy);
+            }
+        }
+        // as ThreadPoolExecutor, run what was queued before shutdown()
+        if (!discardPending) {
+            while (drain() != 0 && !discardPending)
+                ;
+        }
+        logger.info("Dispatcher {} stopped", threadName);
+    }
+
+    private int drain() {
+        int done = 0;
+        Runnable task;
+        while (done < DRAIN_BATCH && (task = poll()) != null) {
+            runTask(task);
+            done++;
+        }
+        while (done < DRAIN_BATCH && (task = overflow.poll()) != null) {
+            runTask(task);
+            done++;
+        }
+        return done;
+    }
+
+    private void park() {
+        parked.set(true);
+        if (!hasPendingWork() && !shutdown) {
+            long timeout = nanosToNextTimer();
+            if (timeout < 0)
+                LockSupport.park(this);
+            else
+                LockSupport.parkNanos(this, timeout);
+        }
+        parked.set(false);
+    }
+
+    /**
+     * Runs the task and, as the superclass does, kills the dispatcher upon
+     * exceptions
+     */
+    private void runTask(Runnable task) {
+        Throwable thrown = null;
+        try {
+            task.run();
+        } catch (RuntimeException | Error e) {
+            thrown = e;
+        }
+        afterExecute(task, thrown);
+    }
+
+    // *****************
+    // Timer wheel
+    // *****************
+
+    private long tickOf(long deadline) {
+        long sinceStart = deadline - wheelStart;
+        return (sinceStart + TICK_NANOS - 1) / TICK_NANOS;
+    }
+
+    private void putOnWheel(TimerTask<?> timer) {
+        timer.tick = Math.max(tickOf(timer.deadline), wheelTick + 1);
+        int bucket = (int) timer.tick & (WHEEL_SIZE - 1);
+        timer.next = wheel[bucket];
+        wheel[bucket] = timer;
+        timerCount++;
+    }
+
+    /** Runs all timers whose deadline passed, returns how many were run */
+    private int expireTimers() {
+        if (timerCount == 0) {
+            wheelTick = (System.nanoTime() - wheelStart) / TICK_NANOS;
+            return 0;
+        }
+
+        long nowTick = (System.nanoTime() - wheelStart) / TICK_NANOS;
+        if (nowTick <= wheelTick)
+            return 0;
+
+        // each bucket is visited at most once, even if many ticks passed
+        long lastTick = Math.min(nowTick, wheelTick + WHEEL_SIZE);
+        TimerTask<?> expired = null;
+        for (long tick = wheelTick + 1; tick <= lastTick; ++tick) {
+            int bucket = (int) tick & (WHEEL_SIZE - 1);
+            TimerTask<?> prev = null;
+            TimerTask<?> timer = wheel[bucket];
+            while (timer != null) {
+                TimerTask<?> next = timer.next;
+                if (timer.tick <= nowTick) {
+                    if (prev == null)
+                        wheel[bucket] = next;
+                    else
+                        prev.next = next;
+                    timer.next = expired;
+                    expired = timer;
+                    timerCount--;
+                } else {
+                    prev = timer;
+                }
+                timer = next;
+            }
+        }
+        wheelTick = nowTick;
+
+        int done = 0;
+        while (expired != null) {
+            TimerTask<?> timer = expired;
+            expired = timer.next;
+            timer.next = null;
+            if (timer.isCancelled())
+                continue;
+            runTask(timer);
+            done++;
+        }
+        return done;
+    }
+
+    /**
+     * Returns a conservative time to the next timer (i.e., the dispatcher
+     * might wake up earlier than needed), or -1 if there are no timers
+     */
+    private long nanosToNextTimer() {
+        if (timerCount == 0)
+            return -1;
+        for (int offset = 1; offset <= WHEEL_SIZE; ++offset) {
+            if (wheel[(int) (wheelTick + offset) & (WHEEL_SIZE - 1)] != null) {
+                long wakeUpTime = wheelStart + (wheelTick + offset) * TICK_NANOS;
+                return Math.max(1, wakeUpTime - System.nanoTime());
+            }
+        }
+        return WHEEL_SIZE * TICK_NANOS;
+    }
+
+    /**
+     * A task on the timer wheel. Positive period denotes fixed rate, negative
+     * fixed delay, zero a one-shot task.
+     */
+    private final class TimerTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private long deadline;
+        private final long period;
+
+        /* fields below are accessed only by the dispatcher thread */
+        private long tick;
+        private TimerTask<?> next;
+
+        TimerTask(Runnable runnable, V result, long deadline, long period) {
+            super(runnable, result);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        TimerTask(Callable<V> callable, long deadline) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = 0;
+        }
+
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            if (other == this)
+                return 0;
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS),
+                    other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (super.runAndReset()) {
+                deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+                if (!shutdown)
+                    putOnWheel(this);
+            }
+        }
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(EventLoopDispatcher.class);
+}
@@ -1,10 +1,17 @@
 package lsr.common;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
+import lsr.paxos.BatchCompressor;
+import lsr.paxos.replica.FollowerReadManager;
+
 /**
  * Contains all the information describing the local process, including the
  * local id and the configuration of the system.
@@ -77,6 +84,46 @@ public final class ProcessDescriptor {
     public static final String WINDOW_SIZE = "WindowSize";
     public static final int DEFAULT_WINDOW_SIZE = 2;
 
+    /**
+     * If true, the leader adapts the window size to the measured latency and
+     * throughput, starting from WindowSize, within [WindowSizeMin,
+     * WindowSizeMax]. See {@link lsr.paxos.core.WindowController}
+     */
+    public static final String WINDOW_SIZE_ADAPTIVE = "WindowSizeAdaptive";
+    public static final boolean DEFAULT_WINDOW_SIZE_ADAPTIVE = false;
+
+    /** Lower bound of the adaptive window */
+    public static final String WINDOW_SIZE_MIN = "WindowSizeMin";
+    public static final int DEFAULT_WINDOW_SIZE_MIN = 1;
+
+    /** Upper bound of the adaptive window. Defaults to 4 * WindowSize */
+    public static final String WINDOW_SIZE_MAX = "WindowSizeMax";
+
+    /** How often the adaptive window is recalculated. In milliseconds */
+    public static final String WINDOW_ADJUST_INTERVAL = "WindowAdjustInterval";
+    public static final int DEFAULT_WINDOW_ADJUST_INTERVAL = 100;
+
+    /**
+     * Implementation of the Protocol, Replica, Batcher and DecidedInstUnpacker
+     * dispatchers. ThreadPool (a ScheduledThreadPoolExecutor) or EventLoop (a
+     * lock-free ring drained by a single thread, see
+     * {@link EventLoopDispatcher})
+     */
+    public static final String DISPATCHER = "Dispatcher";
+    public static final String DEFAULT_DISPATCHER = "ThreadPool";
+
+    /**
+     * How an EventLoop dispatcher waits for tasks. For valid entries see
+     * {@link EventLoopDispatcher.WaitStrategy}
+     */
+    public static final String DISPATCHER_WAIT_STRATEGY = "DispatcherWaitStrategy";
+    public static final EventLoopDispatcher.WaitStrategy DEFAULT_DISPATCHER_WAIT_STRATEGY =
+            EventLoopDispatcher.WaitStrategy.SpinThenPark;
+
+    /** Capacity of the task ring of an EventLoop dispatcher. Power of two. */
+    public static final String DISPATCHER_RING_SIZE = "DispatcherRingSize";
+    public static final int DEFAULT_DISPATCHER_RING_SIZE = 4096;
+
     /**
      * Maximum UDP packet size in java is 65507. Higher than that and the send
      * method throws an exception.
@@ -101,6 +148,37 @@ public final class ProcessDescriptor {
     public static final String NETWORK = "Network";
     public static final String DEFAULT_NETWORK = "TCP";
 
+    /**
+     * Number of threads of the TCPNIO network. Peers are divided among them;
+     * each thread reads, deserializes and writes the messages of its peers.
+     * At most one thread per peer is used.
+     */
+    public static final String NETWORK_IO_THREADS = "NetworkIoThreads";
+    public static final int DEFAULT_NETWORK_IO_THREADS = 1;
+
+    /**
+     * Bytes the TCPNIO network may queue for a single peer. Once exceeded, the
+     * peer is congested: further proposals, forwarded requests and catch-up
+     * responses to it are dropped until half of the queue is sent, and the
+     * leader stops proposing to it, so that it catches up later. Control
+     * messages are always queued. A message larger than the limit is queued
+     * if the queue is empty.
+     */
+    public static final String PEER_SEND_QUEUE_BYTES = "PeerSendQueueBytes";
+    public static final long DEFAULT_PEER_SEND_QUEUE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Number of extra TCP connections per peer of the TCPNIO network, across
+     * which large messages are striped. Smaller messages always use the
+     * regular connection. 0 turns striping off.
+     */
+    public static final String NETWORK_STRIPES = "NetworkStripes";
+    public static final int DEFAULT_NETWORK_STRIPES = 0;
+
+    /** Messages at least this large are striped; see NETWORK_STRIPES */
+    public static final String STRIPED_MESSAGE_MIN_BYTES = "StripedMessageMinBytes";
+    public static final int DEFAULT_STRIPED_MESSAGE_MIN_BYTES = 32 * 1024;
+
     /**
      * When sending a huge message (snapshot), this speed is used to estimate
      * the time it takes to transmit the message. Unit: bits per second.
@@ -163,9 +241,54 @@ public final class ProcessDescriptor {
     public static final String MAX_BATCH_DELAY = "MaxBatchDelay";
     public static final int DEFAULT_MAX_BATCH_DELAY = 10;
 
+    /**
+     * If true, the leader picks the batch size and delay basing on the
+     * measured load, within [BatchSizeMin, BatchSize] and [0,
+     * BatchLatencySLO]. See {@link lsr.paxos.BatchingController}
+     */
+    public static final String BATCHING_ADAPTIVE = "BatchingAdaptive";
+    public static final boolean DEFAULT_BATCHING_ADAPTIVE = false;
+
+    /** Lower bound of the adaptive batch size. In bytes */
+    public static final String BATCH_SIZE_MIN = "BatchSizeMin";
+    public static final int DEFAULT_BATCH_SIZE_MIN = 1024;
+
+    /**
+     * Latency objective of adaptive batching: the time a request may spend
+     * from entering a batch until its execution. In milliseconds
+     */
+    public static final String BATCH_LATENCY_SLO = "BatchLatencySLO";
+    public static final int DEFAULT_BATCH_LATENCY_SLO = 20;
+
+    /**
+     * Codec the leader compresses batches with. See
+     * {@link lsr.paxos.BatchCompressor}
+     */
+    public static final String BATCH_COMPRESSION = "BatchCompression";
+    public static final BatchCompressor.Codec DEFAULT_BATCH_COMPRESSION = BatchCompressor.Codec.None;
+
+    /** Smaller batches are not compressed. In bytes */
+    public static final String BATCH_COMPRESSION_MIN_BYTES = "BatchCompressionMinBytes";
+    public static final int DEFAULT_BATCH_COMPRESSION_MIN_BYTES = 4096;
+
+    /**
+     * A batch is sent compressed only if compression shrinks it to at most
+     * this fraction of its size
+     */
+    public static final String BATCH_COMPRESSION_MAX_RATIO = "BatchCompressionMaxRatio";
+    public static final double DEFAULT_BATCH_COMPRESSION_MAX_RATIO = 0.8;
+
     public static final String DECIDED_BUT_NOT_EXECUTED_THRESHOLD = "DecidedButNotExecutedThreshold";
     public static final int DEFAULT_DECIDED_BUT_NOT_EXECUTED_THRESHOLD = 128;
 
+    /**
+     * If true, decided requests are executed straight from the value kept by
+     * the log, instead of from a copy taken by the unpacker thread. See
+     * {@link lsr.paxos.UnBatcher.Cursor}
+     */
+    public static final String UNPACK_IN_PLACE = "UnpackInPlace";
+    public static final boolean DEFAULT_UNPACK_IN_PLACE = false;
+
     public static final String CLIENT_ID_GENERATOR = "ClientIDGenerator";
     public static final String DEFAULT_CLIENT_ID_GENERATOR = "ViewEpoch";
 
@@ -251,8 +374,8 @@ public final class ProcessDescriptor {
     private static final String MAX_BATCH_FETCHING_TIME_MS = "TimeoutFetchBatchValue";
     private static final int DEFAULT_MAX_BATCH_FETCHING_TIME_MS = 2500;
 
-    private static final String MULTICAST_PORT = "MulticastPort";
-    private static final int DEFAULT_MULTICAST_PORT = 3000;
+    public static final String MULTICAST_PORT = "MulticastPort";
+    public static final int DEFAULT_MULTICAST_PORT = 3000;
 
     private static final String MULTICAST_IP_ADDRESS = "MulticastIpAddress";
     private static final String DEFAULT_MULTICAST_IP_ADDRESS = "224.0.0.144";
@@ -266,6 +389,119 @@ public final class ProcessDescriptor {
     private static final String AUGMENTED_PAXOS = "AugmentedPaxos";
     private static final boolean DEFAULT_AUGMENTED_PAXOS = false;
 
+    /**
+     * If true, the leader sends Propose only to the fastest phase 2 quorum and
+     * widens to all replicas only if the Accepts do not come in time. See
+     * lsr.paxos.core.ThriftyQuorum
+     */
+    public static final String THRIFTY_PHASE2 = "ThriftyPhase2";
+    public static final boolean DEFAULT_THRIFTY_PHASE2 = false;
+
+    /**
+     * If true, followers send Accept only to the leader, and the leader
+     * notifies the followers about decisions with Commit messages.
+     */
+    public static final String LEADER_CENTRIC_PHASE2 = "LeaderCentricPhase2";
+    public static final boolean DEFAULT_LEADER_CENTRIC_PHASE2 = false;
+
+    /**
+     * If true, followers coalesce the Accepts for consecutive instances into
+     * AcceptRange messages.
+     */
+    public static final String ACCEPT_RANGES = "AcceptRanges";
+    public static final boolean DEFAULT_ACCEPT_RANGES = false;
+
+    /**
+     * How long (in microseconds) the first of coalesced Accepts may wait for
+     * the others. 0 means until the dispatcher handles the messages queued
+     * for it.
+     */
+    public static final String ACCEPT_COALESCE_BUDGET = "AcceptCoalesceBudget";
+    public static final int DEFAULT_ACCEPT_COALESCE_BUDGET = 0;
+
+    /**
+     * If true, the leader holds a lease granted by a quorum and serves
+     * read-only requests locally while the lease is valid. See
+     * lsr.paxos.core.LeaseManager
+     */
+    public static final String LEADER_LEASE = "LeaderLease";
+    public static final boolean DEFAULT_LEADER_LEASE = false;
+
+    /** Lease duration, in milliseconds. Must be lower than FDSuspectTimeout */
+    public static final String LEASE_DURATION = "LeaseDuration";
+    public static final int DEFAULT_LEASE_DURATION = 500;
+
+    /** Upper bound on the relative clock rate difference between replicas */
+    public static final String LEASE_CLOCK_DRIFT = "LeaseClockDrift";
+    public static final double DEFAULT_LEASE_CLOCK_DRIFT = 0.05;
+
+    /**
+     * How followers serve read-only requests. See
+     * {@link FollowerReadManager.Mode}
+     */
+    public static final String FOLLOWER_READS = "FollowerReads";
+    public static final FollowerReadManager.Mode DEFAULT_FOLLOWER_READS =
+            FollowerReadManager.Mode.Disabled;
+
+    /** BoundedStaleness follower reads: max instances behind the leader */
+    public static final String STALENESS_MAX_INSTANCES = "StalenessMaxInstances";
+    public static final int DEFAULT_STALENESS_MAX_INSTANCES = 100;
+
+    /** BoundedStaleness follower reads: max delay behind the leader, in ms */
+    public static final String STALENESS_MAX_DELAY = "StalenessMaxDelay";
+    public static final int DEFAULT_STALENESS_MAX_DELAY = 100;
+
+    /** Quorums used in phase 1 and 2, see {@link QuorumSystem} */
+    public static final String QUORUM_SYSTEM = "QuorumSystem";
+    public static final QuorumSystem DEFAULT_QUORUM_SYSTEM = QuorumSystem.Majority;
+
+    /** Flexible quorums: number of replicas needed in phase 1 */
+    public static final String PHASE1_QUORUM_SIZE = "Phase1QuorumSize";
+    /** Flexible quorums: number of replicas needed in phase 2 */
+    public static final String PHASE2_QUORUM_SIZE = "Phase2QuorumSize";
+
+    /** Grid quorums: number of rows; must divide the number of replicas */
+    public static final String GRID_ROWS = "GridRows";
+
+    /**
+     * If true, PrepareOK carries per-instance digests instead of values and
+     * the new leader fetches only the values it lacks.
+     */
+    public static final String PREPARE_OK_DIGESTS = "PrepareOKDigests";
+    public static final boolean DEFAULT_PREPARE_OK_DIGESTS = false;
+
+    /** Maximum size (in bytes) of a single ValueFetchReply message */
+    public static final String VALUE_FETCH_CHUNK_SIZE = "ValueFetchChunkSize";
+    public static final int DEFAULT_VALUE_FETCH_CHUNK_SIZE = 1048576;
+
+    /**
+     * If true, all replicas propose, each into its own instances assigned
+     * round-robin by the leader of the view. See lsr.paxos.core.SlotOwnership
+     */
+    public static final String MULTI_LEADER = "MultiLeader";
+    public static final boolean DEFAULT_MULTI_LEADER = false;
+
+    /**
+     * Number of independent Paxos groups (partitions of the log) run in one
+     * process. See lsr.paxos.replica.MultiGroupReplica
+     */
+    public static final String GROUPS = "Groups";
+    public static final int DEFAULT_GROUPS = 1;
+
+    /**
+     * Index of the group the configuration belongs to. Set by
+     * {@link Configuration#forGroup(int)}, not meant to be set by hand.
+     */
+    public static final String GROUP = "Group";
+    public static final int DEFAULT_GROUP = 0;
+
+    /**
+     * Group g uses the ports from the process list shifted by g times this
+     * value
+     */
+    public static final String GROUP_PORT_OFFSET = "GroupPortOffset";
+    public static final int DEFAULT_GROUP_PORT_OFFSET = 100;
+
     /*
      * Exposing fields is generally not good practice, but here they are made
      * final, so there is no danger of exposing them. Advantage: less
@@ -274,11 +510,30 @@ public final class ProcessDescriptor {
     public final int localId;
     public final int numReplicas;
     public final int windowSize;
+    public final boolean windowSizeAdaptive;
+    /** equal to windowSize unless windowSizeAdaptive is set */
+    public final int windowSizeMin;
+    /** equal to windowSize unless windowSizeAdaptive is set */
+    public final int windowSizeMax;
+    public final int windowAdjustInterval;
     public final int batchingLevel;
     public final int maxUdpPacketSize;
     public final int maxBatchDelay;
+    public final boolean batchingAdaptive;
+    public final int batchSizeMin;
+    public final int batchLatencySlo;
+    public final BatchCompressor.Codec batchCompression;
+    public final int batchCompressionMinBytes;
+    public final double batchCompressionMaxRatio;
     public final String clientIDGenerator;
     public final String network;
+    public final int networkIoThreads;
+    public final long peerSendQueueBytes;
+    public final int networkStripes;
+    public final int stripedMessageMinBytes;
+    public final String dispatcher;
+    public final EventLoopDispatcher.WaitStrategy dispatcherWaitStrategy;
+    public final int dispatcherRingSize;
     public final CrashModel crashModel;
     public final String logPath;
     public final long nvmPoolSize;
@@ -321,8 +576,43 @@ public final class ProcessDescriptor {
 
     public final boolean augmentedPaxos;
 
+    public final boolean thriftyPhase2;
+
+    public final boolean leaderCentricPhase2;
+
+    public final boolean acceptRanges;
+    /** in microseconds */
+    public final int acceptCoalesceBudget;
+
+    public final boolean leaderLease;
+    public final int leaseDuration;
+    public final double leaseClockDrift;
+
+    public final FollowerReadManager.Mode followerReads;
+    public final int stalenessMaxInstances;
+    /** in milliseconds */
+    public final int stalenessMaxDelay;
+
+    public final QuorumSystem quorumSystem;
+    /** Minimal number of replicas forming a phase 1 quorum */
+    public final int phase1QuorumSize;
+    /** Minimal number of replicas forming a phase 2 quorum */
+    public final int phase2QuorumSize;
+    /** number of grid rows, 1 unless quorumSystem is Grid */
+    public final int gridRows;
+
+    public final boolean prepareOKDigests;
+    public final int valueFetchChunkSize;
+
+    public final boolean multiLeader;
+
+    public final int groups;
+    public final int group;
+
     public int decidedButNotExecutedThreshold;
 
+    public final boolean unpackInPlace;
+
     public final boolean redirectClientsFromLeader;
 
     public final int numberOfExecutedInstInLog;
@@ -342,19 +632,89 @@ public final class ProcessDescriptor {
         this.config = config;
 
         this.numReplicas = config.getN();
+        majority = (numReplicas + 1) / 2;
 
         this.windowSize = config.getIntProperty(
                 WINDOW_SIZE, DEFAULT_WINDOW_SIZE);
+        this.windowSizeAdaptive = config.getBooleanProperty(
+                WINDOW_SIZE_ADAPTIVE, DEFAULT_WINDOW_SIZE_ADAPTIVE);
+        if (windowSizeAdaptive) {
+            this.windowSizeMin = config.getIntProperty(
+                    WINDOW_SIZE_MIN, DEFAULT_WINDOW_SIZE_MIN);
+            this.windowSizeMax = config.getIntProperty(
+                    WINDOW_SIZE_MAX, 4 * windowSize);
+            if (windowSizeMin < 1 || windowSizeMin > windowSize || windowSize > windowSizeMax)
+                throw new RuntimeException("Window sizes must satisfy 1 <= " + WINDOW_SIZE_MIN +
+                                           " <= " + WINDOW_SIZE + " <= " + WINDOW_SIZE_MAX);
+        } else {
+            this.windowSizeMin = windowSize;
+            this.windowSizeMax = windowSize;
+        }
+        this.windowAdjustInterval = config.getIntProperty(
+                WINDOW_ADJUST_INTERVAL, DEFAULT_WINDOW_ADJUST_INTERVAL);
         this.batchingLevel = config.getIntProperty(
                 BATCH_SIZE, DEFAULT_BATCH_SIZE);
         this.maxUdpPacketSize = config.getIntProperty(
                 MAX_UDP_PACKET_SIZE, DEFAULT_MAX_UDP_PACKET_SIZE);
         this.maxBatchDelay = config.getIntProperty(
                 MAX_BATCH_DELAY, DEFAULT_MAX_BATCH_DELAY);
+        this.batchingAdaptive = config.getBooleanProperty(
+                BATCHING_ADAPTIVE, DEFAULT_BATCHING_ADAPTIVE);
+        this.batchSizeMin = config.getIntProperty(
+                BATCH_SIZE_MIN, DEFAULT_BATCH_SIZE_MIN);
+        this.batchLatencySlo = config.getIntProperty(
+                BATCH_LATENCY_SLO, DEFAULT_BATCH_LATENCY_SLO);
+        if (batchingAdaptive && (batchSizeMin < 1 || batchSizeMin > batchingLevel))
+            throw new RuntimeException("Batch sizes must satisfy 1 <= " + BATCH_SIZE_MIN +
+                                       " <= " + BATCH_SIZE);
+        if (batchingAdaptive && batchLatencySlo < 1)
+            throw new RuntimeException(BATCH_LATENCY_SLO + " must be positive");
+        String batchCompression = config.getProperty(BATCH_COMPRESSION,
+                DEFAULT_BATCH_COMPRESSION.toString());
+        try {
+            this.batchCompression = BatchCompressor.Codec.valueOf(batchCompression);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(
+                    "Config file contains unknown batch compression \"" + batchCompression + "\"");
+        }
+        this.batchCompressionMinBytes = config.getIntProperty(
+                BATCH_COMPRESSION_MIN_BYTES, DEFAULT_BATCH_COMPRESSION_MIN_BYTES);
+        this.batchCompressionMaxRatio = config.getDoubleProperty(
+                BATCH_COMPRESSION_MAX_RATIO, DEFAULT_BATCH_COMPRESSION_MAX_RATIO);
+        if (batchCompressionMaxRatio <= 0 || batchCompressionMaxRatio > 1)
+            throw new RuntimeException(BATCH_COMPRESSION_MAX_RATIO + " must be in (0, 1]");
         this.clientIDGenerator = config.getProperty(
                 CLIENT_ID_GENERATOR, DEFAULT_CLIENT_ID_GENERATOR);
         this.network = config.getProperty(
                 NETWORK, DEFAULT_NETWORK);
+        this.networkIoThreads = config.getIntProperty(
+                NETWORK_IO_THREADS, DEFAULT_NETWORK_IO_THREADS);
+        this.peerSendQueueBytes = config.getLongProperty(
+                PEER_SEND_QUEUE_BYTES, DEFAULT_PEER_SEND_QUEUE_BYTES);
+        this.networkStripes = config.getIntProperty(
+                NETWORK_STRIPES, DEFAULT_NETWORK_STRIPES);
+        this.stripedMessageMinBytes = config.getIntProperty(
+                STRIPED_MESSAGE_MIN_BYTES, DEFAULT_STRIPED_MESSAGE_MIN_BYTES);
+        if (networkStripes < 0 || networkStripes > 255)
+            throw new RuntimeException(NETWORK_STRIPES + " must be between 0 and 255");
+        if (stripedMessageMinBytes < networkStripes)
+            throw new RuntimeException(STRIPED_MESSAGE_MIN_BYTES + " must not be lower than " +
+                                       NETWORK_STRIPES);
+        this.dispatcher = config.getProperty(
+                DISPATCHER, DEFAULT_DISPATCHER);
+        if (!dispatcher.equals("ThreadPool") && !dispatcher.equals("EventLoop"))
+            throw new RuntimeException(
+                    "Config file contains unknown dispatcher \"" + dispatcher + "\"");
+        String waitStrategy = config.getProperty(
+                DISPATCHER_WAIT_STRATEGY, DEFAULT_DISPATCHER_WAIT_STRATEGY.toString());
+        try {
+            this.dispatcherWaitStrategy = EventLoopDispatcher.WaitStrategy.valueOf(waitStrategy);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(
+                    "Config file contains unknown wait strategy \"" + waitStrategy + "\"");
+        }
+        this.dispatcherRingSize = config.getIntProperty(
+                DISPATCHER_RING_SIZE, DEFAULT_DISPATCHER_RING_SIZE);
         this.logPath = config.getProperty(
                 LOG_PATH, DEFAULT_LOG_PATH);
         this.nvmPoolSize = config.getLongProperty(
@@ -403,6 +763,8 @@ public final class ProcessDescriptor {
 
         this.decidedButNotExecutedThreshold = config.getIntProperty(
                 DECIDED_BUT_NOT_EXECUTED_THRESHOLD, DEFAULT_DECIDED_BUT_NOT_EXECUTED_THRESHOLD);
+        this.unpackInPlace = config.getBooleanProperty(
+                UNPACK_IN_PLACE, DEFAULT_UNPACK_IN_PLACE);
 
         this.selectorThreadCount = config.getIntProperty(SELECTOR_THREADS,
                 DEFAULT_SELECTOR_THREADS);
@@ -428,6 +790,93 @@ public final class ProcessDescriptor {
         this.augmentedPaxos = config.getBooleanProperty(AUGMENTED_PAXOS,
                 DEFAULT_AUGMENTED_PAXOS);
 
+        this.thriftyPhase2 = config.getBooleanProperty(THRIFTY_PHASE2,
+                DEFAULT_THRIFTY_PHASE2);
+
+        this.leaderCentricPhase2 = config.getBooleanProperty(LEADER_CENTRIC_PHASE2,
+                DEFAULT_LEADER_CENTRIC_PHASE2);
+
+        this.acceptRanges = config.getBooleanProperty(ACCEPT_RANGES, DEFAULT_ACCEPT_RANGES);
+        this.acceptCoalesceBudget = config.getIntProperty(ACCEPT_COALESCE_BUDGET,
+                DEFAULT_ACCEPT_COALESCE_BUDGET);
+
+        this.leaderLease = config.getBooleanProperty(LEADER_LEASE, DEFAULT_LEADER_LEASE);
+        this.leaseDuration = config.getIntProperty(LEASE_DURATION, DEFAULT_LEASE_DURATION);
+        this.leaseClockDrift = config.getDoubleProperty(LEASE_CLOCK_DRIFT,
+                DEFAULT_LEASE_CLOCK_DRIFT);
+        if (leaderLease && leaseDuration >= fdSuspectTimeout)
+            throw new RuntimeException(LEASE_DURATION + " must be lower than " + FD_SUSPECT_TO);
+        if (leaseClockDrift < 0 || leaseClockDrift >= 1)
+            throw new RuntimeException(LEASE_CLOCK_DRIFT + " must be in [0, 1)");
+
+        String followerReads = config.getProperty(FOLLOWER_READS,
+                DEFAULT_FOLLOWER_READS.toString());
+        try {
+            this.followerReads = FollowerReadManager.Mode.valueOf(followerReads);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(
+                    "Config file contains unknown follower reads mode \"" + followerReads + "\"");
+        }
+        if (this.followerReads == FollowerReadManager.Mode.ReadIndex && !leaderLease)
+            throw new RuntimeException(FOLLOWER_READS + "=ReadIndex requires " + LEADER_LEASE);
+        this.stalenessMaxInstances = config.getIntProperty(STALENESS_MAX_INSTANCES,
+                DEFAULT_STALENESS_MAX_INSTANCES);
+        this.stalenessMaxDelay = config.getIntProperty(STALENESS_MAX_DELAY,
+                DEFAULT_STALENESS_MAX_DELAY);
+
+        String quorums = config.getProperty(QUORUM_SYSTEM, DEFAULT_QUORUM_SYSTEM.toString());
+        try {
+            this.quorumSystem = QuorumSystem.valueOf(quorums);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(
+                    "Config file contains unknown quorum system \"" + quorums + "\"");
+        }
+        switch (quorumSystem) {
+            case Majority:
+                gridRows = 1;
+                phase1QuorumSize = numReplicas / 2 + 1;
+                phase2QuorumSize = majority;
+                break;
+            case Flexible:
+                gridRows = 1;
+                phase1QuorumSize = config.getIntProperty(PHASE1_QUORUM_SIZE,
+                        numReplicas / 2 + 1);
+                phase2QuorumSize = config.getIntProperty(PHASE2_QUORUM_SIZE, majority);
+                if (phase1QuorumSize < 1 || phase1QuorumSize > numReplicas ||
+                    phase2QuorumSize < 1 || phase2QuorumSize > numReplicas)
+                    throw new RuntimeException("Quorum sizes must be between 1 and " +
+                                               numReplicas);
+                break;
+            case Grid:
+                gridRows = config.getIntProperty(GRID_ROWS, 1);
+                if (gridRows < 1 || numReplicas % gridRows != 0)
+                    throw new RuntimeException(GRID_ROWS + " must divide the number of replicas (" +
+                                               numReplicas + ")");
+                phase1QuorumSize = gridRows;
+                phase2QuorumSize = numReplicas / gridRows;
+                break;
+            default:
+                throw new RuntimeException("Unknown quorum system " + quorumSystem);
+        }
+        checkQuorumIntersection();
+
+        this.prepareOKDigests = config.getBooleanProperty(PREPARE_OK_DIGESTS,
+                DEFAULT_PREPARE_OK_DIGESTS);
+        this.valueFetchChunkSize = config.getIntProperty(VALUE_FETCH_CHUNK_SIZE,
+                DEFAULT_VALUE_FETCH_CHUNK_SIZE);
+
+        this.multiLeader = config.getBooleanProperty(MULTI_LEADER, DEFAULT_MULTI_LEADER);
+        if (multiLeader && (leaderCentricPhase2 || thriftyPhase2 || leaderLease))
+            throw new RuntimeException(MULTI_LEADER + " cannot be used together with " +
+                                       LEADER_CENTRIC_PHASE2 + ", " + THRIFTY_PHASE2 +
+                                       " or " + LEADER_LEASE);
+
+        this.groups = config.getIntProperty(GROUPS, DEFAULT_GROUPS);
+        this.group = config.getIntProperty(GROUP, DEFAULT_GROUP);
+        if (group < 0 || group >= groups)
+            throw new RuntimeException(GROUP + "=" + group + " out of range for " + GROUPS +
+                                       "=" + groups);
+
         String crash = config.getProperty(
                 CRASH_MODEL, DEFAULT_CRASH_MODEL.toString());
         CrashModel crashModel;
@@ -439,8 +888,6 @@ public final class ProcessDescriptor {
         }
         this.crashModel = crashModel;
 
-        majority = (numReplicas + 1) / 2;
-
         printProcessDescriptor(config, crashModel);
 
         logMark_Benchmark.add(logMark_OldBenchmark);
@@ -450,10 +897,35 @@ public final class ProcessDescriptor {
         logger.info(config.toString());
 
         logger.info(WINDOW_SIZE + "=" + windowSize);
+        if (windowSizeAdaptive) {
+            logger.info(WINDOW_SIZE_MIN + "=" + windowSizeMin);
+            logger.info(WINDOW_SIZE_MAX + "=" + windowSizeMax);
+            logger.info(WINDOW_ADJUST_INTERVAL + "=" + windowAdjustInterval);
+        }
         logger.info(BATCH_SIZE + "=" + batchingLevel);
         logger.info(MAX_BATCH_DELAY + "=" + maxBatchDelay);
+        logger.info(BATCHING_ADAPTIVE + "=" + batchingAdaptive);
+        if (batchingAdaptive) {
+            logger.info(BATCH_SIZE_MIN + "=" + batchSizeMin);
+            logger.info(BATCH_LATENCY_SLO + "=" + batchLatencySlo);
+        }
+        logger.info(BATCH_COMPRESSION + "=" + batchCompression);
+        if (batchCompression != BatchCompressor.Codec.None) {
+            logger.info(BATCH_COMPRESSION_MIN_BYTES + "=" + batchCompressionMinBytes);
+            logger.info(BATCH_COMPRESSION_MAX_RATIO + "=" + batchCompressionMaxRatio);
+        }
+        logger.info(UNPACK_IN_PLACE + "=" + unpackInPlace);
         logger.info(MAX_UDP_PACKET_SIZE + "=" + maxUdpPacketSize);
         logger.info(NETWORK + "=" + network);
+        logger.info(NETWORK_IO_THREADS + "=" + networkIoThreads);
+        logger.info(PEER_SEND_QUEUE_BYTES + "=" + peerSendQueueBytes);
+        logger.info(NETWORK_STRIPES + "=" + networkStripes);
+        logger.info(STRIPED_MESSAGE_MIN_BYTES + "=" + stripedMessageMinBytes);
+        logger.info(DISPATCHER + "=" + dispatcher);
+        if (dispatcher.equals("EventLoop")) {
+            logger.info(DISPATCHER_WAIT_STRATEGY + "=" + dispatcherWaitStrategy);
+            logger.info(DISPATCHER_RING_SIZE + "=" + dispatcherRingSize);
+        }
         logger.info(CLIENT_ID_GENERATOR + "=" + clientIDGenerator);
         logger.info(FD_SEND_TO + " = " + fdSendTimeout);
         logger.info(FD_SUSPECT_TO + "=" + fdSuspectTimeout);
@@ -477,6 +949,33 @@ public final class ProcessDescriptor {
         logger.info(MULTICAST_PORT + "=" + multicastPort);
         logger.info(MULTICAST_IP_ADDRESS + "=" + multicastIpAddress);
         logger.info(MTU + "=" + mtu);
+        logger.info(THRIFTY_PHASE2 + "=" + thriftyPhase2);
+        logger.info(LEADER_CENTRIC_PHASE2 + "=" + leaderCentricPhase2);
+        logger.info(ACCEPT_RANGES + "=" + acceptRanges);
+        logger.info(ACCEPT_COALESCE_BUDGET + "=" + acceptCoalesceBudget);
+        logger.info(LEADER_LEASE + "=" + leaderLease);
+        logger.info(LEASE_DURATION + "=" + leaseDuration);
+        logger.info(LEASE_CLOCK_DRIFT + "=" + leaseClockDrift);
+        logger.info(FOLLOWER_READS + "=" + followerReads);
+        logger.info(QUORUM_SYSTEM + "=" + quorumSystem);
+        if (quorumSystem == QuorumSystem.Grid)
+            logger.info(GRID_ROWS + "=" + gridRows);
+        logger.info(PHASE1_QUORUM_SIZE + "=" + phase1QuorumSize);
+        logger.info(PHASE2_QUORUM_SIZE + "=" + phase2QuorumSize);
+        if (followerReads == FollowerReadManager.Mode.BoundedStaleness) {
+            logger.info(STALENESS_MAX_INSTANCES + "=" + stalenessMaxInstances);
+            logger.info(STALENESS_MAX_DELAY + "=" + stalenessMaxDelay);
+        }
+        logger.info(PREPARE_OK_DIGESTS + "=" + prepareOKDigests);
+        if (prepareOKDigests)
+            logger.info(VALUE_FETCH_CHUNK_SIZE + "=" + valueFetchChunkSize);
+        logger.info(MULTI_LEADER + "=" + multiLeader);
+        logger.info(GROUPS + "=" + groups);
+        if (groups > 1) {
+            logger.info(GROUP + "=" + group);
+            logger.info(GROUP_PORT_OFFSET + "=" +
+                        config.getIntProperty(GROUP_PORT_OFFSET, DEFAULT_GROUP_PORT_OFFSET));
+        }
     }
 
     /**
@@ -486,6 +985,89 @@ public final class ProcessDescriptor {
         return config.getProcess(localId);
     }
 
+    /**
+     * Throws if some phase 1 quorum misses some phase 2 quorum, as then a new
+     * leader might not learn a value that has been decided. It is enough to
+     * check that no replicas outside of a minimal phase 2 quorum form a phase
+     * 1 quorum.
+     */
+    private void checkQuorumIntersection() {
+        List<BitSet> phase2Quorums = new ArrayList<BitSet>();
+        if (quorumSystem != QuorumSystem.Grid) {
+            BitSet quorum = new BitSet(numReplicas);
+            quorum.set(0, phase2QuorumSize);
+            phase2Quorums.add(quorum);
+        } else {
+            for (int row = 0; row < gridRows; ++row)
+                phase2Quorums.add(getGridRow(row * (numReplicas / gridRows)));
+        }
+        for (BitSet quorum : phase2Quorums) {
+            BitSet others = new BitSet(numReplicas);
+            others.set(0, numReplicas);
+            others.andNot(quorum);
+            if (isPhase1Quorum(others))
+                throw new RuntimeException("Phase 1 and phase 2 quorums of " + quorumSystem +
+                                           " do not intersect (" + PHASE1_QUORUM_SIZE + "=" +
+                                           phase1QuorumSize + ", " + PHASE2_QUORUM_SIZE + "=" +
+                                           phase2QuorumSize + ", " + numReplicas +
+                                           " replicas)");
+        }
+    }
+
+    /** Tells if the replicas from the set form a phase 1 (Prepare) quorum */
+    public boolean isPhase1Quorum(BitSet replicas) {
+        if (quorumSystem != QuorumSystem.Grid)
+            return replicas.cardinality() >= phase1QuorumSize;
+        int columns = numReplicas / gridRows;
+        for (int row = 0; row < gridRows; ++row) {
+            int next = replicas.nextSetBit(row * columns);
+            if (next < 0 || next >= (row + 1) * columns)
+                return false;
+        }
+        return true;
+    }
+
+    /** Tells if the replicas from the set form a phase 2 (Accept) quorum */
+    public boolean isPhase2Quorum(BitSet replicas) {
+        if (quorumSystem != QuorumSystem.Grid)
+            return replicas.cardinality() >= phase2QuorumSize;
+        int columns = numReplicas / gridRows;
+        for (int row = 0; row < gridRows; ++row) {
+            int nextClear = replicas.nextClearBit(row * columns);
+            if (nextClear >= (row + 1) * columns)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns bit masks of the minimal phase 2 quorums if phase 2 quorums are
+     * not defined by their size only, or an empty array otherwise.
+     *
+     * Each mask takes (numReplicas + 31) / 32 consecutive ints, the first of
+     * them holding replicas 0-31.
+     */
+    public int[] getPhase2QuorumMasks() {
+        if (quorumSystem != QuorumSystem.Grid)
+            return new int[0];
+        int columns = numReplicas / gridRows;
+        int words = (numReplicas + 31) / 32;
+        int[] masks = new int[gridRows * words];
+        for (int row = 0; row < gridRows; ++row)
+            for (int i = row * columns; i < (row + 1) * columns; ++i)
+                masks[row * words + i / 32] |= 1 << (i % 32);
+        return masks;
+    }
+
+    /** Returns the replicas in the same grid row as given one (itself too) */
+    public BitSet getGridRow(int replica) {
+        int columns = numReplicas / gridRows;
+        int row = replica / columns;
+        BitSet bs = new BitSet(numReplicas);
+        bs.set(row * columns, (row + 1) * columns);
+        return bs;
+    }
+
     public int getLeaderOfView(int view) {
         return view % numReplicas;
     }
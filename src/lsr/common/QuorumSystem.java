@@ -0,0 +1,24 @@
+package lsr.common;
+
+/**
+ * Quorums used by phase 1 (Prepare) and phase 2 (Propose/Accept) of Paxos.
+ * Any phase 1 quorum must intersect any phase 2 quorum.
+ */
+public enum QuorumSystem {
+    /**
+     * Phase 1 needs more than half of the replicas, phase 2 needs at least
+     * half of them (the same majority for an odd number of replicas)
+     */
+    Majority,
+    /**
+     * Phase 1 needs Phase1QuorumSize replicas and phase 2 needs
+     * Phase2QuorumSize replicas, where the sum exceeds the number of replicas
+     */
+    Flexible,
+    /**
+     * The replicas form a grid of GridRows rows, filled row by row in the id
+     * order. Phase 2 needs all replicas of any row, phase 1 needs a replica
+     * from each row.
+     */
+    Grid
+}
@@ -49,6 +49,21 @@ public class SingleThreadDispatcher extends ScheduledThreadPoolExecutor {
         }
     }
 
+    /**
+     * Creates a dispatcher of the kind selected by the
+     * {@link ProcessDescriptor#DISPATCHER} property - either this class or an
+     * {@link EventLoopDispatcher}.
+     * 
+     * @param threadName - name of the dispatcher thread
+     */
+    public static SingleThreadDispatcher create(String threadName) {
+        ProcessDescriptor pd = ProcessDescriptor.processDescriptor;
+        if (pd != null && pd.dispatcher.equals("EventLoop"))
+            return new EventLoopDispatcher(threadName, pd.dispatcherWaitStrategy,
+                    pd.dispatcherRingSize);
+        return new SingleThreadDispatcher(threadName);
+    }
+
     public SingleThreadDispatcher(String threadName) {
         super(1, new NamedThreadFactory(threadName));
         this.threadName = threadName;
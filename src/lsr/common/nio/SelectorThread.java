@@ -28,6 +28,10 @@ public final class SelectorThread extends Thread {
     /** list of active tasks waiting for execution in selector thread */
     private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
 
+    /** task run in this thread once timerDeadline passes; see setTimer */
+    private Runnable timerTask = null;
+    private long timerDeadline;
+
     /**
      * Initializes new thread responsible for handling channels.
      * 
@@ -50,7 +54,15 @@ public final class SelectorThread extends Thread {
         while (!Thread.interrupted()) {
 
             try {
-                int selectedCount = selector.select();
+                int selectedCount;
+                if (timerTask == null) {
+                    selectedCount = selector.select();
+                } else {
+                    long remaining = timerDeadline - System.nanoTime();
+                    selectedCount = remaining > 0
+                            ? selector.select((remaining + 999999) / 1000000)
+                            : selector.selectNow();
+                }
 
                 runScheduleTasks();
 
@@ -58,6 +70,8 @@ public final class SelectorThread extends Thread {
                     processSelectedKeys();
                 }
 
+                runTimer();
+
             } catch (IOException e) {
                 throw new RuntimeException("Client selector faulted", e);
             }
@@ -170,6 +184,33 @@ public final class SelectorThread extends Thread {
 
     }
 
+    /**
+     * Runs the task in this thread once System.nanoTime() reaches the
+     * deadline, after the keys selected meanwhile are handled. A deadline that
+     * has already passed runs the task at the end of the current round. There
+     * is one timer per thread: setting it replaces the previous task. Can only
+     * be called from this thread.
+     */
+    public void setTimer(long deadline, Runnable task) {
+        assert amIInSelector();
+        timerDeadline = deadline;
+        timerTask = task;
+    }
+
+    /** Cancels the timer; can only be called from this thread. */
+    public void cancelTimer() {
+        assert amIInSelector();
+        timerTask = null;
+    }
+
+    private void runTimer() {
+        if (timerTask == null || System.nanoTime() - timerDeadline < 0)
+            return;
+        Runnable task = timerTask;
+        timerTask = null;
+        task.run();
+    }
+
     /** Runs all schedule tasks in selector thread. */
     private void runScheduleTasks() {
         while (true) {
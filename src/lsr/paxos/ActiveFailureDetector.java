@@ -121,7 +121,8 @@ final public class ActiveFailureDetector implements Runnable, FailureDetector {
                     // Leader role
                     if (processDescriptor.isLocalProcessLeader(view)) {
                         // Send
-                        Alive alive = new Alive(view, storage.getLog().getNextId());
+                        Alive alive = new Alive(view, storage.getLog().getNextId(),
+                                storage.getFirstUncommitted());
                         network.sendToOthers(alive);
                         lastHeartbeatSentTS = now;
                         long nextSend = lastHeartbeatSentTS + sendTimeout;
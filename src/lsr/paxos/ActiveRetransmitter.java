@@ -34,6 +34,8 @@ public final class ActiveRetransmitter implements Runnable, Retransmitter {
 
     private final DelayQueue<InnerRetransmittedMessage> queue =
             new DelayQueue<ActiveRetransmitter.InnerRetransmittedMessage>();
+    /** Incremented by stopAll(); messages started earlier are cancelled */
+    private volatile int generation = 0;
     private final static MovingAverage ma = new MovingAverage(0.1,
             processDescriptor.retransmitTimeout);
 
@@ -97,9 +99,14 @@ public final class ActiveRetransmitter implements Runnable, Retransmitter {
     }
 
     /**
-     * Stops retransmitting all messages.
+     * Stops retransmitting all messages. A message just taken off the queue by
+     * the Retransmitter thread is cancelled once the thread gets to it.
      */
     public void stopAll() {
+        generation++;
+        // poll() would return the expired messages only
+        for (InnerRetransmittedMessage rMsg : queue)
+            rMsg.cancel();
         queue.clear();
     }
 
@@ -139,6 +146,8 @@ public final class ActiveRetransmitter implements Runnable, Retransmitter {
         /** The time the task is enabled to execute in milliseconds */
         private volatile long time = -1;
         private boolean cancelled = false;
+        /** value of ActiveRetransmitter.generation upon start */
+        private final int startGeneration = generation;
 
         InnerRetransmittedMessage(Message message, BitSet destinations) {
             this.message = message;
@@ -162,12 +171,15 @@ public final class ActiveRetransmitter implements Runnable, Retransmitter {
         }
 
         public synchronized void stop() {
+            if (cancelled)
+                return;
             queue.remove(this);
             assert sendTs != -1;
             // Update moving average with how long it took
             // until this message stops being retransmitted
             ma.add(System.currentTimeMillis() - sendTs);
             cancelled = true;
+            message.releaseBuffers();
         }
 
         // -----------------------------------------
@@ -198,10 +210,23 @@ public final class ActiveRetransmitter implements Runnable, Retransmitter {
         // //////////////////////////////////////
         // ActiveRetransmitter scoped methods
         // //////////////////////////////////////
+        /** Stops retransmitting the message as a part of stopAll() */
+        synchronized void cancel() {
+            if (cancelled)
+                return;
+            cancelled = true;
+            message.releaseBuffers();
+        }
+
         synchronized void retransmit() {
             // Can be called either by Dispatcher (first time message is sent)
             // or by Retransmitter thread (retransmissions)
 
+            // stopAll() might have been called since it was dequeued
+            if (startGeneration != generation) {
+                cancel();
+                return;
+            }
             // Task might have been canceled since it was dequeued.
             if (cancelled) {
                 logger.error("Trying to retransmit a cancelled message");
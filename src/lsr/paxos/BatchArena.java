@@ -0,0 +1,166 @@
+package lsr.paxos;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lsr.common.ClientRequest;
+import lsr.paxos.messages.Propose;
+import lsr.paxos.network.PooledBuffer;
+
+/**
+ * Memory for the batches of {@link NewPassiveBatcher}: large direct buffers
+ * (chunks) laid out batch after batch, reused once all batches in them are
+ * gone.
+ *
+ * Requests are copied to the batch under construction straight from where
+ * they have been received, in the format of
+ * {@link ClientRequest#writeTo(ByteBuffer)}. In front of each batch room is
+ * left for the number of requests and for the rest of the Propose carrying
+ * the batch. A finished batch is handed over as a {@link PooledBuffer} over
+ * its part of the chunk; the proposer frames the Propose in place (see
+ * {@link Propose#Propose(int, int, PooledBuffer)}), so that the requests are
+ * sent and logged with no further copies.
+ *
+ * Batches are put together by one thread at a time (callers synchronize);
+ * finished batches may be released by any thread.
+ */
+public final class BatchArena {
+
+    /** A chunk holds this many batches of the largest expected size */
+    private static final int CHUNK_BATCHES = 16;
+    /** At most this many free chunks are kept for reuse */
+    private static final int MAX_FREE_CHUNKS = 4;
+
+    private static final class Chunk {
+        final ByteBuffer data;
+        /// 1 while batches are appended to the chunk, plus 1 per batch
+        final AtomicInteger refs = new AtomicInteger();
+
+        Chunk(int size) {
+            data = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /** a batch is started only if this much is left in the chunk */
+    private final int batchRoom;
+    private final int chunkSize;
+    private final ConcurrentLinkedQueue<Chunk> freeChunks = new ConcurrentLinkedQueue<Chunk>();
+    private final AtomicInteger freeCount = new AtomicInteger(0);
+
+    /* the batch under construction */
+    private Chunk chunk = null;
+    private int batchStart;
+    private int requests;
+
+    /**
+     * @param maxBatchSize - size at which batches are finished; a batch may
+     *            exceed it by one request
+     */
+    public BatchArena(int maxBatchSize) {
+        batchRoom = Propose.FRAME_HEADER_SIZE + maxBatchSize +
+                    processDescriptor.clientRequestBufferSize;
+        chunkSize = CHUNK_BATCHES * batchRoom;
+        startBatch();
+    }
+
+    /** Size of the batch under construction, with the number of requests */
+    public int batchSize() {
+        return chunk.data.position() - batchStart - Propose.FRAME_HEADER_SIZE;
+    }
+
+    public int requestCount() {
+        return requests;
+    }
+
+    public boolean isEmpty() {
+        return requests == 0;
+    }
+
+    /**
+     * Appends a request serialized as by
+     * {@link ClientRequest#writeTo(ByteBuffer)}, from the position to the
+     * limit of the buffer. Advances the position to the limit.
+     */
+    public void append(ByteBuffer request) {
+        ensureRoom(request.remaining());
+        chunk.data.put(request);
+        requests++;
+    }
+
+    public void append(ClientRequest request) {
+        ensureRoom(request.byteSize());
+        request.writeTo(chunk.data);
+        requests++;
+    }
+
+    /**
+     * Finishes the batch under construction and starts a new one.
+     *
+     * @return the batch preceded by Propose.FRAME_HEADER_SIZE spare bytes
+     */
+    public PooledBuffer finishBatch() {
+        assert requests > 0;
+        ByteBuffer data = chunk.data;
+        data.putInt(batchStart + Propose.FRAME_HEADER_SIZE, requests);
+
+        final Chunk owner = chunk;
+        owner.refs.incrementAndGet();
+        PooledBuffer batch = PooledBuffer.wrap(
+                data.slice(batchStart, data.position() - batchStart), () -> release(owner));
+
+        startBatch();
+        return batch;
+    }
+
+    private void startBatch() {
+        if (chunk == null || chunk.data.remaining() < batchRoom) {
+            if (chunk != null)
+                release(chunk);
+            chunk = takeChunk(chunkSize);
+        }
+        batchStart = chunk.data.position();
+        chunk.data.position(batchStart + Propose.FRAME_HEADER_SIZE +
+                            NewPassiveBatcher.BATCH_HEADER_SIZE);
+        requests = 0;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (chunk.data.remaining() >= bytes)
+            return;
+
+        // larger than any expected batch; move the batch to a chunk it fits in
+        Chunk old = chunk;
+        ByteBuffer batch = old.data.duplicate();
+        batch.limit(batch.position()).position(batchStart);
+        chunk = takeChunk(Math.max(chunkSize, batch.remaining() + bytes));
+        chunk.data.put(batch);
+        batchStart = 0;
+        release(old);
+    }
+
+    private Chunk takeChunk(int size) {
+        Chunk chunk = null;
+        if (size == chunkSize) {
+            chunk = freeChunks.poll();
+            if (chunk != null)
+                freeCount.decrementAndGet();
+        }
+        if (chunk == null)
+            chunk = new Chunk(size);
+        chunk.data.clear();
+        chunk.refs.set(1);
+        return chunk;
+    }
+
+    private void release(Chunk chunk) {
+        if (chunk.refs.decrementAndGet() != 0)
+            return;
+        if (chunk.data.capacity() == chunkSize && freeCount.get() < MAX_FREE_CHUNKS) {
+            freeCount.incrementAndGet();
+            freeChunks.offer(chunk);
+        }
+    }
+}
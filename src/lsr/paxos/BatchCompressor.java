@@ -0,0 +1,204 @@
+package lsr.paxos;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.paxos.messages.Propose;
+import lsr.paxos.network.PooledBuffer;
+
+/**
+ * Optional compression of batches, done once by the leader on the batcher
+ * thread when a batch is finished, before it is proposed. The compressed batch
+ * is what is sent in the Propose, kept in the logs and sent during catch-up;
+ * it is decompressed just before execution, by
+ * {@link #decompress(ByteBuffer)} called from the unpacker.
+ *
+ * A batch starts with the number of requests, whose top bit is clear. A
+ * compressed batch has the top bit set and the codec in the bits below:
+ *
+ * <pre>
+ * int  COMPRESSED | codec &lt;&lt; CODEC_SHIFT | number of requests
+ * int  length of the requests before compression
+ * ...  the requests, compressed
+ * </pre>
+ *
+ * Batches smaller than BatchCompressionMinBytes are not compressed, and neither
+ * are batches that do not shrink to BatchCompressionMaxRatio of their size;
+ * after such a batch the next few are sent uncompressed without trying.
+ *
+ * An instance may be used by one thread at a time.
+ */
+public final class BatchCompressor {
+
+    /** Codecs; the ordinal is written to the batch header */
+    public enum Codec {
+        None, Deflate
+    }
+
+    private static final int COMPRESSED = 0x80000000;
+    private static final int CODEC_SHIFT = 24;
+    private static final int CODEC_MASK = 0x7f;
+    private static final int COUNT_MASK = (1 << CODEC_SHIFT) - 1;
+    /** The header word and the length before compression */
+    private static final int HEADER_SIZE = 8;
+    /** After a batch that compressed poorly, this many are not tried */
+    private static final int POOR_RATIO_BACKOFF = 16;
+
+    private final Codec codec;
+    private final int minBytes;
+    private final double maxRatio;
+
+    private Deflater deflater = null;
+    private Inflater inflater = null;
+    private int skipBatches = 0;
+
+    /* Exposed for monitoring */
+    private volatile long compressedBatches = 0;
+    private volatile long savedBytes = 0;
+
+    public BatchCompressor() {
+        codec = processDescriptor.batchCompression;
+        minBytes = processDescriptor.batchCompressionMinBytes;
+        maxRatio = processDescriptor.batchCompressionMaxRatio;
+    }
+
+    /** Tells if batches are compressed at all */
+    public boolean isEnabled() {
+        return codec != Codec.None;
+    }
+
+    /** Returns the number of requests in a batch that begins with the header */
+    public static int requestCount(int header) {
+        return (header & COMPRESSED) == 0 ? header : header & COUNT_MASK;
+    }
+
+    /** Tells if the batch starting at the position of the buffer is compressed */
+    public static boolean isCompressed(ByteBuffer batch) {
+        return (batch.getInt(batch.position()) & COMPRESSED) != 0;
+    }
+
+    /**
+     * Compresses a finished batch, preceded by Propose.FRAME_HEADER_SIZE spare
+     * bytes as returned by {@link Batcher#requestBatch()}. If the batch is
+     * compressed, it is released and a new one is returned, also preceded by
+     * Propose.FRAME_HEADER_SIZE spare bytes; otherwise the batch itself is
+     * returned.
+     */
+    public PooledBuffer compress(PooledBuffer batch) {
+        if (codec == Codec.None)
+            return batch;
+
+        ByteBuffer raw = batch.buffer();
+        int batchStart = raw.position() + Propose.FRAME_HEADER_SIZE;
+        int rawLength = raw.limit() - batchStart - 4;
+        if (rawLength < minBytes)
+            return batch;
+        // the data has been incompressible lately; do not waste time on it
+        if (skipBatches > 0) {
+            skipBatches--;
+            return batch;
+        }
+        int count = raw.getInt(batchStart);
+        assert count <= COUNT_MASK : "Too many requests in a batch: " + count;
+
+        // compressing is abandoned once the output exceeds the allowed ratio
+        int room = (int) (rawLength * maxRatio);
+        PooledBuffer result = PooledBuffer.allocate(Propose.FRAME_HEADER_SIZE + HEADER_SIZE +
+                                                    room);
+        ByteBuffer out = result.buffer();
+        int payloadStart = out.position() + Propose.FRAME_HEADER_SIZE + HEADER_SIZE;
+
+        int length = deflate(raw.duplicate().position(batchStart + 4),
+                out.duplicate().position(payloadStart));
+        if (length < 0) {
+            logger.debug("Batch of {} B not compressed - poor ratio", rawLength);
+            skipBatches = POOR_RATIO_BACKOFF;
+            result.release();
+            return batch;
+        }
+
+        out.putInt(payloadStart - HEADER_SIZE, COMPRESSED | codec.ordinal() << CODEC_SHIFT | count);
+        out.putInt(payloadStart - HEADER_SIZE + 4, rawLength);
+        out.limit(payloadStart + length);
+        batch.release();
+
+        compressedBatches++;
+        savedBytes += rawLength - length - (HEADER_SIZE - 4);
+        logger.debug("Compressed batch of {} requests from {} B to {} B", count, rawLength,
+                length);
+        return result;
+    }
+
+    /** Returns the compressed length, or -1 if the output does not fit */
+    private int deflate(ByteBuffer input, ByteBuffer output) {
+        assert codec == Codec.Deflate;
+        if (deflater == null)
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        int start = output.position();
+        while (!deflater.finished()) {
+            if (!output.hasRemaining())
+                return -1;
+            deflater.deflate(output);
+        }
+        return output.position() - start;
+    }
+
+    /**
+     * Returns the batch starting at the position of the buffer decompressed.
+     * A batch that is not compressed is returned as it is. The codec is taken
+     * from the batch, so this works regardless of the local configuration.
+     */
+    public ByteBuffer decompress(ByteBuffer batch) {
+        int header = batch.getInt(batch.position());
+        if ((header & COMPRESSED) == 0)
+            return batch;
+
+        int codecId = (header >>> CODEC_SHIFT) & CODEC_MASK;
+        if (codecId != Codec.Deflate.ordinal())
+            throw new RuntimeException("Batch compressed with unknown codec " + codecId);
+        int rawLength = batch.getInt(batch.position() + 4);
+
+        // one spare byte lets the inflater reach the end of the stream
+        ByteBuffer out = ByteBuffer.allocate(4 + rawLength + 1);
+        out.putInt(header & COUNT_MASK);
+        if (inflater == null)
+            inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(batch.duplicate().position(batch.position() + HEADER_SIZE));
+        try {
+            while (!inflater.finished() && out.hasRemaining()) {
+                if (inflater.inflate(out) == 0 && inflater.needsInput())
+                    break;
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupted compressed batch", e);
+        }
+        if (!inflater.finished() || out.position() != 4 + rawLength)
+            throw new RuntimeException("Corrupted compressed batch");
+
+        out.flip();
+        return out.asReadOnlyBuffer();
+    }
+
+    /** Number of batches compressed so far */
+    public long getCompressedBatches() {
+        return compressedBatches;
+    }
+
+    /** Bytes saved by compression so far */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchCompressor.class);
+}
@@ -1,8 +1,11 @@
 package lsr.paxos;
 
+import java.nio.ByteBuffer;
+
 import lsr.common.ClientRequest;
 import lsr.common.RequestType;
 import lsr.paxos.core.Proposer.OnLeaderElectionResultTask;
+import lsr.paxos.network.PooledBuffer;
 import lsr.paxos.replica.ClientRequestBatcher;
 import lsr.paxos.replica.DecideCallback;
 
@@ -20,12 +23,26 @@ public interface Batcher {
 
     public void enqueueClientRequest(final RequestType request, ClientRequestBatcher cBatcher) throws InterruptedException;
 
-    /** Returns a batch or null if no batch is ready yet */
-    public byte[] requestBatch();
+    /**
+     * Copies a request serialized as by {@link ClientRequest#writeTo} (from the
+     * position to the limit of the buffer) straight to the batch under
+     * construction. The buffer may be reused once this returns.
+     * 
+     * @return false if the batcher is not active; the caller must then pass
+     *         the request as a ClientRequest
+     */
+    public boolean enqueueClientRequest(ByteBuffer request);
+
+    /**
+     * Returns a batch or null if no batch is ready yet. The batch is preceded
+     * by Propose.FRAME_HEADER_SIZE spare bytes, so that the Propose can be
+     * framed around it in place.
+     */
+    public PooledBuffer requestBatch();
 
     // informational
 
-    public void instanceExecuted(int instanceId, ClientRequest[] requests);
+    public void instanceExecuted(int instanceId);
 
     public void setDecideCallback(DecideCallback decideCallback);
 
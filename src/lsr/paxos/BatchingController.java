@@ -0,0 +1,265 @@
+package lsr.paxos;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.common.MovingAverage;
+import lsr.paxos.storage.Storage;
+
+/**
+ * Sets the size a batch is closed at and how long the batcher waits for
+ * requests once the proposer asked for a batch, basing on the measured load.
+ *
+ * A request waits for the batch to close, then for its instance to be
+ * decided, then for the service to execute the instances decided before. The
+ * controller keeps the sum within the latency objective (BatchLatencySLO): the
+ * time to decide an instance follows from the window occupancy and the decide
+ * rate (Little's law), or from the time since the last decide if nothing is
+ * being decided, and the execution lag is predicted by the DecideCallback.
+ * What remains of the objective is the budget for waiting.
+ *
+ * The batch size is chosen so that the window can carry the arrival rate: at
+ * most WindowSize instances are decided per decide time, so a batch must hold
+ * at least arrival rate * decide time / WindowSize bytes. If the window was
+ * full in the last period, proposals are limited by the window rather than by
+ * requests, and the batches grow further; otherwise the growth decays. The
+ * size always stays within [BatchSizeMin, BatchSize]. Asking the storage is
+ * not free with the native log, so the window is looked at once per period,
+ * by the first request arriving after half of the period.
+ *
+ * The batcher waits for requests only if the window was full in the last
+ * period, as otherwise the batch can be proposed at once and the requests
+ * arriving meanwhile go to the next instance. It waits as long as filling the
+ * batch takes at the arrival rate, bounded by the budget, and not at all if
+ * not even one request is expected within the budget.
+ *
+ * With BatchingAdaptive unset, the static BatchSize and MaxBatchDelay are
+ * used. The methods other than the getters must be called under the lock of
+ * the NewPassiveBatcher: requestArrived by the threads enqueueing requests
+ * (the Selector threads), the others by the thread asking for a batch or
+ * closing one.
+ */
+public class BatchingController {
+
+    /** How often the batch size and delay are recalculated, in ns */
+    private static final long ADJUST_INTERVAL = 5_000_000L;
+    /** Batch size is set to the one needed by the arrival rate times this */
+    private static final double SIZE_HEADROOM = 1.5;
+    /** Growth of the batches upon each period with a full window */
+    private static final double FULL_WINDOW_GAIN = 1.25;
+    /** Largest growth of the batches due to a full window */
+    private static final double MAX_GAIN = 16;
+    /** Changes smaller than this fraction are not logged */
+    private static final double LOG_THRESHOLD = 0.1;
+
+    private final Storage storage;
+    private final boolean adaptive;
+    private final long sloUs;
+
+    /* Statistics of the current period */
+    private long periodStart;
+    private long periodBytes;
+    private int periodRequests;
+    private boolean periodWindowSampled;
+    private boolean periodWindowFull;
+    private int periodFirstUncommitted;
+
+    private final MovingAverage bytesPerUs = new MovingAverage(0.3, 0);
+    private final MovingAverage requestsPerUs = new MovingAverage(0.3, 0);
+    private final MovingAverage decidesPerUs = new MovingAverage(0.3, 0);
+    private final MovingAverage decideUs = new MovingAverage(0.3, 0);
+    private long lastDecide;
+    private double gain;
+
+    /* Decisions and their inputs, exposed for monitoring */
+    private volatile int batchSize;
+    private volatile long batchDelayUs;
+    private volatile double decideLatencyMs = 0;
+    private volatile double executionLagMs = 0;
+    private volatile double windowOccupancy = 0;
+    private volatile long adjustmentCount = 0;
+    private volatile long batches = 0;
+    private volatile long batchedBytes = 0;
+
+    public BatchingController(Storage storage) {
+        this.storage = storage;
+        adaptive = processDescriptor.batchingAdaptive;
+        sloUs = processDescriptor.batchLatencySlo * 1000L;
+        batchSize = processDescriptor.batchingLevel;
+        batchDelayUs = processDescriptor.maxBatchDelay * 1000L;
+        restart();
+    }
+
+    /** Called when the batcher is resumed; restarts the measurements */
+    public void restart() {
+        long now = System.nanoTime();
+        lastDecide = now;
+        gain = 1;
+        bytesPerUs.reset(0);
+        requestsPerUs.reset(0);
+        decidesPerUs.reset(0);
+        decideUs.reset(0);
+        startPeriod(now);
+    }
+
+    /** Called for each request put to a batch */
+    public void requestArrived(int bytes) {
+        if (!adaptive)
+            return;
+        periodBytes += bytes;
+        periodRequests++;
+        if (!periodWindowSampled && System.nanoTime() - periodStart >= ADJUST_INTERVAL / 2) {
+            periodWindowSampled = true;
+            periodWindowFull = storage.isWindowFull();
+        }
+    }
+
+    /** Called for each batch handed to the proposer */
+    public void batchFinished(int bytes) {
+        batches++;
+        batchedBytes += bytes;
+    }
+
+    /**
+     * Called before the batch size or delay are used; recalculates them if
+     * the period elapsed
+     *
+     * @param executionBacklogMs - see
+     *            {@link lsr.paxos.replica.DecideCallback#executionBacklogMs()}
+     */
+    public void update(double executionBacklogMs) {
+        if (!adaptive)
+            return;
+        long now = System.nanoTime();
+        if (now - periodStart >= ADJUST_INTERVAL)
+            adjust(now, executionBacklogMs);
+    }
+
+    private void startPeriod(long now) {
+        periodStart = now;
+        periodBytes = 0;
+        periodRequests = 0;
+        periodWindowSampled = false;
+        periodWindowFull = false;
+        periodFirstUncommitted = storage.getFirstUncommitted();
+    }
+
+    private void adjust(long now, double executionBacklogMs) {
+        double periodUs = (now - periodStart) / 1e3;
+        int firstUncommitted = storage.getFirstUncommitted();
+        int decided = firstUncommitted - periodFirstUncommitted;
+        if (decided > 0)
+            lastDecide = now;
+
+        double byteRate = bytesPerUs.add(periodBytes / periodUs);
+        double requestRate = requestsPerUs.add(periodRequests / periodUs);
+        double decideRate = decidesPerUs.add(Math.max(0, decided) / periodUs);
+
+        // time to decide an instance
+        int windowUsed = storage.getWindowUsed();
+        double decideSample = 0;
+        if (windowUsed > 0) {
+            if (decideRate > 0)
+                decideSample = windowUsed / decideRate;
+            // nothing decided for long - the pipeline is stalled
+            decideSample = Math.max(decideSample, (now - lastDecide) / 1e3);
+        }
+        double decideUs = this.decideUs.add(decideSample);
+        int window = storage.getWindowSize();
+        double budgetUs = Math.max(0, sloUs - decideUs - executionBacklogMs * 1000);
+
+        // batches needed by the arrival rate, larger while the window is full
+        if (periodWindowFull)
+            gain = Math.min(MAX_GAIN, gain * FULL_WINDOW_GAIN);
+        else
+            gain = Math.max(1, gain / FULL_WINDOW_GAIN);
+        double neededBytes = byteRate * decideUs / window;
+        int newSize = (int) Math.min(processDescriptor.batchingLevel,
+                Math.max(processDescriptor.batchSizeMin, neededBytes * SIZE_HEADROOM * gain));
+
+        // waiting pays off only if the window limits proposing, and if another
+        // request is expected in time
+        long newDelayUs = 0;
+        if (periodWindowFull && requestRate * budgetUs >= 1)
+            newDelayUs = (long) Math.min(budgetUs, newSize / byteRate);
+
+        decideLatencyMs = decideUs / 1e3;
+        executionLagMs = executionBacklogMs;
+        windowOccupancy = (double) windowUsed / window;
+
+        if (changed(batchSize, newSize) || changed(batchDelayUs, newDelayUs)) {
+            adjustmentCount++;
+            logger.info(processDescriptor.logMark_Benchmark,
+                    "Batch {} B / {} us -> {} B / {} us ({} req/s, {} MB/s, decide {} ms, " +
+                            "execution lag {} ms, window {}/{})",
+                    batchSize, batchDelayUs, newSize, newDelayUs,
+                    String.format("%.0f", requestRate * 1e6),
+                    String.format("%.2f", byteRate), String.format("%.3f", decideUs / 1e3),
+                    String.format("%.3f", executionBacklogMs), windowUsed, window);
+        }
+        batchSize = newSize;
+        batchDelayUs = newDelayUs;
+
+        startPeriod(now);
+    }
+
+    private static boolean changed(double oldValue, double newValue) {
+        return Math.abs(newValue - oldValue) > LOG_THRESHOLD * Math.max(oldValue, newValue);
+    }
+
+    /** Size at which batches are closed, in bytes */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /** How long to wait for requests once a batch is requested */
+    public long getBatchDelayUs() {
+        return batchDelayUs;
+    }
+
+    /**
+     * How long to wait for requests more when the execution lags behind; see
+     * {@link lsr.paxos.replica.DecideCallback#hasDecidedNotExecutedOverflow()}
+     */
+    public long getOverflowDelayUs() {
+        if (!adaptive)
+            return NewPassiveBatcher.PRELONGED_BATCHING_TIME * 1000L;
+        // let the execution catch up, but do not wait past the objective
+        return Math.max(1000, Math.min(sloUs, (long) (executionLagMs * 1000)));
+    }
+
+    /** Decide time estimated in the last period */
+    public double getDecideLatencyMs() {
+        return decideLatencyMs;
+    }
+
+    /** Execution lag seen in the last period */
+    public double getExecutionLagMs() {
+        return executionLagMs;
+    }
+
+    /** Used part of the window in the last period */
+    public double getWindowOccupancy() {
+        return windowOccupancy;
+    }
+
+    /** Number of significant changes of the batch size or delay so far */
+    public long getAdjustmentCount() {
+        return adjustmentCount;
+    }
+
+    /** Number of batches handed to the proposer so far */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    /** Mean size of the batches handed to the proposer so far */
+    public double getMeanBatchBytes() {
+        long count = batches;
+        return count == 0 ? 0 : (double) batchedBytes / count;
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(BatchingController.class);
+}
@@ -62,7 +62,7 @@ public class EpochPrepareRetransmitter implements PrepareRetransmitter {
     }
 
     public boolean isMajority() {
-        return prepared.cardinality() >= processDescriptor.majority;
+        return processDescriptor.isPhase1Quorum(prepared);
     }
 
     private void stop(int i) {
@@ -2,7 +2,11 @@ package lsr.paxos.NATIVE;
 
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public final class PersistentMemory {
 
@@ -11,6 +15,13 @@ public final class PersistentMemory {
     private static native void init(String pmemFile, long pmemFileSize, int numReplicas,
                                     int localId);
 
+    /**
+     * Sets which sets of acceptors decide an instance: any set of at least
+     * quorumSize acceptors, or, if quorumMasks is not empty, any superset of
+     * one of the masks. Each mask takes (numReplicas + 31) / 32 ints.
+     */
+    private static native void setPhase2Quorums(int quorumSize, int[] quorumMasks);
+
     public static native void startThreadLocalTx();
 
     public static native void commitThreadLocalTx();
@@ -18,12 +29,44 @@ public final class PersistentMemory {
     public static void loadLib(String pmemFile) throws UnsatisfiedLinkError, AccessDeniedException {
         if (loaded)
             return;
-        System.loadLibrary("jpaxos-pmem");
+        if (processDescriptor.group == 0)
+            System.loadLibrary("jpaxos-pmem");
+        else
+            loadGroupCopy("jpaxos-pmem");
         init(pmemFile, processDescriptor.nvmPoolSize, processDescriptor.numReplicas,
                 processDescriptor.localId);
+        setPhase2Quorums(processDescriptor.phase2QuorumSize,
+                processDescriptor.getPhase2QuorumMasks());
         loaded = true;
     }
 
+    /**
+     * The native storage keeps its state in globals, and a library is loaded
+     * once per path. Every further Paxos group of a MultiGroupReplica (each
+     * with its own class loader) thus loads its own copy of the library.
+     */
+    private static void loadGroupCopy(String name) throws UnsatisfiedLinkError {
+        String fileName = System.mapLibraryName(name);
+        for (String dir : System.getProperty("java.library.path", "").split(File.pathSeparator)) {
+            File lib = new File(dir, fileName);
+            if (!lib.isFile())
+                continue;
+            try {
+                File copy = File.createTempFile(name + ".group" + processDescriptor.group + ".",
+                        fileName.substring(fileName.lastIndexOf('.')));
+                copy.deleteOnExit();
+                Files.copy(lib.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.load(copy.getAbsolutePath());
+                return;
+            } catch (IOException e) {
+                UnsatisfiedLinkError ule = new UnsatisfiedLinkError("Cannot copy " + lib);
+                ule.initCause(e);
+                throw ule;
+            }
+        }
+        throw new UnsatisfiedLinkError("no " + fileName + " in java.library.path");
+    }
+
     public static boolean isLoaded() {
         return loaded;
     }
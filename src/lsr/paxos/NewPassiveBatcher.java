@@ -3,8 +3,6 @@ package lsr.paxos;
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -23,6 +21,7 @@ import lsr.common.SingleThreadDispatcher;
 import lsr.paxos.core.Paxos;
 import lsr.paxos.core.Proposer.OnLeaderElectionResultTask;
 import lsr.paxos.core.ProposerImpl;
+import lsr.paxos.network.PooledBuffer;
 import lsr.paxos.replica.ClientRequestBatcher;
 import lsr.paxos.replica.ClientRequestManager;
 import lsr.paxos.replica.DecideCallback;
@@ -37,16 +36,27 @@ public class NewPassiveBatcher implements Batcher {
 
     // // // local data // // //
 
+    /*
+     * The batch under construction and the fields below are guarded by the
+     * lock of this object: requests received from clients are appended by the
+     * selector threads directly, the rest by the batcher thread.
+     *
+     * No thread waits for another one while holding the lock, and in
+     * particular the proposer is notified about a new batch only after
+     * leaving it - the Protocol thread takes the lock in requestBatch().
+     */
+
     // batch has been requested and not passed on
     private volatile boolean batchRequested = false;
     // batch requested, not passed on and batch delay expired
     private boolean instantBatch = false;
     private ScheduledFuture<?> timeOutTaskF = null;
 
-    private List<ClientRequest> underConstructionBatch = new ArrayList<ClientRequest>();
-    private int underConstructionSize = BATCH_HEADER_SIZE;
+    private final BatchArena underConstructionBatch = new BatchArena(processDescriptor.batchingLevel);
 
-    private ConcurrentLinkedQueue<byte[]> fullBatches = new ConcurrentLinkedQueue<byte[]>();
+    private ConcurrentLinkedQueue<PooledBuffer> fullBatches = new ConcurrentLinkedQueue<PooledBuffer>();
+    // finished batches waiting for compression on the batcher thread
+    private final ConcurrentLinkedQueue<PooledBuffer> uncompressedBatches = new ConcurrentLinkedQueue<PooledBuffer>();
 
     private volatile SingleThreadDispatcher batcherThread = null;
 
@@ -57,6 +67,8 @@ public class NewPassiveBatcher implements Batcher {
 
     private final ProposerImpl proposer;
     private final SingleThreadDispatcher paxosDispatcher;
+    private final BatchingController batchingController;
+    private final BatchCompressor batchCompressor = new BatchCompressor();
     private DecideCallback decideCallback = null;
 
     private final Replica replica;
@@ -67,7 +79,17 @@ public class NewPassiveBatcher implements Batcher {
         this.replica = replica;
         this.proposer = (ProposerImpl) paxos.getProposer();
         this.paxosDispatcher = paxos.getDispatcher();
+        this.batchingController = new BatchingController(paxos.getStorage());
+    }
+
+    /** Exposes the batch size and delay in use and the load they come from */
+    public BatchingController getBatchingController() {
+        return batchingController;
+    }
 
+    /** Exposes how much the batch compression saves */
+    public BatchCompressor getBatchCompressor() {
+        return batchCompressor;
     }
 
     public void setDecideCallback(DecideCallback decideCallback) {
@@ -112,39 +134,79 @@ public class NewPassiveBatcher implements Batcher {
         currBatcherThread.execute(() -> enqueueClientRequestInternal(request));
     }
 
+    @Override
+    public boolean enqueueClientRequest(ByteBuffer request) {
+
+        //
+        // WARNING: called from SELECTOR thread directly!
+        //
+
+        if (batcherThread == null)
+            return false;
+
+        int size = request.remaining();
+        boolean batchReady;
+        synchronized (this) {
+            // the batcher may have been suspended in the meantime
+            if (batcherThread == null)
+                return false;
+            batchReady = beforeAppend(size);
+            underConstructionBatch.append(request);
+            batchReady |= afterAppend();
+        }
+        passOnBatches(batchReady);
+        return true;
+    }
+
     private void enqueueClientRequestInternal(ClientRequest request) {
+        boolean batchReady;
+        synchronized (this) {
+            batchReady = beforeAppend(request.byteSize());
+            underConstructionBatch.append(request);
+            batchReady |= afterAppend();
+        }
+        passOnBatches(batchReady);
+    }
 
+    /** Returns true if the proposer waits for the batch finished here */
+    private boolean beforeAppend(int requestSize) {
+        batchingController.requestArrived(requestSize);
         if (!underConstructionBatch.isEmpty()) {
-            if (request.byteSize() + underConstructionSize > processDescriptor.batchingLevel)
+            if (requestSize + underConstructionBatch.batchSize() > batchingController.getBatchSize())
                 // request doesn't fit anymore
-                finishBatch();
+                return finishBatch();
         }
-        underConstructionBatch.add(request);
-        underConstructionSize += request.byteSize();
+        return false;
+    }
 
-        if (instantBatch || underConstructionSize > processDescriptor.batchingLevel)
+    /** Returns true if the proposer waits for the batch finished here */
+    private boolean afterAppend() {
+        if (instantBatch || underConstructionBatch.batchSize() > batchingController.getBatchSize())
             // single request is bigger than batching lvl
-            finishBatch();
+            return finishBatch();
+        return false;
     }
 
-    private void finishBatch() {
+    /**
+     * Moves the batch under construction to the full batches. Returns true if
+     * the batch has been requested; the caller must then notify the proposer,
+     * after releasing the lock.
+     */
+    private boolean finishBatch() {
         // The assert below is commented out since it can run into a race
         // condition with suspendBatcher which is called from paxos thread
         // assert batcherThread.amIInDispatcher();
 
-        assert underConstructionSize > BATCH_HEADER_SIZE;
-        byte[] newBatch = new byte[underConstructionSize];
-        ByteBuffer bb = ByteBuffer.wrap(newBatch);
-        bb.putInt(underConstructionBatch.size());
-        for (ClientRequest req : underConstructionBatch) {
-            req.writeTo(bb);
-        }
-        assert (bb.remaining() == 0);
-        fullBatches.add(newBatch);
+        assert underConstructionBatch.batchSize() > BATCH_HEADER_SIZE;
+        int requests = underConstructionBatch.requestCount();
+        int size = underConstructionBatch.batchSize();
+        if (batchCompressor.isEnabled())
+            uncompressedBatches.add(underConstructionBatch.finishBatch());
+        else
+            fullBatches.add(underConstructionBatch.finishBatch());
+        batchingController.batchFinished(size);
         logger.debug("Prepared batch with {} requests of size {}; instant is {}",
-                underConstructionBatch.size(), underConstructionSize, instantBatch);
-        underConstructionBatch.clear();
-        underConstructionSize = BATCH_HEADER_SIZE;
+                requests, size, instantBatch);
         if (batchRequested) {
             if (timeOutTaskF != null) {
                 timeOutTaskF.cancel(false);
@@ -152,56 +214,106 @@ public class NewPassiveBatcher implements Batcher {
             }
             batchRequested = false;
             instantBatch = false;
-            proposer.notifyAboutNewBatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called after leaving the lock once batches may have been finished. The
+     * batches are passed on to the proposer, which is notified if it waits
+     * for one. With compression, they are compressed on the batcher thread
+     * first, so that the proposer only picks up ready buffers.
+     */
+    private void passOnBatches(boolean requested) {
+        if (!batchCompressor.isEnabled()) {
+            if (requested)
+                proposer.notifyAboutNewBatch();
+            return;
         }
+        if (!requested && uncompressedBatches.isEmpty())
+            return;
+        SingleThreadDispatcher currBatcherThread = batcherThread;
+        if (currBatcherThread == null)
+            return;
+        if (currBatcherThread.amIInDispatcher())
+            compressBatches(requested);
+        else
+            currBatcherThread.execute(() -> compressBatches(requested));
+    }
+
+    private void compressBatches(boolean requested) {
+        PooledBuffer batch;
+        while ((batch = uncompressedBatches.poll()) != null)
+            fullBatches.add(batchCompressor.compress(batch));
+        if (requested)
+            proposer.notifyAboutNewBatch();
     }
 
     @Override
-    public byte[] requestBatch() {
-        byte[] batch = fullBatches.poll();
+    public PooledBuffer requestBatch() {
+        PooledBuffer batch = fullBatches.poll();
         if (batch == null) {
-            SingleThreadDispatcher currBatcherThread = batcherThread;
-            if (currBatcherThread == null)
-                return null;
-            currBatcherThread.executeAndWait(() -> requestBatchInternal());
+            // run here, not on the batcher thread, so that the Protocol thread
+            // never waits for a thread that might be notifying it
+            requestBatchInternal();
             batch = fullBatches.poll();
         }
         return batch;
     }
 
     protected void requestBatchInternal() {
-        SingleThreadDispatcher currBatcherThread = batcherThread;
-        if (currBatcherThread != null && !batchRequested) {
-            batchRequested = true;
-            assert timeOutTaskF == null;
-
-            if (processDescriptor.maxBatchDelay == 0)
-                currBatcherThread.executeAndWait(() -> timedOut());
-            else
-                timeOutTaskF = currBatcherThread.schedule(() -> timedOut(),
-                        processDescriptor.maxBatchDelay, TimeUnit.MILLISECONDS);
+        boolean batchReady = false;
+        synchronized (this) {
+            SingleThreadDispatcher currBatcherThread = batcherThread;
+            if (currBatcherThread != null && !batchRequested) {
+                batchRequested = true;
+                assert timeOutTaskF == null;
+
+                batchingController.update(decideCallback.executionBacklogMs());
+                long batchDelayUs = batchingController.getBatchDelayUs();
+                if (batchDelayUs == 0)
+                    batchReady = batchDelayExpired();
+                else
+                    timeOutTaskF = currBatcherThread.schedule(() -> timedOut(),
+                            batchDelayUs, TimeUnit.MICROSECONDS);
+            }
         }
+        // an uncompressed batch finished here is polled by requestBatch() at
+        // once, a compressed one is announced by the batcher thread
+        if (batchReady && batchCompressor.isEnabled())
+            passOnBatches(true);
     }
 
     protected void timedOut() {
+        boolean batchReady;
+        synchronized (this) {
+            SingleThreadDispatcher currentBatcherThread = batcherThread;
+            // the timer might belong to a batcher that has been suspended
+            if (currentBatcherThread == null || !currentBatcherThread.amIInDispatcher())
+                return;
+            batchReady = batchDelayExpired();
+        }
+        passOnBatches(batchReady);
+    }
+
+    /** Returns true if the proposer waits for the batch finished here */
+    private boolean batchDelayExpired() {
         SingleThreadDispatcher currentBatcherThread = batcherThread;
-        if (currentBatcherThread == null)
-            return;
         if (decideCallback.hasDecidedNotExecutedOverflow()) {
             // gtfo JPaxos, you decided too much. execute it first.
             logger.debug("Delaying batcher timeout - decided and not executed overflow");
             timeOutTaskF = currentBatcherThread.schedule(() -> timedOut(),
-                    PRELONGED_BATCHING_TIME, TimeUnit.MILLISECONDS);
-            return;
+                    batchingController.getOverflowDelayUs(), TimeUnit.MICROSECONDS);
+            return false;
         }
         logger.debug("Batcher timeout expired.");
         timeOutTaskF = null;
-        if (!underConstructionBatch.isEmpty()) {
-            finishBatch();
-        } else {
-            assert (batchRequested);
-            instantBatch = true;
-        }
+        if (!underConstructionBatch.isEmpty())
+            return finishBatch();
+        assert (batchRequested);
+        instantBatch = true;
+        return false;
     }
 
     @Override
@@ -210,14 +322,14 @@ public class NewPassiveBatcher implements Batcher {
         final SingleThreadDispatcher oldBatcherThread = batcherThread;
         if (oldBatcherThread == null)
             return;
-        batcherThread = null;
-        oldBatcherThread.executeAndWait(new Runnable() {
-            @Override
-            public void run() {
-                oldBatcherThread.shutdownNow();
-                logger.info("Suspend batcher");
-            }
-        });
+        // under the lock, so that no request is appended past this point
+        synchronized (this) {
+            batcherThread = null;
+        }
+        // not waiting for the batcher thread, as it may be notifying the
+        // proposer; its pending timers see that it is no longer the batcher
+        oldBatcherThread.shutdownNow();
+        logger.info("Suspend batcher");
     }
 
     @Override
@@ -225,7 +337,10 @@ public class NewPassiveBatcher implements Batcher {
         assert paxosDispatcher.amIInDispatcher();
         assert batcherThread == null;
         logger.info("Resuming batcher.");
-        batcherThread = new SingleThreadDispatcher("Batcher");
+        synchronized (this) {
+            batchingController.restart();
+        }
+        batcherThread = SingleThreadDispatcher.create("Batcher");
         batcherThread.setRejectedExecutionHandler(new RejectedExecutionHandler() {
             @Override
             public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
@@ -244,7 +359,7 @@ public class NewPassiveBatcher implements Batcher {
     }
 
     @Override
-    public void instanceExecuted(int instanceId, ClientRequest[] requests) {
+    public void instanceExecuted(int instanceId) {
     }
 
     /* This task handles client requests accumulated while preparing */
@@ -37,10 +37,11 @@ public interface PrepareRetransmitter {
     void update(PrepareOK message, int sender);
 
     /**
-     * Returns true if the majority of processes had responded with
-     * <code>PrepareOk</code>.
+     * Returns true if a phase 1 quorum (by default, the majority) of processes
+     * had responded with <code>PrepareOk</code>.
      * 
-     * @return true if the majority had responded; false otherwise
+     * @return true if the quorum had responded; false otherwise
+     * @see lsr.common.ProcessDescriptor#isPhase1Quorum(BitSet)
      */
     boolean isMajority();
 }
\ No newline at end of file
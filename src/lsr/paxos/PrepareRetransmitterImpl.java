@@ -41,7 +41,7 @@ public final class PrepareRetransmitterImpl implements PrepareRetransmitter {
     }
 
     public boolean isMajority() {
-        return prepared.cardinality() > ProcessDescriptor.processDescriptor.numReplicas / 2;
+        return ProcessDescriptor.processDescriptor.isPhase1Quorum(prepared);
     }
 
     private final static Logger logger = LoggerFactory.getLogger(PrepareRetransmitterImpl.class);
@@ -3,6 +3,7 @@ package lsr.paxos;
 import java.nio.ByteBuffer;
 
 import lsr.common.ClientRequest;
+import lsr.common.RequestId;
 
 public class UnBatcher {
     // Prevent construction
@@ -12,21 +13,117 @@ public class UnBatcher {
     /// returns number of client requests in a batch
     public static int countCR(byte[] source) {
         ByteBuffer bb = ByteBuffer.wrap(source);
-        return bb.getInt();
+        return BatchCompressor.requestCount(bb.getInt());
     }
 
-    public static ClientRequest[] unpackCR(byte[] source) {
-        ByteBuffer bb = ByteBuffer.wrap(source);
-        int count = bb.getInt();
+    /**
+     * Returns a cursor over the requests of a batch, from the position to the
+     * limit of the buffer. Nothing is copied; the buffer must not change while
+     * the cursor is used. The batch must not be compressed (see
+     * {@link BatchCompressor#decompress(ByteBuffer)}).
+     */
+    public static Cursor cursor(ByteBuffer batch) {
+        return new Cursor(batch);
+    }
+
+    /**
+     * Iterates over the requests of a batch in place. The cursor is a flyweight:
+     * the fields of the current request are read straight from the batch, and
+     * the value is a view of the batch, moved on each {@link #next()}. Hence
+     * nothing is allocated per request; whoever wants to keep the value must
+     * copy it.
+     */
+    public static final class Cursor {
+        private final ByteBuffer batch;
+        private final int start;
+        private final int count;
+        private final ByteBuffer value;
 
-        ClientRequest[] requests = new ClientRequest[count];
+        private int index;
+        private long clientId;
+        private int seqNumber;
+        private int valueStart;
+        private int valueLength;
 
-        for (int i = 0; i < count; ++i) {
-            requests[i] = ClientRequest.create(bb);
+        private Cursor(ByteBuffer batch) {
+            this.batch = batch.duplicate();
+            start = batch.position();
+            count = batch.getInt(start);
+            assert count >= 0 : "Compressed batch";
+            value = batch.duplicate();
+            reset();
         }
 
-        assert bb.remaining() == 0 : "Packing/unpacking error";
+        /** Moves the cursor before the first request */
+        public void reset() {
+            index = -1;
+            batch.position(start + 4);
+        }
+
+        /** Moves to the next request; returns false if there is none */
+        public boolean next() {
+            if (index + 1 >= count) {
+                assert batch.remaining() == 0 : "Packing/unpacking error";
+                return false;
+            }
+            index++;
+            clientId = batch.getLong();
+            seqNumber = batch.getInt();
+            valueLength = batch.getInt();
+            valueStart = batch.position();
+            batch.position(valueStart + valueLength);
+            return true;
+        }
 
-        return requests;
+        /** Number of requests in the batch */
+        public int count() {
+            return count;
+        }
+
+        public long clientId() {
+            return clientId;
+        }
+
+        public int seqNumber() {
+            return seqNumber;
+        }
+
+        /**
+         * The value of the current request, from the position to the limit.
+         * Read-only if the batch is; valid until the next call to next().
+         */
+        public ByteBuffer value() {
+            value.limit(valueStart + valueLength).position(valueStart);
+            return value;
+        }
+
+        public RequestId requestId() {
+            return new RequestId(clientId, seqNumber);
+        }
+
+        /** Copies the current request out of the batch */
+        public ClientRequest toClientRequest() {
+            byte[] copy = new byte[valueLength];
+            value().get(copy);
+            return new ClientRequest(requestId(), copy);
+        }
+
+        public boolean isNop() {
+            return clientId == -1 && seqNumber == -1;
+        }
+
+        /** Ids of the requests in the batch; meant for logging */
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            int pos = start + 4;
+            for (int i = 0; i < count; ++i) {
+                if (i != 0)
+                    sb.append(", ");
+                sb.append(new RequestId(batch.getLong(pos), batch.getInt(pos + 8)));
+                pos += ClientRequest.HEADERS_SIZE +
+                       batch.getInt(pos + ClientRequest.HEADER_VALUE_SIZE_OFFSET);
+            }
+            return sb.append("]").toString();
+        }
     }
 }
@@ -180,8 +180,26 @@ public class Client {
      * @throws ReplicationException if error occurs while sending request
      */
     public synchronized byte[] execute(byte[] bytes) throws ReplicationException {
+        return execute(CommandType.REQUEST, bytes);
+    }
+
+    /**
+     * Sends request that does not modify the service state to replica. Such
+     * request may be executed by the replica without ordering it, if the
+     * replica can do so preserving linearizability. This method will block
+     * until response from replica is received.
+     * 
+     * @param bytes - argument for service
+     * @return reply from service
+     * @throws ReplicationException if error occurs while sending request
+     */
+    public synchronized byte[] executeReadOnly(byte[] bytes) throws ReplicationException {
+        return execute(CommandType.READ_ONLY, bytes);
+    }
+
+    private byte[] execute(CommandType type, byte[] bytes) throws ReplicationException {
         ClientRequest request = new ClientRequest(nextRequestId(), bytes);
-        ClientCommand command = new ClientCommand(CommandType.REQUEST, request);
+        ClientCommand command = new ClientCommand(type, request);
         ByteBuffer bb = ByteBuffer.allocate(command.byteSize());
         command.writeTo(bb);
         bb.flip();
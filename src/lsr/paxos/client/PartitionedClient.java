@@ -0,0 +1,60 @@
+package lsr.paxos.client;
+
+import java.io.IOException;
+
+import lsr.common.Configuration;
+import lsr.common.ProcessDescriptor;
+import lsr.service.Partitioner;
+
+/**
+ * Client of a service replicated with many Paxos groups (see
+ * lsr.paxos.replica.MultiGroupReplica). The groups do not share a client port,
+ * so this keeps one {@link Client}, with its own connection, per group and
+ * sends each request to the group chosen by the partitioner of the service.
+ *
+ * Requests to different groups may be executed concurrently by separate
+ * threads; requests to one group are serialized, as in {@link Client}.
+ */
+public class PartitionedClient {
+    private final Client[] clients;
+    private final Partitioner partitioner;
+
+    /**
+     * Creates clients for all groups, as set by the <code>Groups</code>
+     * property of the configuration.
+     */
+    public PartitionedClient(Configuration config, Partitioner partitioner) throws IOException {
+        this.partitioner = partitioner;
+        clients = new Client[config.getIntProperty(ProcessDescriptor.GROUPS,
+                ProcessDescriptor.DEFAULT_GROUPS)];
+        for (int group = 0; group < clients.length; ++group)
+            clients[group] = new Client(config.forGroup(group));
+    }
+
+    public int getGroups() {
+        return clients.length;
+    }
+
+    /** Connects to a replica of each group; see {@link Client#connect()} */
+    public void connect() {
+        for (Client client : clients)
+            client.connect();
+    }
+
+    /**
+     * Sends the request to its group and waits for the reply; see
+     * {@link Client#execute(byte[])}
+     */
+    public byte[] execute(byte[] bytes) throws ReplicationException {
+        return clientOf(bytes).execute(bytes);
+    }
+
+    /** See {@link Client#executeReadOnly(byte[])} */
+    public byte[] executeReadOnly(byte[] bytes) throws ReplicationException {
+        return clientOf(bytes).executeReadOnly(bytes);
+    }
+
+    private Client clientOf(byte[] request) {
+        return clients[partitioner.getGroup(request, clients.length)];
+    }
+}
@@ -2,16 +2,27 @@ package lsr.paxos.core;
 
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lsr.paxos.messages.Accept;
+import lsr.paxos.messages.AcceptRange;
+import lsr.paxos.messages.Message;
 import lsr.paxos.messages.Prepare;
 import lsr.paxos.messages.PrepareOK;
 import lsr.paxos.messages.Propose;
+import lsr.paxos.messages.Skip;
+import lsr.paxos.messages.ValueFetch;
+import lsr.paxos.messages.ValueFetchReply;
 import lsr.paxos.network.Network;
 import lsr.paxos.storage.ConsensusInstance;
 import lsr.paxos.storage.ConsensusInstance.LogEntryState;
+import lsr.paxos.storage.InstanceDigest;
 import lsr.paxos.storage.Log;
 import lsr.paxos.storage.Storage;
 
@@ -25,6 +36,21 @@ class Acceptor {
     private final Storage storage;
     private final Network network;
 
+    /*
+     * Accepts waiting to be sent as one AcceptRange, as pairs of the first and
+     * last instance id of each range. Used only if AcceptRanges is set.
+     */
+    private int[] pendingRanges = new int[16];
+    private int pendingRangeCount = 0;
+    private int pendingView = -1;
+    private boolean flushScheduled = false;
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flushScheduled = false;
+            flushAccepts();
+        }
+    };
+
     /**
      * Initializes new instance of <code>Acceptor</code>.
      * 
@@ -50,13 +76,29 @@ class Acceptor {
      * @param msg received prepare message
      * @see Prepare
      */
-    public void onPrepare(Prepare msg, int sender) {
+    public void onPrepare(final Prepare msg, final int sender) {
         assert paxos.getDispatcher().amIInDispatcher() : "Thread should not be here: " +
                                                          Thread.currentThread();
 
         if (!paxos.isActive())
             return;
 
+        LeaseManager leaseManager = paxos.getLeaseManager();
+        if (leaseManager != null) {
+            long promise = leaseManager.getPromiseRemaining(msg.getView());
+            if (promise > 0) {
+                // a lease granted to the previous leader is still valid
+                logger.info("Postponing {} by {} ns due to a lease", msg, promise);
+                paxos.getDispatcher().schedule(new Runnable() {
+                    public void run() {
+                        if (msg.getView() == storage.getView())
+                            onPrepare(msg, sender);
+                    }
+                }, promise, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+
         // TODO: JK: When can we skip responding to a prepare message?
         // Is detecting stale prepare messages it worth it?
 
@@ -73,13 +115,21 @@ class Acceptor {
             return;
         }
 
-        ConsensusInstance[] v = new ConsensusInstance[Math.max(
-                log.getNextId() - msg.getFirstUncommitted(), 0)];
-        for (int i = msg.getFirstUncommitted(); i < log.getNextId(); i++) {
-            v[i - msg.getFirstUncommitted()] = log.getInstance(i);
+        int count = Math.max(log.getNextId() - msg.getFirstUncommitted(), 0);
+        PrepareOK m;
+        if (processDescriptor.prepareOKDigests) {
+            InstanceDigest[] d = new InstanceDigest[count];
+            for (int i = msg.getFirstUncommitted(); i < log.getNextId(); i++) {
+                d[i - msg.getFirstUncommitted()] = new InstanceDigest(log.getInstance(i));
+            }
+            m = new PrepareOK(msg.getView(), d, storage.getEpoch());
+        } else {
+            ConsensusInstance[] v = new ConsensusInstance[count];
+            for (int i = msg.getFirstUncommitted(); i < log.getNextId(); i++) {
+                v[i - msg.getFirstUncommitted()] = log.getInstance(i);
+            }
+            m = new PrepareOK(msg.getView(), v, storage.getEpoch());
         }
-
-        PrepareOK m = new PrepareOK(msg.getView(), v, storage.getEpoch());
         logger.info("Sending {}", m);
 
         network.sendMessage(m, sender);
@@ -87,6 +137,40 @@ class Acceptor {
             logger.debug(processDescriptor.logMark_Benchmark2019, "P1B S {}", m.getView());
     }
 
+    /**
+     * Sends the values of the requested instances to the new leader, in
+     * messages of at most ValueFetchChunkSize bytes. Instances that are
+     * truncated or have no value are skipped; the leader asks another replica
+     * for them.
+     * 
+     * @param msg - received value fetch message
+     * @param sender - the id of the new leader
+     */
+    public void onValueFetch(ValueFetch msg, int sender) {
+        assert paxos.getDispatcher().amIInDispatcher();
+
+        Log log = storage.getLog();
+        List<ConsensusInstance> chunk = new ArrayList<ConsensusInstance>();
+        int chunkSize = 0;
+        for (int id : msg.getInstanceIds()) {
+            if (id < log.getLowestAvailableId() || id >= log.getNextId())
+                continue;
+            ConsensusInstance instance = log.getInstance(id);
+            if (instance == null || instance.getState() == LogEntryState.UNKNOWN)
+                continue;
+            if (!chunk.isEmpty() &&
+                chunkSize + instance.byteSize() > processDescriptor.valueFetchChunkSize) {
+                network.sendMessage(new ValueFetchReply(msg.getView(), chunk), sender);
+                chunk.clear();
+                chunkSize = 0;
+            }
+            chunk.add(instance);
+            chunkSize += instance.byteSize();
+        }
+        if (!chunk.isEmpty())
+            network.sendMessage(new ValueFetchReply(msg.getView(), chunk), sender);
+    }
+
     /**
      * Accepts proposals higher or equal than the current view.
      * 
@@ -111,21 +195,25 @@ class Acceptor {
         }
 
         // In FullSS, updating state leads to setting new value if needed, which
-        // syncs to disk
+        // syncs to disk. The value is written from the buffer it came in.
         boolean isMajority = instance.updateStateFromPropose(sender, message.getView(),
-                message.getValue());
+                message.getValueBuffer());
 
-        // leader will not send the accept message;
-        if (!paxos.isLeader()) {
+        // leader will not send the accept message, unless others propose too
+        if (!paxos.isLeader() || processDescriptor.multiLeader) {
 
             if (storage.getFirstUncommitted() +
-                (processDescriptor.windowSize * 3) < message.getInstanceId()) {
+                (storage.getWindowSize() * 3) < message.getInstanceId()) {
                 // the instance is so new that we must be out of date.
                 paxos.getCatchup().forceCatchup();
             }
 
-            if (paxos.isActive())
-                network.sendToOthers(new Accept(message));
+            if (paxos.isActive()) {
+                if (processDescriptor.acceptRanges)
+                    coalesceAccept(message.getView(), message.getInstanceId());
+                else
+                    sendAccept(new Accept(message));
+            }
         }
 
         // we could have decided the instance earlier (and now we get a
@@ -141,5 +229,105 @@ class Acceptor {
         }
     }
 
+    /**
+     * Multi-leader mode: accepts the no-ops proposed by the owner in the Skip
+     * and passes the message on, or counts the message passed on by another
+     * replica as its Accept for the no-ops.
+     * 
+     * @param message - received skip message
+     * @param sender - the id of replica that send the message
+     */
+    public void onSkip(Skip message, int sender) {
+        assert message.getView() == storage.getView() : "Msg.view: " + message.getView() +
+                                                        ", view: " + storage.getView();
+        assert paxos.getDispatcher().amIInDispatcher();
+
+        boolean fromOwner = sender == message.getOwner();
+        // set if some no-op is accepted for the first time
+        boolean accepted = false;
+        Log log = storage.getLog();
+        int id = message.getFirstInstance();
+        for (int i = 0; i < message.getCount(); ++i, id += message.getStep()) {
+            ConsensusInstance instance = log.getInstance(id);
+            if (instance == null || instance.getState() == LogEntryState.DECIDED)
+                continue;
+            boolean isMajority;
+            if (fromOwner) {
+                accepted |= instance.getState() != LogEntryState.KNOWN ||
+                            instance.getLastVotedView() != message.getView();
+                isMajority = instance.updateStateFromPropose(sender, message.getView(),
+                        ProposerImpl.noOperation());
+            } else {
+                isMajority = instance.updateStateFromAccept(message.getView(), sender);
+            }
+            if (isMajority)
+                paxos.decide(id);
+        }
+
+        if (!fromOwner || !paxos.isActive())
+            return;
+        if (accepted)
+            // acknowledges the Skip to the owner as well
+            network.sendToOthers(message);
+        else
+            // a retransmission; the others have got the Skip already
+            network.sendMessage(message, sender);
+    }
+
+    private void sendAccept(Message accept) {
+        if (processDescriptor.leaderCentricPhase2)
+            network.sendMessage(accept, paxos.getLeaderId());
+        else
+            network.sendToOthers(accept);
+    }
+
+    /**
+     * Adds the accept to the pending ranges and makes sure they get sent
+     * within the coalesce budget.
+     */
+    private void coalesceAccept(int view, int instanceId) {
+        if (view != pendingView) {
+            flushAccepts();
+            pendingView = view;
+        }
+
+        int last = 2 * pendingRangeCount - 1;
+        if (pendingRangeCount > 0 && pendingRanges[last] + 1 == instanceId) {
+            pendingRanges[last] = instanceId;
+        } else {
+            if (2 * pendingRangeCount == pendingRanges.length)
+                pendingRanges = Arrays.copyOf(pendingRanges, 2 * pendingRanges.length);
+            pendingRanges[2 * pendingRangeCount] = instanceId;
+            pendingRanges[2 * pendingRangeCount + 1] = instanceId;
+            pendingRangeCount++;
+        }
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            if (processDescriptor.acceptCoalesceBudget > 0)
+                paxos.getDispatcher().schedule(flushTask,
+                        processDescriptor.acceptCoalesceBudget, TimeUnit.MICROSECONDS);
+            else
+                // runs after the messages that are already queued
+                paxos.getDispatcher().execute(flushTask);
+        }
+    }
+
+    /** Sends the pending accepts, unless the view changed in the meantime */
+    private void flushAccepts() {
+        assert paxos.getDispatcher().amIInDispatcher();
+        if (pendingRangeCount == 0)
+            return;
+
+        if (pendingView == storage.getView() && paxos.isActive() &&
+            (!paxos.isLeader() || processDescriptor.multiLeader)) {
+            if (pendingRangeCount == 1 && pendingRanges[0] == pendingRanges[1])
+                sendAccept(new Accept(pendingView, pendingRanges[0]));
+            else
+                sendAccept(new AcceptRange(pendingView, pendingRanges, pendingRangeCount));
+        }
+        pendingRangeCount = 0;
+    }
+
     private final static Logger logger = LoggerFactory.getLogger(Acceptor.class);
 }
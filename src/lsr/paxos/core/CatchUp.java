@@ -115,7 +115,7 @@ public class CatchUp {
                 // already catching up. Ignore.
                 return;
 
-            assert !paxos.isLeader();
+            assert !paxos.isLeader() || processDescriptor.multiLeader;
 
             logger.info("Starting normal catchup");
 
@@ -188,9 +188,10 @@ public class CatchUp {
          * A follower may submit a catch-up task for execution and then become
          * leader before the task runs. As the leader never needs to catch-up
          * (the view change ensures that it becomes up-to-date), we ignore the
-         * catch-up.
+         * catch-up. In the multi-leader mode the leader may miss the values
+         * proposed by the others, as any replica.
          */
-        if (paxos.isLeader()) {
+        if (paxos.isLeader() && !processDescriptor.multiLeader) {
             logger.info("Interrupting catchup. Replica is in leader role");
             finished();
             return;
@@ -245,9 +246,13 @@ public class CatchUp {
     private int getBestContactReplica() {
         // TODO: verify code changing replica ratings
 
+        // in the multi-leader mode the leader catches up too
+        boolean leaderIsLocal = paxos.getLeaderId() == processDescriptor.localId;
+
         if (askLeader) {
             askLeader = false;
-            return paxos.getLeaderId();
+            if (!leaderIsLocal)
+                return paxos.getLeaderId();
         }
 
         // BitSet candidates has all processes without his and the leader
@@ -267,7 +272,7 @@ public class CatchUp {
         }
 
         // If a replica has negative rating, we catch-up with the leader
-        if (replicaRating[bestReplica] < 0) {
+        if (replicaRating[bestReplica] < 0 && !leaderIsLocal) {
             bestReplica = paxos.getLeaderId();
 
             // For all but leader the value is set to zero
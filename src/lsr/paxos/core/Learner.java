@@ -1,11 +1,16 @@
 package lsr.paxos.core;
 
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lsr.paxos.messages.Accept;
+import lsr.paxos.messages.AcceptRange;
+import lsr.paxos.messages.Commit;
 import lsr.paxos.storage.ConsensusInstance;
 import lsr.paxos.storage.ConsensusInstance.LogEntryState;
+import lsr.paxos.storage.Log;
 import lsr.paxos.storage.Storage;
 
 /**
@@ -63,7 +68,7 @@ class Learner {
 
         boolean isReadyToBeDecided = instance.updateStateFromAccept(message.getView(), sender);
 
-        if (paxos.isLeader()) {
+        if (paxos.isLeader() || processDescriptor.multiLeader) {
             proposer.stopPropose(instance.getId(), sender);
         }
 
@@ -74,5 +79,101 @@ class Learner {
         }
     }
 
+    /**
+     * Applies the accepts from all ranges of the message, updating the log
+     * once per range, and decides the instances that got a majority.
+     * 
+     * @param message - received accept range message from sender
+     * @param sender - the id of replica that send the message
+     * @see AcceptRange
+     */
+    public void onAcceptRange(AcceptRange message, int sender) {
+        assert message.getView() == storage.getView() : "Msg.view: " + message.getView() +
+                                                        ", view: " + storage.getView();
+        assert paxos.getDispatcher().amIInDispatcher() : "Thread should not be here: " +
+                                                         Thread.currentThread();
+
+        logger.trace("Learner received {}", message);
+
+        Log log = storage.getLog();
+        for (int r = 0; r < message.getRangeCount(); ++r) {
+            int first = Math.max(message.getFirst(r), storage.getFirstUncommitted());
+            int last = message.getLast(r);
+            if (first > last)
+                continue;
+
+            // creates the instances if the accepts overtook the proposes
+            log.getInstance(last);
+
+            int[] ready = log.updateStateFromAcceptRange(first, last, message.getView(), sender);
+
+            if (paxos.isLeader() || processDescriptor.multiLeader) {
+                for (int id = first; id <= last; ++id) {
+                    ConsensusInstance instance = log.getInstance(id);
+                    if (instance != null && instance.getState() != LogEntryState.DECIDED)
+                        proposer.stopPropose(id, sender);
+                }
+            }
+
+            for (int id : ready)
+                paxos.decide(id);
+        }
+    }
+
+    /**
+     * Leader-centric phase 2: decides all instances below the one given in the
+     * message. An instance can be decided only if the value accepted locally
+     * was proposed in the view of the message; otherwise the value must be
+     * fetched by catch-up.
+     * 
+     * @param message - received commit message from the leader
+     * @param sender - the id of replica that send the message
+     * @see Commit
+     */
+    public void onCommit(Commit message, int sender) {
+        assert message.getView() == storage.getView() : "Msg.view: " + message.getView() +
+                                                        ", view: " + storage.getView();
+        assert paxos.getDispatcher().amIInDispatcher() : "Thread should not be here: " +
+                                                         Thread.currentThread();
+
+        logger.trace("Learner received {}", message);
+
+        onCommitPoint(message.getView(), message.getUpToInstance());
+    }
+
+    /**
+     * Decides the instances below the commit point of the leader of the view,
+     * as announced by a Commit or Alive message.
+     * 
+     * @param view - the view of the leader
+     * @param commitPoint - the first instance not known to be decided
+     */
+    public void onCommitPoint(int view, int commitPoint) {
+        assert view == storage.getView() : "View: " + view + ", current: " + storage.getView();
+        assert paxos.getDispatcher().amIInDispatcher();
+
+        Log log = storage.getLog();
+        int upTo = Math.min(commitPoint, log.getNextId());
+        for (int id = storage.getFirstUncommitted(); id < upTo; ++id) {
+            ConsensusInstance instance = log.getInstance(id);
+            if (instance == null || instance.getState() == LogEntryState.DECIDED)
+                continue;
+
+            if (instance.getState() != LogEntryState.KNOWN ||
+                instance.getLastVotedView() != view) {
+                logger.debug("Value for committed instance {} unknown, catching up", id);
+                paxos.getCatchup().forceCatchup();
+                return;
+            }
+
+            paxos.decide(id);
+        }
+
+        if (commitPoint > log.getNextId()) {
+            // some Propose messages have not been received yet
+            paxos.getCatchup().forceCatchup();
+        }
+    }
+
     private final static Logger logger = LoggerFactory.getLogger(Learner.class);
 }
\ No newline at end of file
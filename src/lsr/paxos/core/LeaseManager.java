@@ -0,0 +1,176 @@
+package lsr.paxos.core;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.paxos.messages.Lease;
+import lsr.paxos.network.Network;
+import lsr.paxos.storage.Storage;
+
+/**
+ * Leader leases, allowing the leader to serve reads without ordering them.
+ *
+ * The leader sends a {@link Lease} message with its local time every quarter
+ * of the lease duration; the message counts as a heartbeat for the failure
+ * detector too. A replica receiving a Lease from the leader of its current
+ * view returns it to the leader, and thereby promises not to join any higher
+ * view for LeaseDuration, measured on its own clock from the reception. The
+ * leader holds the lease until LeaseDuration * (1 - LeaseClockDrift) since the
+ * time it sent the latest Lease returned by a phase 2 quorum (counting itself).
+ * Such a quorum intersects the phase 1 quorum of any future leader.
+ *
+ * As the promise starts after the Lease was sent and lasts longer, no other
+ * process can become the leader while the lease is valid. Every request whose
+ * reply was sent before a read arrived has been proposed by this leader or
+ * decided in an earlier view, so it lies below the next instance id of the
+ * log; a follower may decide and execute an instance before the leader learns
+ * the decision, hence the first uncommitted instance would not do. A read is
+ * thus executed once all instances below the next id are executed. The leader
+ * answers reads only once it decided all instances of the previous views.
+ *
+ * All methods except {@link #getReadIndex()} must be called from the Protocol
+ * thread.
+ */
+public class LeaseManager {
+
+    private final Paxos paxos;
+    private final Storage storage;
+    private final Network network;
+    private final long leaseDurationNs;
+    private final long leaderLeaseDurationNs;
+
+    /* Leader role: latest returned timestamp per replica, for leaseView */
+    private final long[] grants;
+    private int grantsView = -1;
+
+    /* Leader role: the lease, valid till leaseExpiry in leaseView */
+    private volatile int leaseView = -1;
+    private volatile long leaseExpiry = 0;
+    /* Leader role: reads are allowed once this instance is decided */
+    private volatile int preparedView = -1;
+    private volatile int preparedNextId = Integer.MAX_VALUE;
+
+    /* Follower role: promised not to join a view above promiseView */
+    private int promiseView = -1;
+    private long promiseExpiry = 0;
+
+    LeaseManager(Paxos paxos, Storage storage, Network network) {
+        this.paxos = paxos;
+        this.storage = storage;
+        this.network = network;
+        leaseDurationNs = TimeUnit.MILLISECONDS.toNanos(processDescriptor.leaseDuration);
+        leaderLeaseDurationNs = (long) (leaseDurationNs * (1 - processDescriptor.leaseClockDrift));
+        grants = new long[processDescriptor.numReplicas];
+    }
+
+    /** Starts sending lease requests periodically (when being the leader) */
+    void start() {
+        long interval = Math.max(1, processDescriptor.leaseDuration / 4);
+        paxos.getDispatcher().scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                requestLease();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void requestLease() {
+        if (!paxos.isLeader() || !paxos.isActive())
+            return;
+        network.sendToOthers(new Lease(storage.getView(), System.nanoTime()));
+    }
+
+    /** Called once this process prepared the view */
+    void viewPrepared(int nextInstanceId) {
+        preparedNextId = nextInstanceId;
+        preparedView = storage.getView();
+    }
+
+    void onLease(Lease message, int sender) {
+        assert paxos.getDispatcher().amIInDispatcher();
+        assert message.getView() == storage.getView();
+
+        if (!paxos.isLeader()) {
+            if (sender != paxos.getLeaderId())
+                return;
+            promiseView = message.getView();
+            promiseExpiry = System.nanoTime() + leaseDurationNs;
+            network.sendMessage(message, sender);
+            return;
+        }
+
+        if (grantsView != message.getView()) {
+            Arrays.fill(grants, Long.MIN_VALUE);
+            grantsView = message.getView();
+        }
+        grants[sender] = Math.max(grants[sender], message.getTimestamp());
+
+        // find the latest timestamp returned by a quorum; the leader grants
+        // itself the lease for any timestamp
+        long[] sorted = grants.clone();
+        sorted[processDescriptor.localId] = Long.MIN_VALUE;
+        Arrays.sort(sorted);
+        long grantedSince = Long.MIN_VALUE;
+        BitSet granted = new BitSet(grants.length);
+        for (int i = sorted.length - 1; i >= 0 && sorted[i] != Long.MIN_VALUE; --i) {
+            granted.clear();
+            granted.set(processDescriptor.localId);
+            for (int r = 0; r < grants.length; ++r)
+                if (r != processDescriptor.localId && grants[r] >= sorted[i])
+                    granted.set(r);
+            if (processDescriptor.isPhase2Quorum(granted)) {
+                grantedSince = sorted[i];
+                break;
+            }
+        }
+        if (grantedSince == Long.MIN_VALUE)
+            return;
+
+        long expiry = grantedSince + leaderLeaseDurationNs;
+        if (leaseView != grantsView) {
+            // set the expiry first, as readers check the view afterwards
+            leaseExpiry = expiry;
+            leaseView = grantsView;
+            logger.info("Lease obtained in view {}", leaseView);
+        } else if (expiry - leaseExpiry > 0) {
+            leaseExpiry = expiry;
+        }
+    }
+
+    /**
+     * Returns for how long (in ns) this process must not join the given view
+     * due to the lease it granted, or 0 if it may join the view right away.
+     */
+    long getPromiseRemaining(int view) {
+        if (view <= promiseView)
+            return 0;
+        return Math.max(0, promiseExpiry - System.nanoTime());
+    }
+
+    /**
+     * If the lease is valid, returns the id of the instance such that a read
+     * arriving now may be executed once all lower instances are executed:
+     * the next id of the log, as every instance proposed so far may have been
+     * decided and answered by some other replica. Otherwise returns -1.
+     *
+     * May be called from any thread.
+     */
+    public int getReadIndex() {
+        int view = storage.getView();
+        if (leaseView != view || preparedView != view || !paxos.isLeader())
+            return -1;
+        if (System.nanoTime() - leaseExpiry >= 0)
+            return -1;
+        if (storage.getFirstUncommitted() < preparedNextId)
+            // instances of previous views are not decided yet
+            return -1;
+        return storage.getLog().getNextId();
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(LeaseManager.class);
+}
@@ -3,8 +3,8 @@ package lsr.paxos.core;
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
-import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -14,28 +14,39 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import lsr.common.BoundedPool;
 import lsr.common.CrashModel;
 import lsr.common.KillOnExceptionHandler;
 import lsr.common.RequestType;
 import lsr.common.SingleThreadDispatcher;
 import lsr.paxos.ActiveFailureDetector;
+import lsr.paxos.BatchCompressor;
 import lsr.paxos.Batcher;
+import lsr.paxos.BatchingController;
 import lsr.paxos.FailureDetector;
 import lsr.paxos.NewPassiveBatcher;
 import lsr.paxos.Snapshot;
 import lsr.paxos.core.Proposer.ProposerState;
 import lsr.paxos.messages.Accept;
+import lsr.paxos.messages.AcceptRange;
 import lsr.paxos.messages.Alive;
+import lsr.paxos.messages.Commit;
+import lsr.paxos.messages.Delegate;
+import lsr.paxos.messages.Lease;
 import lsr.paxos.messages.Message;
 import lsr.paxos.messages.MessageType;
 import lsr.paxos.messages.Prepare;
 import lsr.paxos.messages.PrepareOK;
 import lsr.paxos.messages.Propose;
+import lsr.paxos.messages.Skip;
+import lsr.paxos.messages.ValueFetch;
+import lsr.paxos.messages.ValueFetchReply;
 import lsr.paxos.network.GenericNetwork;
 import lsr.paxos.network.MessageHandler;
 import lsr.paxos.network.MulticastNetwork;
 import lsr.paxos.network.Network;
 import lsr.paxos.network.NioNetwork;
+import lsr.paxos.network.PooledBuffer;
 import lsr.paxos.network.TcpInterreplicaNioNetwork;
 import lsr.paxos.network.TcpNetwork;
 import lsr.paxos.network.UdpNetwork;
@@ -63,6 +74,8 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
     private final ProposerImpl proposer;
     private final Acceptor acceptor;
     private final Learner learner;
+    /** null unless leader leases are enabled */
+    private final LeaseManager leaseManager;
     private DecideCallback decideCallback;
 
     /**
@@ -84,6 +97,8 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
      */
 
     private final SingleThreadDispatcher dispatcher;
+    /// events of received messages, reused to avoid allocation
+    private final BoundedPool<MessageEvent> messageEvents = new BoundedPool<MessageEvent>(256);
     private final Storage storage;
 
     // Can be a udp, tcp or generic network.
@@ -112,7 +127,7 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
             throws IOException {
         this.storage = storage;
 
-        this.dispatcher = new SingleThreadDispatcher("Protocol");
+        this.dispatcher = SingleThreadDispatcher.create("Protocol");
 
         UdpNetwork udpNetwork = null;
 
@@ -156,6 +171,8 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                 processDescriptor.crashModel);
         acceptor = new Acceptor(this, this.storage, network);
         learner = new Learner(this, this.storage);
+        leaseManager = processDescriptor.leaderLease
+                ? new LeaseManager(this, this.storage, network) : null;
 
         batcher = new NewPassiveBatcher(this, replica);
 
@@ -191,6 +208,8 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                 batcher.start();
                 proposer.start();
                 failureDetector.start(storage.getView());
+                if (leaseManager != null)
+                    leaseManager.start();
 
                 active = true;
 
@@ -217,6 +236,20 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         Network.addMessageListener(MessageType.Prepare, handler);
         Network.addMessageListener(MessageType.PrepareOK, handler);
         Network.addMessageListener(MessageType.Accept, handler);
+        if (processDescriptor.leaderCentricPhase2)
+            Network.addMessageListener(MessageType.Commit, handler);
+        if (processDescriptor.acceptRanges)
+            Network.addMessageListener(MessageType.AcceptRange, handler);
+        if (processDescriptor.leaderLease)
+            Network.addMessageListener(MessageType.Lease, handler);
+        if (processDescriptor.prepareOKDigests) {
+            Network.addMessageListener(MessageType.ValueFetch, handler);
+            Network.addMessageListener(MessageType.ValueFetchReply, handler);
+        }
+        if (processDescriptor.multiLeader) {
+            Network.addMessageListener(MessageType.Delegate, handler);
+            Network.addMessageListener(MessageType.Skip, handler);
+        }
     }
 
     /**
@@ -235,11 +268,20 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         batcher.enqueueClientRequest(request, cBatcher);
     }
 
+    /**
+     * Adds a serialized request straight to the batch under construction; see
+     * {@link Batcher#enqueueClientRequest(ByteBuffer)}
+     */
+    public boolean enqueueRequest(ByteBuffer request) {
+        // called by one of the Selector threads.
+        return batcher.enqueueClientRequest(request);
+    }
+
     public Batcher getBatcher() {
         return batcher;
     }
 
-    public byte[] requestBatch() {
+    public PooledBuffer requestBatch() {
         return batcher.requestBatch();
     }
 
@@ -247,6 +289,23 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         assert dispatcher.amIInDispatcher() : "Incorrect thread: " + Thread.currentThread();
         assert proposer.getState() == ProposerState.INACTIVE : "Already in proposer role.";
 
+        if (leaseManager != null) {
+            long promise = leaseManager.getPromiseRemaining(storage.getView() + 1);
+            if (promise > 0) {
+                // this process granted a lease to the current leader
+                final int view = storage.getView();
+                logger.info("Postponing proposer start by {} ns due to a lease", promise);
+                dispatcher.schedule(new Runnable() {
+                    public void run() {
+                        if (view == storage.getView() &&
+                            proposer.getState() == ProposerState.INACTIVE)
+                            startProposer();
+                    }
+                }, promise, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+
         proposer.prepareNextView();
     }
 
@@ -260,6 +319,17 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         return processDescriptor.isLocalProcessLeader(storage.getView());
     }
 
+    /**
+     * Does this process propose client requests? Apart from the leader, in
+     * the multi-leader mode also the replicas that own instances in the
+     * current view do.
+     * 
+     * @return <code>true</code> if client requests may be enqueued locally
+     */
+    public boolean isProposer() {
+        return isLeader() || proposer.isOwner();
+    }
+
     /**
      * Gets the id of the replica which is currently the leader.
      * 
@@ -300,12 +370,14 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
 
         storage.updateFirstUncommitted();
 
-        if (isLeader()) {
+        if (isProposer()) {
             proposer.stopPropose(instanceId);
+            if (processDescriptor.leaderCentricPhase2)
+                proposer.scheduleCommit();
             proposer.ballotFinished();
         } else {
             // not leader. Should we start the catch-up?
-            if (ci.getId() > storage.getFirstUncommitted() + processDescriptor.windowSize) {
+            if (ci.getId() > storage.getFirstUncommitted() + storage.getWindowSize()) {
                 // The last uncommitted value was already decided, since
                 // the decision just reached is outside the ordering window
                 // So start catch-up.
@@ -337,7 +409,7 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                     (newView % processDescriptor.numReplicas));
         }
 
-        if (isLeader()) {
+        if (isProposer()) {
             batcher.suspendBatcher();
             proposer.stopProposer();
             if (processDescriptor.redirectClientsFromLeader && requestManager != null) {
@@ -383,9 +455,14 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         public void onMessageReceived(Message msg, int sender) {
             logger.debug("Msg rcv by Paxos class: {}", msg);
 
-            MessageEvent event = new MessageEvent(msg, sender);
-            Future<?> f = dispatcher.submit(event);
-            logger.trace("Msg dispatched to Paxos class: {} as {}", msg, f);
+            MessageEvent event = messageEvents.poll();
+            if (event == null)
+                event = new MessageEvent();
+            event.msg = msg;
+            event.sender = sender;
+            // the message may be recycled from now on
+            dispatcher.execute(event);
+            logger.trace("Msg dispatched to Paxos class from {}", sender);
         }
 
         public void onMessageSent(Message message, BitSet destinations) {
@@ -393,16 +470,25 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         }
     }
 
+    /**
+     * Handles a received message on the Protocol thread. The message handlers
+     * do not keep the messages, so flyweight messages are recycled afterwards.
+     */
     private final class MessageEvent implements Runnable {
-        private final Message msg;
-        private final int sender;
+        private Message msg;
+        private int sender;
 
-        public MessageEvent(Message msg, int sender) {
-            this.msg = msg;
-            this.sender = sender;
+        public void run() {
+            try {
+                handle();
+            } finally {
+                msg.recycle();
+                msg = null;
+                messageEvents.offer(this);
+            }
         }
 
-        public void run() {
+        private void handle() {
             try {
                 logger.trace("MessageEvent for {} handled by Paxos", msg);
 
@@ -427,6 +513,9 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                     advanceView(msg.getView());
                 }
 
+                if (processDescriptor.multiLeader)
+                    proposer.heardFrom(sender);
+
                 switch (msg.getType()) {
                     case Prepare:
                         acceptor.onPrepare((Prepare) msg, sender);
@@ -440,21 +529,61 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                         }
                         break;
 
+                    case ValueFetch:
+                        acceptor.onValueFetch((ValueFetch) msg, sender);
+                        break;
+
+                    case ValueFetchReply:
+                        if (proposer.getState() == ProposerState.INACTIVE) {
+                            logger.debug("Not in proposer role. Ignoring message {}", msg);
+                        } else {
+                            proposer.onValueFetchReply((ValueFetchReply) msg, sender);
+                        }
+                        break;
+
                     case Propose:
                         acceptor.onPropose((Propose) msg, sender);
                         int highestExpectedInst = storage.getFirstUncommitted() +
-                                                  processDescriptor.windowSize;
+                                                  storage.getWindowSize();
                         highestExpectedInst += processDescriptor.cuWSViolationAllowance;
                         if (((Propose) msg).getInstanceId() > highestExpectedInst) {
                             activateCatchup();
                         }
+                        if (processDescriptor.multiLeader)
+                            proposer.onForeignPropose(((Propose) msg).getInstanceId());
+                        break;
+
+                    case Delegate:
+                        proposer.onDelegate((Delegate) msg, sender);
+                        break;
+
+                    case Skip:
+                        acceptor.onSkip((Skip) msg, sender);
+                        if (((Skip) msg).getOwner() == processDescriptor.localId)
+                            proposer.onSkipAccepted((Skip) msg, sender);
                         break;
 
                     case Accept:
                         learner.onAccept((Accept) msg, sender);
                         break;
 
+                    case Commit:
+                        learner.onCommit((Commit) msg, sender);
+                        break;
+
+                    case AcceptRange:
+                        learner.onAcceptRange((AcceptRange) msg, sender);
+                        break;
+
+                    case Lease:
+                        leaseManager.onLease((Lease) msg, sender);
+                        break;
+
                     case Alive:
+                        // repeats the last Commit, which might have been lost
+                        if (processDescriptor.leaderCentricPhase2 && !isLeader() &&
+                            msg.getView() == storage.getView())
+                            learner.onCommitPoint(msg.getView(), ((Alive) msg).getCommitPoint());
                         if (!isLeader() && checkIfCatchUpNeeded(((Alive) msg).getLogNextId())) {
                             activateCatchup();
                         }
@@ -487,7 +616,7 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
 
             // We check if all ballots outside the window finished
             int i = storage.getFirstUncommitted();
-            for (; i < log.getNextId() - processDescriptor.windowSize; i++) {
+            for (; i < log.getNextId() - storage.getWindowSize(); i++) {
                 if (log.getInstance(i) != null &&
                     log.getInstance(i).getState() != LogEntryState.DECIDED) {
                     return true;
@@ -528,8 +657,15 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
         return proposer;
     }
 
+    /** Returns the leader lease manager, or null if leases are disabled */
+    public LeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
     public void onViewPrepared(int nextInstanceId) {
         batcher.resumeBatcher(nextInstanceId);
+        if (leaseManager != null)
+            leaseManager.viewPrepared(nextInstanceId);
         if (processDescriptor.redirectClientsFromLeader && requestManager != null) {
             requestManager.setFendOffClients(true);
         }
@@ -554,10 +690,13 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
 
     /**
      * Runs a separate thread that dumps every 100ms the number of decided
-     * instances
+     * instances, and every second the decisions and statistics of batching
      */
     public void reportDPS() {
         final long SAMPLING_MS = 100l;
+        final int BATCHING_EVERY = 10;
+        final BatchingController controller = ((NewPassiveBatcher) batcher).getBatchingController();
+        final BatchCompressor compressor = ((NewPassiveBatcher) batcher).getBatchCompressor();
         new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
             boolean startled = false;
 
@@ -577,6 +716,7 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
             }
         }).scheduleAtFixedRate(new Runnable() {
             private int firstUncommited_prev = storage.getFirstUncommitted();
+            private int samples = 0;
             private long lastSeenTime;
             {
                 lastSeenTime = System.currentTimeMillis();
@@ -597,6 +737,19 @@ public class Paxos implements FailureDetector.FailureDetectorListener {
                     logger.warn(processDescriptor.logMark_Benchmark2019, "DPS {}",
                             (firstUncommited_now - firstUncommited_prev) * (1000.0 / elapsed));
 
+                if (++samples % BATCHING_EVERY == 0 &&
+                    logger.isWarnEnabled(processDescriptor.logMark_Benchmark2019))
+                    logger.warn(processDescriptor.logMark_Benchmark2019,
+                            "BATCHING size {} B delay {} us decide {} ms lag {} ms window {} " +
+                                    "adjustments {} batches {} mean {} B compressed {} saved {} B",
+                            controller.getBatchSize(), controller.getBatchDelayUs(),
+                            String.format("%.3f", controller.getDecideLatencyMs()),
+                            String.format("%.3f", controller.getExecutionLagMs()),
+                            String.format("%.2f", controller.getWindowOccupancy()),
+                            controller.getAdjustmentCount(), controller.getBatchCount(),
+                            String.format("%.0f", controller.getMeanBatchBytes()),
+                            compressor.getCompressedBatches(), compressor.getSavedBytes());
+
                 firstUncommited_prev = firstUncommited_now;
                 lastSeenTime += elapsed;
                 lastSeenTime -= lastSeenTime % SAMPLING_MS;
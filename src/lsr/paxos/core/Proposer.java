@@ -3,6 +3,8 @@ package lsr.paxos.core;
 import java.lang.annotation.Native;
 
 import lsr.paxos.messages.PrepareOK;
+import lsr.paxos.messages.ValueFetchReply;
+import lsr.paxos.network.PooledBuffer;
 
 public interface Proposer {
 
@@ -27,7 +29,11 @@ public interface Proposer {
 
     public void onPrepareOK(PrepareOK msg, int sender);
 
-    public void propose(byte[] value);
+    /** Handles values requested after PrepareOKs carrying digests */
+    public void onValueFetchReply(ValueFetchReply msg, int sender);
+
+    /** Proposes a batch as returned by lsr.paxos.Batcher#requestBatch() */
+    public void propose(PooledBuffer batch);
 
     public void prepareNextView();
 
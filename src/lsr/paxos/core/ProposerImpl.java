@@ -3,9 +3,11 @@ package lsr.paxos.core;
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
@@ -18,10 +20,15 @@ import lsr.paxos.PrepareRetransmitter;
 import lsr.paxos.PrepareRetransmitterImpl;
 import lsr.paxos.RetransmittedMessage;
 import lsr.paxos.UnBatcher;
+import lsr.paxos.messages.Commit;
+import lsr.paxos.messages.Delegate;
 import lsr.paxos.messages.Prepare;
 import lsr.paxos.messages.PrepareOK;
 import lsr.paxos.messages.Propose;
+import lsr.paxos.messages.Skip;
+import lsr.paxos.messages.ValueFetchReply;
 import lsr.paxos.network.Network;
+import lsr.paxos.network.PooledBuffer;
 import lsr.paxos.replica.storage.ReplicaStorage;
 import lsr.paxos.storage.ConsensusInstance;
 import lsr.paxos.storage.ConsensusInstance.LogEntryState;
@@ -45,9 +52,43 @@ public class ProposerImpl implements Proposer {
     /** Keeps track of the processes that have prepared for this view */
     private final ActiveRetransmitter retransmitter;
     private final Paxos paxos;
+    private final Network network;
     private final Storage storage;
     private final ReplicaStorage replicaStorage;
 
+    /** Sets the number of concurrently proposed instances */
+    private final WindowController windowController;
+
+    /** Chooses Propose recipients in thrifty mode; null if not thrifty */
+    private final ThriftyQuorum thriftyQuorum;
+
+    /** Fetches values missing after phase 1; null unless PrepareOKDigests */
+    private final ValueFetcher valueFetcher;
+
+    /** Leader-centric phase 2: upToInstance of the last Commit sent */
+    private int lastCommitSent = -1;
+    /** Leader-centric phase 2: true iff commitSender is enqueued */
+    private boolean commitScheduled = false;
+
+    /** Multi-leader mode: instances of the proposers in the view, or null */
+    private volatile SlotOwnership ownership = null;
+    /** Multi-leader mode: the next own instance to propose in */
+    private int nextOwnSlot = -1;
+    /** Multi-leader mode: own instances below this one are to be skipped */
+    private int skipUpTo = -1;
+    /** Multi-leader mode: true iff skipSender is enqueued */
+    private boolean skipScheduled = false;
+    /** Multi-leader mode: retransmitted Skip messages, by first instance */
+    private final Map<Integer, RetransmittedMessage> skipRetransmitters = new HashMap<Integer, RetransmittedMessage>();
+    /** Multi-leader mode, leader role: the Delegate of the current view */
+    private RetransmittedMessage delegateRetransmitter = null;
+    /** Multi-leader mode: owners that stalled the execution with no messages since */
+    private final BitSet suspectedOwners = new BitSet();
+    /** Multi-leader mode: first uncommitted instance upon the last stall check */
+    private int lastStallCheck = -1;
+    /** Multi-leader mode: number of checks the current stall has lasted */
+    private int stallChecks = 0;
+
     /** Tasks to be executed once the proposer prepares */
     final HashSet<OnLeaderElectionResultTask> tasksOnPrepared = new HashSet<OnLeaderElectionResultTask>();
 
@@ -67,8 +108,18 @@ public class ProposerImpl implements Proposer {
                         ReplicaStorage replicaStorage,
                         CrashModel crashModel) {
         this.paxos = paxos;
+        this.network = network;
         this.storage = storage;
         this.replicaStorage = replicaStorage;
+        this.windowController = new WindowController(storage);
+        if (processDescriptor.thriftyPhase2 && processDescriptor.numReplicas > 2)
+            thriftyQuorum = new ThriftyQuorum();
+        else
+            thriftyQuorum = null;
+        if (processDescriptor.prepareOKDigests)
+            valueFetcher = new ValueFetcher(paxos, storage, network);
+        else
+            valueFetcher = null;
         retransmitter = new ActiveRetransmitter(network, "ProposerRetransmitter");
 
         if (crashModel == CrashModel.EpochSS) {
@@ -80,6 +131,13 @@ public class ProposerImpl implements Proposer {
 
     public void start() {
         retransmitter.init();
+        if (processDescriptor.multiLeader)
+            paxos.getDispatcher().scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    checkStall();
+                }
+            }, processDescriptor.fdSuspectTimeout, processDescriptor.fdSuspectTimeout,
+                    TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -105,6 +163,7 @@ public class ProposerImpl implements Proposer {
     public void prepareNextView() {
         assert paxos.getDispatcher().amIInDispatcher();
 
+        stopOwning();
         setState(ProposerState.PREPARING);
         setNextViewNumber();
         paxos.getBatcher().suspendBatcher();
@@ -120,6 +179,9 @@ public class ProposerImpl implements Proposer {
         if (batcherTask != null)
             executeOnPrepared(batcherTask);
 
+        if (valueFetcher != null)
+            valueFetcher.reset();
+
         Prepare prepare = new Prepare(storage.getView(), storage.getFirstUncommitted());
         prepareRetransmitter.startTransmitting(prepare, Network.OTHERS);
 
@@ -179,7 +241,12 @@ public class ProposerImpl implements Proposer {
             return;
         }
 
-        updateLogFromPrepareOk(message);
+        if (valueFetcher != null && valueFetcher.isFetching()) {
+            logger.debug("View {} fetching values. Ignoring message.", storage.getView());
+            return;
+        }
+
+        updateLogFromPrepareOk(message, sender);
         prepareRetransmitter.update(message, sender);
 
         if (prepareRetransmitter.isMajority()) {
@@ -192,14 +259,37 @@ public class ProposerImpl implements Proposer {
 
         logger.debug("Majority of PrepareOK gathered.");
 
+        if (valueFetcher != null && valueFetcher.fetchMissing(new Runnable() {
+            public void run() {
+                doPrepareThisView();
+            }
+        }, new Runnable() {
+            public void run() {
+                // the holders of some value are gone; let a new quorum tell
+                prepareNextView();
+            }
+        }))
+            return;
+
         doPrepareThisView();
     }
 
+    public void onValueFetchReply(ValueFetchReply message, int sender) {
+        assert paxos.getDispatcher().amIInDispatcher();
+        assert message.getView() == storage.getView();
+
+        if (valueFetcher == null || getState() != ProposerState.PREPARING)
+            return;
+        valueFetcher.onValueFetchReply(message, sender);
+    }
+
     /**
      * Called when all PrepareOK and all batch values arrived
      */
     private void doPrepareThisView() {
         setState(ProposerState.PREPARED);
+        windowController.viewPrepared();
+        lastCommitSent = -1;
 
         if (logger.isDebugEnabled(processDescriptor.logMark_Benchmark2019))
             logger.debug(processDescriptor.logMark_Benchmark2019, "PREP {}", storage.getView());
@@ -244,6 +334,9 @@ public class ProposerImpl implements Proposer {
             }
         }
 
+        if (processDescriptor.multiLeader)
+            startDelegating(log.getNextId());
+
         paxos.onViewPrepared(log.getNextId());
 
         for (OnLeaderElectionResultTask task : tasksOnPrepared) {
@@ -274,13 +367,242 @@ public class ProposerImpl implements Proposer {
     }
 
     private void fillWithNoOperation(ConsensusInstance instance) {
+        instance.updateStateFromPropose(processDescriptor.localId, storage.getView(),
+                noOperation());
+        continueProposal(instance);
+    }
+
+    /** Returns the value of a no-op instance, i.e., an empty batch */
+    static byte[] noOperation() {
         ByteBuffer bb = ByteBuffer.allocate(4);
         bb.putInt(0); // Size of batch
-        instance.updateStateFromPropose(processDescriptor.localId, storage.getView(), bb.array());
-        continueProposal(instance);
+        return bb.array();
+    }
+
+    /**
+     * Multi-leader mode: assigns the instances from the given one on to the
+     * replicas that are not suspected, including this one, and tells the
+     * others about it.
+     */
+    private void startDelegating(int firstInstance) {
+        suspectedOwners.clear(processDescriptor.localId);
+        int[] owners = new int[processDescriptor.numReplicas - suspectedOwners.cardinality()];
+        for (int i = 0, j = 0; i < processDescriptor.numReplicas; ++i)
+            if (!suspectedOwners.get(i))
+                owners[j++] = i;
+
+        ownership = new SlotOwnership(storage.getView(), firstInstance, owners);
+        nextOwnSlot = ownership.nextSlot(processDescriptor.localId, firstInstance);
+        skipUpTo = -1;
+        logger.info(processDescriptor.logMark_Benchmark, "Delegating: {}", ownership);
+
+        delegateRetransmitter = retransmitter.startTransmitting(
+                new Delegate(storage.getView(), firstInstance, owners));
+    }
+
+    /**
+     * Multi-leader mode: takes the instances assigned by the leader of the
+     * view, or notes that the replica got them (if this process is the leader).
+     */
+    public void onDelegate(Delegate message, int sender) {
+        assert paxos.getDispatcher().amIInDispatcher();
+        assert message.getView() == storage.getView();
+
+        if (paxos.isLeader()) {
+            // the replica returns the message as an acknowledgement
+            if (delegateRetransmitter != null)
+                delegateRetransmitter.stop(sender);
+            return;
+        }
+
+        if (ownership == null || ownership.getView() != message.getView()) {
+            ownership = new SlotOwnership(message.getView(), message.getFirstInstance(),
+                    message.getOwners());
+            logger.info(processDescriptor.logMark_Benchmark, "Delegated: {}", ownership);
+            if (isOwner()) {
+                nextOwnSlot = ownership.nextSlot(processDescriptor.localId,
+                        message.getFirstInstance());
+                skipUpTo = -1;
+                paxos.getBatcher().resumeBatcher(nextOwnSlot);
+            }
+        }
+
+        network.sendMessage(message, sender);
+    }
+
+    /**
+     * Multi-leader mode: tells if this process owns instances in the current
+     * view. Thread-safe.
+     */
+    public boolean isOwner() {
+        SlotOwnership currentOwnership = ownership;
+        return currentOwnership != null && currentOwnership.isOwner(processDescriptor.localId);
+    }
+
+    private boolean canPropose() {
+        return getState() == ProposerState.PREPARED || isOwner();
+    }
+
+    /**
+     * Multi-leader mode: called upon a Propose from another replica. The own
+     * instances below the proposed one will not get any value sooner than
+     * the proposed one, so they are skipped.
+     */
+    public void onForeignPropose(int instanceId) {
+        assert paxos.getDispatcher().amIInDispatcher();
+        if (!isOwner() || instanceId <= nextOwnSlot)
+            return;
+        skipUpTo = Math.max(skipUpTo, instanceId);
+        // the Skip is sent after the messages already queued, covering the
+        // instances they indicate too
+        if (!skipScheduled) {
+            skipScheduled = true;
+            paxos.getDispatcher().execute(skipSender);
+        }
+    }
+
+    private final Runnable skipSender = new Runnable() {
+        public void run() {
+            skipScheduled = false;
+            if (isOwner())
+                skipOwnSlots();
+        }
+    };
+
+    private void skipOwnSlots() {
+        int step = ownership.getStep();
+        int count = (skipUpTo - nextOwnSlot + step - 1) / step;
+        if (count <= 0)
+            return;
+
+        Skip skip = new Skip(storage.getView(), processDescriptor.localId, nextOwnSlot, step,
+                count);
+        nextOwnSlot += count * step;
+        logger.debug("Skipping {}", skip);
+
+        Log log = storage.getLog();
+        for (int i = 0, id = skip.getFirstInstance(); i < count; ++i, id += step) {
+            ConsensusInstance instance = log.getInstance(id);
+            if (instance.updateStateFromPropose(processDescriptor.localId, skip.getView(),
+                    noOperation()))
+                paxos.decide(id);
+        }
+
+        skipRetransmitters.put(skip.getFirstInstance(), retransmitter.startTransmitting(skip));
+    }
+
+    /**
+     * Multi-leader mode: the replica accepted the no-ops from the Skip sent by
+     * this process.
+     */
+    public void onSkipAccepted(Skip message, int sender) {
+        assert paxos.getDispatcher().amIInDispatcher();
+        RetransmittedMessage msg = skipRetransmitters.get(message.getFirstInstance());
+        if (msg == null)
+            return;
+        msg.stop(sender);
+
+        ConsensusInstance last = storage.getLog().getInstance(message.getLastInstance());
+        if (last == null || last.getState() == LogEntryState.DECIDED) {
+            skipRetransmitters.remove(message.getFirstInstance());
+            msg.stop();
+        }
+    }
+
+    /** Multi-leader mode: any message from the replica revokes the suspicion */
+    public void heardFrom(int sender) {
+        suspectedOwners.clear(sender);
     }
 
-    private void updateLogFromPrepareOk(PrepareOK message) {
+    /**
+     * Multi-leader mode: if the execution waits for an instance whose owner
+     * sent no value, starts a new view in which the owner gets no instances.
+     * A crashed leader of the view is detected by the failure detector instead.
+     * 
+     * All replicas detect the stall at about the same time. To avoid dueling
+     * view changes, only the replica leading the next view (skipping the
+     * owner) starts it at once; every further replica in the view order waits
+     * one more check, in case the preceding ones have crashed as well.
+     */
+    private void checkStall() {
+        int firstUncommitted = storage.getFirstUncommitted();
+        int previousCheck = lastStallCheck;
+        lastStallCheck = firstUncommitted;
+        int checks = stallChecks;
+        stallChecks = 0;
+
+        SlotOwnership currentOwnership = ownership;
+        if (currentOwnership == null || currentOwnership.getView() != storage.getView() ||
+            getState() == ProposerState.PREPARING)
+            return;
+        if (firstUncommitted != previousCheck || firstUncommitted >= storage.getLog().getNextId())
+            return;
+
+        ConsensusInstance instance = storage.getLog().getInstance(firstUncommitted);
+        if (instance == null || instance.getState() == LogEntryState.DECIDED ||
+            instance.getState() == LogEntryState.KNOWN)
+            return;
+
+        int owner = currentOwnership.getOwner(firstUncommitted);
+        if (owner == processDescriptor.localId) {
+            onForeignPropose(storage.getLog().getNextId());
+            return;
+        }
+        if (owner == processDescriptor.getLeaderOfView(currentOwnership.getView()))
+            return;
+
+        suspectedOwners.set(owner);
+        int turn = viewChangeTurn(owner);
+        if (checks < turn) {
+            stallChecks = checks + 1;
+            logger.debug("Instance {} of {} stalls the execution; {} replicas precede in " +
+                         "starting a new view", firstUncommitted, owner, turn - checks);
+            return;
+        }
+
+        logger.warn(processDescriptor.logMark_Benchmark,
+                "Instance {} of {} stalls the execution, starting a new view", firstUncommitted,
+                owner);
+        stopProposer();
+        prepareNextView();
+    }
+
+    /**
+     * Multi-leader mode: returns the number of replicas leading the views
+     * between the current one and the next view of the local replica, except
+     * for the given one.
+     */
+    private int viewChangeTurn(int skipped) {
+        int turn = 0;
+        for (int view = storage.getView() + 1; !processDescriptor.isLocalProcessLeader(view); ++view)
+            if (processDescriptor.getLeaderOfView(view) != skipped)
+                turn++;
+        return turn;
+    }
+
+    /** Multi-leader mode: forgets the instances of the view */
+    private void stopOwning() {
+        if (ownership == null)
+            return;
+        ownership = null;
+        for (RetransmittedMessage msg : skipRetransmitters.values())
+            msg.stop();
+        skipRetransmitters.clear();
+        if (delegateRetransmitter != null) {
+            delegateRetransmitter.stop();
+            delegateRetransmitter = null;
+        }
+        // Proposes of an owner that is not the leader of the view
+        for (RetransmittedMessage msg : proposeRetransmitters.values())
+            msg.stop();
+        proposeRetransmitters.clear();
+    }
+
+    private void updateLogFromPrepareOk(PrepareOK message, int sender) {
+        if (valueFetcher != null) {
+            valueFetcher.onDigests(message.getDigests(), sender);
+        }
+
         if (message.getPrepared() == null) {
             return;
         }
@@ -348,7 +670,7 @@ public class ProposerImpl implements Proposer {
         if (overdecisionInhibitedProposal.getAndSet(false)) {
             paxos.getDispatcher().submit(new Runnable() {
                 public void run() {
-                    if (getState() == ProposerState.PREPARED) {
+                    if (canPropose()) {
                         logger.debug("An instance executed, attempting to propose");
                         proposeNext();
                     }
@@ -360,7 +682,8 @@ public class ProposerImpl implements Proposer {
     public void proposeNext() {
         logger.debug("Proposing.");
         while (true) {
-            if (storage.isWindowFull()) {
+            if (isOwner() ? !storage.isInWindow(nextOwnSlot) : storage.isWindowFull()) {
+                windowController.windowFull();
                 logger.trace("Window full - not proposing");
                 return;
             }
@@ -380,7 +703,7 @@ public class ProposerImpl implements Proposer {
                 return;
             }
 
-            byte[] proposal = paxos.requestBatch();
+            PooledBuffer proposal = paxos.requestBatch();
             if (proposal == null)
                 return;
 
@@ -394,37 +717,64 @@ public class ProposerImpl implements Proposer {
      * available slots. If the proposer is <code>INACTIVE</code>, then message
      * is discarded. Otherwise value is added to list of active proposals.
      * 
-     * @param value - the value to propose
+     * @param batch - the batch to propose, preceded by room for the rest of
+     *            the Propose message
      * @throws InterruptedException
      */
-    public void propose(byte[] value) {
+    public void propose(PooledBuffer batch) {
         assert paxos.getDispatcher().amIInDispatcher();
-        if (getState() != ProposerState.PREPARED) {
+        if (!canPropose()) {
             /*
              * This can happen if there is a Propose event queued on the
              * Dispatcher when the view changes.
              */
             logger.warn("Cannot propose in INACTIVE or PREPARING state. Discarding batch");
+            batch.release();
             return;
         }
 
-        logger.info(processDescriptor.logMark_OldBenchmark, "Proposing: {}",
-                storage.getLog().getNextId());
+        ConsensusInstance instance;
+        if (isOwner()) {
+            instance = storage.getLog().getInstance(nextOwnSlot);
+            nextOwnSlot = ownership.nextSlot(processDescriptor.localId, nextOwnSlot + 1);
+        } else {
+            instance = storage.getLog().append();
+        }
 
-        ConsensusInstance instance = storage.getLog().append();
+        logger.info(processDescriptor.logMark_OldBenchmark, "Proposing: {}", instance.getId());
 
-        Propose proposeMsg = new Propose(storage.getView(), instance.getId(), value);
+        // the message is framed around the batch, which is not copied
+        Propose proposeMsg = new Propose(storage.getView(), instance.getId(), batch);
 
+        // piggyback the decisions so far before the Propose leaves
+        if (processDescriptor.leaderCentricPhase2)
+            sendCommit();
+
+        // the log gets the value from the packed message, sent later on
         boolean isMajority = instance.updateStateFromPropose(processDescriptor.localId,
-                proposeMsg.getView(), proposeMsg.getValue());
+                proposeMsg.getView(), proposeMsg.getValueBuffer());
 
         if (isMajority) {
-            logger.warn("Either you use one replica only (what for?) or something is very wrong.");
+            if (processDescriptor.phase2QuorumSize > 1)
+                logger.warn("Either you use one replica only (what for?) or something is very wrong.");
             paxos.decide(instance.getId());
         }
 
-        RetransmittedMessage msg = retransmitter.startTransmitting(proposeMsg);
+        RetransmittedMessage msg;
+        if (thriftyQuorum == null) {
+            BitSet destinations = proposeDestinations();
+            if (destinations == null)
+                msg = retransmitter.startTransmitting(proposeMsg);
+            else
+                msg = retransmitter.startTransmitting(proposeMsg, destinations);
+        } else {
+            BitSet quorum = thriftyQuorum.selectQuorum(instance.getId());
+            msg = retransmitter.startTransmitting(proposeMsg, quorum);
+            if (!thriftyQuorum.isToAll(quorum))
+                scheduleWidening(proposeMsg, quorum);
+        }
         proposeRetransmitters.put(instance.getId(), msg);
+        windowController.instanceProposed(instance.getId());
 
         if (logger.isTraceEnabled(processDescriptor.logMark_Benchmark2019nope))
             logger.trace(processDescriptor.logMark_Benchmark2019nope, "IP {} {}",
@@ -432,6 +782,90 @@ public class ProposerImpl implements Proposer {
 
     }
 
+    /**
+     * Leaves out the replicas whose send queues are full: such a replica lags
+     * behind and is going to catch up, rather than have the proposals queued
+     * for it. The others are left out only if they still form a quorum with
+     * this replica, so that a single slow replica does not slow down the rest.
+     * 
+     * @return the replicas to propose to, or null for all
+     */
+    private BitSet proposeDestinations() {
+        BitSet destinations = null;
+        for (int i = 0; i < processDescriptor.numReplicas; ++i) {
+            if (i == processDescriptor.localId || !network.isCongested(i))
+                continue;
+            if (destinations == null)
+                destinations = (BitSet) Network.OTHERS.clone();
+            destinations.clear(i);
+        }
+        if (destinations == null)
+            return null;
+
+        BitSet quorum = (BitSet) destinations.clone();
+        quorum.set(processDescriptor.localId);
+        if (!processDescriptor.isPhase2Quorum(quorum)) {
+            logger.debug("Without the lagging replicas there is no quorum; proposing to all");
+            return null;
+        }
+        logger.debug("Leaving out lagging replicas, proposing to {}", destinations);
+        return destinations;
+    }
+
+    /**
+     * Leader-centric phase 2: makes sure that a Commit message is sent once
+     * the messages already queued for the dispatcher are handled. This way
+     * decisions caused by a burst of Accepts are announced in a single Commit,
+     * unless a Propose carries them earlier.
+     */
+    public void scheduleCommit() {
+        assert paxos.getDispatcher().amIInDispatcher();
+        if (commitScheduled)
+            return;
+        commitScheduled = true;
+        paxos.getDispatcher().execute(commitSender);
+    }
+
+    private final Runnable commitSender = new Runnable() {
+        public void run() {
+            commitScheduled = false;
+            if (getState() == ProposerState.PREPARED)
+                sendCommit();
+        }
+    };
+
+    private void sendCommit() {
+        int upTo = storage.getFirstUncommitted();
+        if (upTo <= lastCommitSent)
+            return;
+        lastCommitSent = upTo;
+        network.sendToOthers(new Commit(storage.getView(), upTo));
+    }
+
+    /**
+     * Thrifty mode: if the quorum the proposal was sent to does not answer in
+     * time, sends the proposal also to the remaining replicas.
+     */
+    private void scheduleWidening(final Propose proposeMsg, final BitSet quorum) {
+        final long timeout = thriftyQuorum.getWidenTimeout(quorum);
+        paxos.getDispatcher().schedule(new Runnable() {
+            public void run() {
+                int instanceId = proposeMsg.getInstanceId();
+                RetransmittedMessage msg = proposeRetransmitters.get(instanceId);
+                // decided or no longer the leader of the view
+                if (msg == null || proposeMsg.getView() != storage.getView())
+                    return;
+
+                BitSet rest = thriftyQuorum.onWiden(instanceId, quorum, timeout);
+                logger.debug("Quorum for {} did not answer in {} us, sending to {}",
+                        instanceId, timeout, rest);
+                for (int i = rest.nextSetBit(0); i >= 0; i = rest.nextSetBit(i + 1))
+                    msg.start(i);
+                network.sendMessage(proposeMsg, rest);
+            }
+        }, timeout, TimeUnit.MICROSECONDS);
+    }
+
     /**
      * Called to inform the proposer that a decision was taken. Allows the
      * proposer to make a new proposal.
@@ -440,7 +874,7 @@ public class ProposerImpl implements Proposer {
         assert paxos.getDispatcher().amIInDispatcher();
 
         // Needed - decide (triggering this method) is i.a. called by PrepareOK
-        if (getState() == ProposerState.PREPARED) {
+        if (canPropose()) {
             proposeNext();
         }
     }
@@ -488,9 +922,13 @@ public class ProposerImpl implements Proposer {
     public void stopProposer() {
         assert paxos.getDispatcher().amIInDispatcher();
         setState(ProposerState.INACTIVE);
+        windowController.stopped();
         // TODO: STOP ACCEPTING
         prepareRetransmitter.stop();
+        if (valueFetcher != null)
+            valueFetcher.reset();
         retransmitter.stopAll();
+        stopOwning();
         proposeRetransmitters.clear();
         for (OnLeaderElectionResultTask task : tasksOnPrepared) {
             task.onFailedToPrepare();
@@ -510,6 +948,7 @@ public class ProposerImpl implements Proposer {
         RetransmittedMessage r = proposeRetransmitters.remove(instanceId);
         if (r != null) {
             r.stop();
+            windowController.instanceDecided(instanceId);
         }
     }
 
@@ -522,10 +961,23 @@ public class ProposerImpl implements Proposer {
      * @param destination number of the process in processes PID list
      */
     public void stopPropose(int instanceId, int destination) {
-        assert proposeRetransmitters.containsKey(instanceId);
         assert paxos.getDispatcher().amIInDispatcher();
 
-        proposeRetransmitters.get(instanceId).stop(destination);
+        RetransmittedMessage r = proposeRetransmitters.get(instanceId);
+        if (r == null) {
+            // in the multi-leader mode, other replicas propose too
+            assert processDescriptor.multiLeader : instanceId;
+            return;
+        }
+
+        if (thriftyQuorum != null)
+            thriftyQuorum.onAccept(instanceId, destination);
+        r.stop(destination);
+    }
+
+    /** Gives access to the current window size and its adjustments */
+    public WindowController getWindowController() {
+        return windowController;
     }
 
     private final static Logger logger = LoggerFactory.getLogger(ProposerImpl.class);
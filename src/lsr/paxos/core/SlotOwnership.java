@@ -0,0 +1,82 @@
+package lsr.paxos.core;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.Arrays;
+
+/**
+ * Assignment of consensus instances to proposers in the multi-leader mode (see
+ * MultiLeader). In a view, instances below {@link #getFirstInstance()} belong
+ * to the leader of the view, and the following instances are assigned
+ * round-robin to the owners: instance <code>firstInstance + i</code> belongs to
+ * <code>owners[i % owners.length]</code>.
+ *
+ * Only the owner proposes a value in an instance. An owner that has nothing to
+ * propose in its instance while others propose in higher ones proposes a
+ * no-op instead (with a <code>Skip</code> message), so that the execution in
+ * the order of instances is not delayed.
+ *
+ * Immutable.
+ */
+final class SlotOwnership {
+    private final int view;
+    private final int firstInstance;
+    private final int[] owners;
+    /** position of each replica in owners, or -1 */
+    private final int[] positions;
+
+    SlotOwnership(int view, int firstInstance, int[] owners) {
+        this.view = view;
+        this.firstInstance = firstInstance;
+        this.owners = owners;
+        positions = new int[processDescriptor.numReplicas];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < owners.length; ++i)
+            positions[owners[i]] = i;
+    }
+
+    int getView() {
+        return view;
+    }
+
+    int getFirstInstance() {
+        return firstInstance;
+    }
+
+    int[] getOwners() {
+        return owners;
+    }
+
+    /** Distance between consecutive instances of an owner */
+    int getStep() {
+        return owners.length;
+    }
+
+    boolean isOwner(int replica) {
+        return positions[replica] != -1;
+    }
+
+    int getOwner(int instanceId) {
+        if (instanceId < firstInstance)
+            return processDescriptor.getLeaderOfView(view);
+        return owners[(instanceId - firstInstance) % owners.length];
+    }
+
+    /**
+     * Returns the lowest instance of the given owner that is not lower than
+     * <code>from</code>.
+     */
+    int nextSlot(int replica, int from) {
+        assert isOwner(replica) : replica + " owns no instances in " + this;
+        int first = firstInstance + positions[replica];
+        if (from <= first)
+            return first;
+        int step = owners.length;
+        return first + (from - first + step - 1) / step * step;
+    }
+
+    public String toString() {
+        return "SlotOwnership(view=" + view + ", from=" + firstInstance + ", owners=" +
+               Arrays.toString(owners) + ")";
+    }
+}
@@ -0,0 +1,129 @@
+package lsr.paxos.core;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import lsr.common.MovingAverage;
+import lsr.common.QuorumSystem;
+import lsr.paxos.network.Network;
+
+/**
+ * Chooses the replicas that get a Propose in the thrifty mode, i.e., when the
+ * leader sends the Propose only to the fastest phase 2 quorum (by default, a
+ * majority) instead of to all. With grid quorums, the quorum is the grid row of
+ * the leader.
+ *
+ * The choice is based on the moving average of time from sending a Propose to
+ * receiving an Accept from each peer. Every {@link #PROBE_INTERVAL}-th
+ * proposal is sent to all peers so that latencies of peers outside the quorum
+ * stay up to date. If a peer from the quorum does not answer before the widen
+ * timeout, the proposal is sent to the remaining peers and the peer is
+ * penalised.
+ *
+ * Accessed by the Protocol thread only.
+ */
+class ThriftyQuorum {
+
+    /** Every this many proposals a proposal goes to all to measure latencies */
+    private static final int PROBE_INTERVAL = 64;
+    /** Widen timeout is the slowest quorum member latency times this */
+    private static final double WIDEN_FACTOR = 2;
+    /** Lower bound on the widen timeout, in microseconds */
+    private static final long MIN_WIDEN_TIMEOUT_US = 500;
+
+    /** Accept latency per peer, in microseconds */
+    private final MovingAverage[] latency;
+
+    /* Pending quorum members and send times, indexed by instanceId % length */
+    private final int[] sentIds;
+    private final long[] sentTimes;
+    private final BitSet[] pending;
+
+    private final Integer[] peers;
+    private int proposals = 0;
+
+    ThriftyQuorum() {
+        int n = processDescriptor.numReplicas;
+        latency = new MovingAverage[n];
+        for (int i = 0; i < n; ++i)
+            latency[i] = new MovingAverage(0.2, 0);
+
+        peers = new Integer[n - 1];
+        for (int i = 0, j = 0; i < n; ++i)
+            if (i != processDescriptor.localId)
+                peers[j++] = i;
+
+        int slots = 2 * processDescriptor.windowSizeMax;
+        sentIds = new int[slots];
+        Arrays.fill(sentIds, -1);
+        sentTimes = new long[slots];
+        pending = new BitSet[slots];
+        for (int i = 0; i < slots; ++i)
+            pending[i] = new BitSet(n);
+    }
+
+    /** Returns the replicas the proposal for given instance should be sent to */
+    BitSet selectQuorum(int instanceId) {
+        BitSet quorum = new BitSet(processDescriptor.numReplicas);
+        if (++proposals % PROBE_INTERVAL == 0) {
+            quorum.or(Network.OTHERS);
+        } else if (processDescriptor.quorumSystem == QuorumSystem.Grid) {
+            quorum.or(processDescriptor.getGridRow(processDescriptor.localId));
+            quorum.clear(processDescriptor.localId);
+        } else {
+            // the leader votes as well, thus quorum-1 peers suffice
+            Arrays.sort(peers, (a, b) -> Double.compare(latency[a].get(), latency[b].get()));
+            for (int i = 0; i < processDescriptor.phase2QuorumSize - 1; ++i)
+                quorum.set(peers[i]);
+        }
+
+        int slot = instanceId % sentIds.length;
+        sentIds[slot] = instanceId;
+        sentTimes[slot] = System.nanoTime();
+        pending[slot].clear();
+        pending[slot].or(quorum);
+        return quorum;
+    }
+
+    boolean isToAll(BitSet quorum) {
+        return quorum.cardinality() == processDescriptor.numReplicas - 1;
+    }
+
+    /** How long to wait for the quorum before sending to all, in microseconds */
+    long getWidenTimeout(BitSet quorum) {
+        double slowest = 0;
+        for (int i = quorum.nextSetBit(0); i >= 0; i = quorum.nextSetBit(i + 1))
+            slowest = Math.max(slowest, latency[i].get());
+        long timeout = (long) (slowest * WIDEN_FACTOR);
+        return Math.max(MIN_WIDEN_TIMEOUT_US,
+                Math.min(timeout, processDescriptor.retransmitTimeout * 1000));
+    }
+
+    void onAccept(int instanceId, int sender) {
+        int slot = instanceId % sentIds.length;
+        if (sentIds[slot] != instanceId)
+            return;
+        if (!pending[slot].get(sender))
+            return;
+        pending[slot].clear(sender);
+        latency[sender].add((System.nanoTime() - sentTimes[slot]) / 1000.0);
+    }
+
+    /**
+     * Called when the quorum did not answer in time. Penalises the peers that
+     * did not answer and returns the peers the propose was not sent to.
+     */
+    BitSet onWiden(int instanceId, BitSet quorum, long timeoutUs) {
+        int slot = instanceId % sentIds.length;
+        if (sentIds[slot] == instanceId) {
+            BitSet late = pending[slot];
+            for (int i = late.nextSetBit(0); i >= 0; i = late.nextSetBit(i + 1))
+                latency[i].add(timeoutUs * WIDEN_FACTOR);
+        }
+        BitSet rest = (BitSet) Network.OTHERS.clone();
+        rest.andNot(quorum);
+        return rest;
+    }
+}
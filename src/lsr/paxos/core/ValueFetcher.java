@@ -0,0 +1,236 @@
+package lsr.paxos.core;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.paxos.messages.ValueFetch;
+import lsr.paxos.messages.ValueFetchReply;
+import lsr.paxos.network.Network;
+import lsr.paxos.storage.ConsensusInstance;
+import lsr.paxos.storage.ConsensusInstance.LogEntryState;
+import lsr.paxos.storage.InstanceDigest;
+import lsr.paxos.storage.Storage;
+
+/**
+ * Leader side of the view change with digests in PrepareOK (see
+ * PrepareOKDigests). Collects the digests from the PrepareOK messages and
+ * chooses for each instance the value to re-propose, as the classic view
+ * change would: a decided value if any, otherwise the value voted for in the
+ * highest view.
+ *
+ * Once a phase 1 quorum answered, the values the leader does not hold (i.e.
+ * its own last vote is from a lower view) are requested with ValueFetch
+ * messages. The requests are spread among all replicas that reported the
+ * value and are repeated, asking the next such replica, until the value
+ * arrives. If a value did not arrive after each of its holders has been asked
+ * once, the holders might have crashed; the fetch is then abandoned and the
+ * leader starts phase 1 anew, so that the digests of a new quorum choose the
+ * value.
+ *
+ * Accessed by the Protocol thread only.
+ */
+class ValueFetcher {
+
+    /** The value chosen for an instance, and the replicas holding it */
+    private static final class Candidate {
+        InstanceDigest digest;
+        boolean decided;
+        final BitSet holders = new BitSet();
+        /** used to choose the next holder upon retransmission */
+        int first = 0;
+        int attempt = 0;
+
+        Candidate(InstanceDigest digest, int holder) {
+            this.digest = digest;
+            this.decided = digest.getState() == LogEntryState.DECIDED;
+            holders.set(holder);
+        }
+    }
+
+    private final Paxos paxos;
+    private final Storage storage;
+    private final Network network;
+
+    /** Instances with a value newer than the local one, by id */
+    private final Map<Integer, Candidate> candidates = new HashMap<Integer, Candidate>();
+    /** Instances whose values were requested and did not arrive yet */
+    private final Map<Integer, Candidate> missing = new HashMap<Integer, Candidate>();
+    private Runnable onFetched = null;
+    private Runnable onFailed = null;
+    private ScheduledFuture<?> retransmission = null;
+    private int fetches = 0;
+
+    ValueFetcher(Paxos paxos, Storage storage, Network network) {
+        this.paxos = paxos;
+        this.storage = storage;
+        this.network = network;
+    }
+
+    /** Forgets everything; called when a view starts or is abandoned */
+    void reset() {
+        candidates.clear();
+        missing.clear();
+        onFetched = null;
+        onFailed = null;
+        if (retransmission != null) {
+            retransmission.cancel(false);
+            retransmission = null;
+        }
+    }
+
+    boolean isFetching() {
+        return onFetched != null;
+    }
+
+    /** Updates the chosen values with the digests from a PrepareOK */
+    void onDigests(InstanceDigest[] digests, int sender) {
+        for (InstanceDigest d : digests) {
+            if (d.getState() == LogEntryState.UNKNOWN)
+                continue;
+
+            ConsensusInstance local = storage.getLog().getInstance(d.getId());
+            // Happens if previous PrepareOK caused a snapshot execution
+            if (local == null || local.getState() == LogEntryState.DECIDED)
+                continue;
+
+            if (local.getState() != LogEntryState.UNKNOWN &&
+                local.getLastVotedView() >= d.getLastVotedView()) {
+                // the local value is at least as recent, so it is the same as
+                // any value decided in the reported view or below
+                if (d.getState() == LogEntryState.DECIDED) {
+                    candidates.remove(d.getId());
+                    local.updateStateFromDecision(local.getLastVotedView(), local.getValue());
+                    paxos.decide(d.getId());
+                }
+                continue;
+            }
+
+            Candidate c = candidates.get(d.getId());
+            if (c == null) {
+                candidates.put(d.getId(), new Candidate(d, sender));
+            } else if (d.getState() == LogEntryState.DECIDED && !c.decided ||
+                       !c.decided && d.getLastVotedView() > c.digest.getLastVotedView()) {
+                c.digest = d;
+                c.decided = d.getState() == LogEntryState.DECIDED;
+                c.holders.clear();
+                c.holders.set(sender);
+            } else if (c.digest.sameValue(d)) {
+                c.holders.set(sender);
+            }
+        }
+    }
+
+    /**
+     * Requests the values chosen for instances that the local process does not
+     * hold. Returns false if there is nothing to fetch; otherwise onFetched is
+     * run once all values arrived, or onFailed once some value could not be
+     * fetched from any of its holders.
+     */
+    boolean fetchMissing(Runnable onFetched, Runnable onFailed) {
+        assert !isFetching();
+        for (Map.Entry<Integer, Candidate> e : candidates.entrySet()) {
+            ConsensusInstance local = storage.getLog().getInstance(e.getKey());
+            if (local != null && local.getState() != LogEntryState.DECIDED) {
+                // spread the instances over the holders
+                e.getValue().first = fetches++;
+                missing.put(e.getKey(), e.getValue());
+            }
+        }
+        candidates.clear();
+        if (missing.isEmpty())
+            return false;
+
+        logger.info("Fetching values of {} instances", missing.size());
+        this.onFetched = onFetched;
+        this.onFailed = onFailed;
+        sendFetches();
+        return true;
+    }
+
+    private void sendFetches() {
+        Map<Integer, List<Integer>> requests = new HashMap<Integer, List<Integer>>();
+        for (Map.Entry<Integer, Candidate> e : missing.entrySet()) {
+            Candidate c = e.getValue();
+            if (c.attempt >= c.holders.cardinality()) {
+                logger.warn("Value of instance {} not fetched from any of {}, preparing anew",
+                        e.getKey(), c.holders);
+                Runnable task = onFailed;
+                reset();
+                task.run();
+                return;
+            }
+            // move on to the next holder upon each retransmission
+            int skip = (c.first + c.attempt++) % c.holders.cardinality();
+            int holder = c.holders.nextSetBit(0);
+            for (int i = 0; i < skip; ++i)
+                holder = c.holders.nextSetBit(holder + 1);
+            List<Integer> ids = requests.get(holder);
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                requests.put(holder, ids);
+            }
+            ids.add(e.getKey());
+        }
+
+        for (Map.Entry<Integer, List<Integer>> request : requests.entrySet()) {
+            int[] ids = new int[request.getValue().size()];
+            for (int i = 0; i < ids.length; ++i)
+                ids[i] = request.getValue().get(i);
+            network.sendMessage(new ValueFetch(storage.getView(), ids), request.getKey());
+        }
+
+        retransmission = paxos.getDispatcher().schedule(new Runnable() {
+            public void run() {
+                retransmission = null;
+                if (isFetching())
+                    sendFetches();
+            }
+        }, processDescriptor.retransmitTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    void onValueFetchReply(ValueFetchReply message, int sender) {
+        if (!isFetching())
+            return;
+
+        for (ConsensusInstance ci : message.getInstances()) {
+            Candidate c = missing.get(ci.getId());
+            if (c == null)
+                continue;
+            if (!c.digest.matches(ci.getValue())) {
+                logger.warn("Value of instance {} from {} does not match digest {}", ci.getId(),
+                        sender, c.digest);
+                continue;
+            }
+            missing.remove(ci.getId());
+
+            ConsensusInstance local = storage.getLog().getInstance(ci.getId());
+            if (local == null || local.getState() == LogEntryState.DECIDED)
+                continue;
+            if (c.decided) {
+                local.updateStateFromDecision(c.digest.getLastVotedView(), ci.getValue());
+                paxos.decide(ci.getId());
+            } else {
+                local.updateStateFromPropose(processDescriptor.localId,
+                        c.digest.getLastVotedView(), ci.getValue());
+            }
+        }
+
+        if (missing.isEmpty()) {
+            Runnable task = onFetched;
+            reset();
+            task.run();
+        }
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(ValueFetcher.class);
+}
@@ -0,0 +1,199 @@
+package lsr.paxos.core;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.paxos.storage.Storage;
+
+/**
+ * Sets the number of concurrently proposed instances (the window) basing on
+ * the measured propose-to-decide latency and decide throughput.
+ *
+ * The controller follows the bandwidth-delay product idea: the window needed
+ * to keep the pipeline full equals the decide rate times the latency of an
+ * instance on an empty pipeline (minimum latency). If instances wait for the
+ * window and the latency is close to the minimum, there is room for more
+ * instances and the window grows. If the latency grows well above the minimum,
+ * instances only queue up and the window shrinks towards the BDP. The window
+ * always stays within [WindowSizeMin, WindowSizeMax].
+ *
+ * Measurements are reset upon each view prepared by this process. When the
+ * process is not the leader, the window is set to WindowSizeMax, as a
+ * follower must tolerate any window the leader might use.
+ *
+ * All methods except getters must be called from the Protocol thread.
+ */
+public class WindowController {
+
+    /** How much larger than the minimum the latency may be with no queuing */
+    private static final double QUEUING_TOLERANCE = 1.5;
+    /** The window is set to BDP times this factor when shrinking */
+    private static final double BDP_GAIN = 1.25;
+    /** After this time the minimum latency is measured anew, in ns */
+    private static final long MIN_LATENCY_VALIDITY = 10_000_000_000L;
+
+    private final Storage storage;
+    private final boolean adaptive;
+    private final long adjustIntervalNs;
+
+    /* propose times of instances in flight, indexed by instanceId % length */
+    private final int[] proposedIds;
+    private final long[] proposedTimes;
+
+    private volatile int window;
+
+    /* Statistics of the current sampling period */
+    private long periodStart;
+    private int periodDecided;
+    private long periodLatencySum;
+    private long periodMinLatency;
+    private boolean periodWindowFull;
+
+    private long minLatency;
+    private long minLatencyTimestamp;
+
+    /* Values exposed for monitoring */
+    private volatile double lastLatencyMs = 0;
+    private volatile double lastDecideRate = 0;
+    private volatile long adjustmentCount = 0;
+
+    public WindowController(Storage storage) {
+        this.storage = storage;
+        adaptive = processDescriptor.windowSizeAdaptive;
+        adjustIntervalNs = processDescriptor.windowAdjustInterval * 1_000_000L;
+
+        proposedIds = new int[2 * processDescriptor.windowSizeMax];
+        proposedTimes = new long[proposedIds.length];
+
+        window = processDescriptor.windowSizeMax;
+        storage.setWindowSize(window);
+    }
+
+    /** Called once this process prepared a view; restarts the measurements */
+    public void viewPrepared() {
+        window = processDescriptor.windowSize;
+        storage.setWindowSize(window);
+
+        Arrays.fill(proposedIds, -1);
+        minLatency = Long.MAX_VALUE;
+        minLatencyTimestamp = System.nanoTime();
+        startPeriod(minLatencyTimestamp);
+    }
+
+    /** Called once this process stops being the leader */
+    public void stopped() {
+        window = processDescriptor.windowSizeMax;
+        storage.setWindowSize(window);
+    }
+
+    /** Called when the proposer could not propose due to the full window */
+    public void windowFull() {
+        periodWindowFull = true;
+    }
+
+    public void instanceProposed(int instanceId) {
+        if (!adaptive)
+            return;
+        int slot = instanceId % proposedIds.length;
+        proposedIds[slot] = instanceId;
+        proposedTimes[slot] = System.nanoTime();
+    }
+
+    public void instanceDecided(int instanceId) {
+        if (!adaptive)
+            return;
+        int slot = instanceId % proposedIds.length;
+        if (proposedIds[slot] != instanceId)
+            // proposed in an older view or the slot got reused
+            return;
+        proposedIds[slot] = -1;
+
+        long now = System.nanoTime();
+        long latency = now - proposedTimes[slot];
+        periodDecided++;
+        periodLatencySum += latency;
+        periodMinLatency = Math.min(periodMinLatency, latency);
+
+        if (now - periodStart >= adjustIntervalNs)
+            adjust(now);
+    }
+
+    private void startPeriod(long now) {
+        periodStart = now;
+        periodDecided = 0;
+        periodLatencySum = 0;
+        periodMinLatency = Long.MAX_VALUE;
+        periodWindowFull = false;
+    }
+
+    private void adjust(long now) {
+        if (now - minLatencyTimestamp > MIN_LATENCY_VALIDITY) {
+            // the minimum might have grown since (e.g. larger requests)
+            minLatency = periodMinLatency;
+            minLatencyTimestamp = now;
+        } else if (periodMinLatency < minLatency) {
+            minLatency = periodMinLatency;
+            minLatencyTimestamp = now;
+        }
+
+        double avgLatency = (double) periodLatencySum / periodDecided;
+        double decideRate = periodDecided * 1e9 / (now - periodStart);
+        double bdp = decideRate * minLatency / 1e9;
+
+        lastLatencyMs = avgLatency / 1e6;
+        lastDecideRate = decideRate;
+
+        int newWindow = window;
+        if (avgLatency <= minLatency * QUEUING_TOLERANCE) {
+            // no queuing - if the window limited proposing, probe for more
+            if (periodWindowFull)
+                newWindow = window + Math.max(1, window / 4);
+        } else {
+            // instances queue up - shrink, but not below the BDP
+            int target = (int) Math.ceil(bdp * BDP_GAIN);
+            if (target < window)
+                newWindow = Math.max(target, window - Math.max(1, window / 4));
+        }
+        newWindow = Math.max(processDescriptor.windowSizeMin,
+                Math.min(processDescriptor.windowSizeMax, newWindow));
+
+        if (newWindow != window) {
+            adjustmentCount++;
+            logger.info(processDescriptor.logMark_Benchmark,
+                    "Window {} -> {} (latency {} ms, min {} ms, {} inst/s, BDP {})", window,
+                    newWindow, String.format("%.3f", avgLatency / 1e6),
+                    String.format("%.3f", minLatency / 1e6), String.format("%.1f", decideRate),
+                    String.format("%.2f", bdp));
+            window = newWindow;
+            storage.setWindowSize(newWindow);
+        }
+
+        startPeriod(now);
+    }
+
+    /** Current effective window */
+    public int getWindowSize() {
+        return window;
+    }
+
+    /** Number of window changes so far */
+    public long getAdjustmentCount() {
+        return adjustmentCount;
+    }
+
+    /** Mean propose-to-decide latency in the last sampling period */
+    public double getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    /** Decided instances per second in the last sampling period */
+    public double getLastDecideRate() {
+        return lastDecideRate;
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(WindowController.class);
+}
@@ -10,7 +10,7 @@ import java.nio.ByteBuffer;
  */
 public class Accept extends Message {
     private static final long serialVersionUID = 1L;
-    private final int instanceId;
+    private int instanceId;
 
     /**
      * Creates new <code>Accept</code> message as a response to
@@ -53,6 +53,17 @@ public class Accept extends Message {
         instanceId = bb.getInt();
     }
 
+    /** Creates an empty flyweight message; see {@link MessageFactory} */
+    Accept() {
+        super(-1, 0);
+    }
+
+    /** Reads a received message into this flyweight one */
+    void readFrom(ByteBuffer bb) {
+        readHeader(bb);
+        instanceId = bb.getInt();
+    }
+
     /**
      * Returns the instance id.
      * 
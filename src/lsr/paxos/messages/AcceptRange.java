@@ -0,0 +1,96 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>AcceptRange</code> message. It replaces several
+ * <code>Accept</code> messages for the same view, carrying the ids of the
+ * accepted instances as a list of ranges.
+ *
+ * The ranges are stored in an array as consecutive pairs of the first and the
+ * last (inclusive) instance id of each range.
+ */
+public class AcceptRange extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int[] ranges;
+
+    /**
+     * Creates new <code>AcceptRange</code> message.
+     *
+     * @param view - the view number
+     * @param ranges - pairs of the first and last instance id of each range
+     * @param rangeCount - number of ranges (pairs) to take from the array
+     */
+    public AcceptRange(int view, int[] ranges, int rangeCount) {
+        super(view);
+        assert rangeCount > 0;
+        this.ranges = new int[2 * rangeCount];
+        System.arraycopy(ranges, 0, this.ranges, 0, 2 * rangeCount);
+    }
+
+    /**
+     * Creates new <code>AcceptRange</code> message from input stream with
+     * serialized message.
+     *
+     * @param input - input stream with serialized <code>AcceptRange</code>
+     *            message inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public AcceptRange(DataInputStream input) throws IOException {
+        super(input);
+        ranges = new int[2 * input.readInt()];
+        for (int i = 0; i < ranges.length; ++i)
+            ranges[i] = input.readInt();
+    }
+
+    public AcceptRange(ByteBuffer bb) {
+        super(bb);
+        ranges = new int[2 * bb.getInt()];
+        for (int i = 0; i < ranges.length; ++i)
+            ranges[i] = bb.getInt();
+    }
+
+    /** Returns the number of ranges in this message */
+    public int getRangeCount() {
+        return ranges.length / 2;
+    }
+
+    /** Returns the id of the first instance in the i-th range */
+    public int getFirst(int i) {
+        return ranges[2 * i];
+    }
+
+    /** Returns the id of the last instance in the i-th range (inclusive) */
+    public int getLast(int i) {
+        return ranges[2 * i + 1];
+    }
+
+    public MessageType getType() {
+        return MessageType.AcceptRange;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4 + 4 * ranges.length;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AcceptRange(");
+        sb.append(super.toString()).append(", i:");
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (i != 0)
+                sb.append(',');
+            sb.append(ranges[i]);
+            if (ranges[i + 1] != ranges[i])
+                sb.append('-').append(ranges[i + 1]);
+        }
+        return sb.append(")").toString();
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(ranges.length / 2);
+        for (int i = 0; i < ranges.length; ++i)
+            bb.putInt(ranges[i]);
+    }
+}
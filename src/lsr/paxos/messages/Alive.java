@@ -14,15 +14,21 @@ public class Alive extends Message {
      * LogSize is the size of log (the highest started instance ID) of the
      * leader.
      */
-    private final int logNextId;
+    private int logNextId;
+    /**
+     * The first instance not decided by the leader; followers in the
+     * leader-centric phase 2 use it in case the last Commit has been lost.
+     */
+    private int commitPoint;
 
     /**
-     * Creates new <code>Alive</code> message with specified view number and
-     * highest instance ID + 1.
+     * Creates new <code>Alive</code> message with specified view number,
+     * highest instance ID + 1 and first undecided instance ID.
      */
-    public Alive(int view, int logNextId) {
+    public Alive(int view, int logNextId, int commitPoint) {
         super(view);
         this.logNextId = logNextId;
+        this.commitPoint = commitPoint;
     }
 
     /**
@@ -35,11 +41,25 @@ public class Alive extends Message {
     public Alive(DataInputStream input) throws IOException {
         super(input);
         logNextId = input.readInt();
+        commitPoint = input.readInt();
     }
 
     public Alive(ByteBuffer bb) {
         super(bb);
         logNextId = bb.getInt();
+        commitPoint = bb.getInt();
+    }
+
+    /** Creates an empty flyweight message; see {@link MessageFactory} */
+    Alive() {
+        super(-1, 0);
+    }
+
+    /** Reads a received message into this flyweight one */
+    void readFrom(ByteBuffer bb) {
+        readHeader(bb);
+        logNextId = bb.getInt();
+        commitPoint = bb.getInt();
     }
 
     /**
@@ -49,19 +69,28 @@ public class Alive extends Message {
         return logNextId;
     }
 
+    /**
+     * Returns the first instance not decided by the sender.
+     */
+    public int getCommitPoint() {
+        return commitPoint;
+    }
+
     public MessageType getType() {
         return MessageType.Alive;
     }
 
     public int byteSize() {
-        return super.byteSize() + 4;
+        return super.byteSize() + 4 + 4;
     }
 
     public String toString() {
-        return "ALIVE (" + super.toString() + ", logsize: " + logNextId + ")";
+        return "ALIVE (" + super.toString() + ", logsize: " + logNextId + ", commit: " +
+               commitPoint + ")";
     }
 
     protected void write(ByteBuffer bb) {
         bb.putInt(logNextId);
+        bb.putInt(commitPoint);
     }
 }
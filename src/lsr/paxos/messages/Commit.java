@@ -0,0 +1,69 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>Commit</code> message, used in the leader-centric phase
+ * 2. The leader of the view sends it once it decides instances, telling the
+ * followers that all instances lower than <code>upToInstance</code> are
+ * decided.
+ */
+public class Commit extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int upToInstance;
+
+    /**
+     * Creates new <code>Commit</code> message.
+     * 
+     * @param view - the view number
+     * @param upToInstance - the first instance that is not known to be decided
+     */
+    public Commit(int view, int upToInstance) {
+        super(view);
+        this.upToInstance = upToInstance;
+    }
+
+    /**
+     * Creates new <code>Commit</code> message from input stream with serialized
+     * message.
+     * 
+     * @param input - input stream with serialized <code>Commit</code> message
+     *            inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public Commit(DataInputStream input) throws IOException {
+        super(input);
+        upToInstance = input.readInt();
+    }
+
+    public Commit(ByteBuffer bb) {
+        super(bb);
+        upToInstance = bb.getInt();
+    }
+
+    /**
+     * Returns the id of the first instance that this message does not declare
+     * decided.
+     */
+    public int getUpToInstance() {
+        return upToInstance;
+    }
+
+    public MessageType getType() {
+        return MessageType.Commit;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4;
+    }
+
+    public String toString() {
+        return "Commit(" + super.toString() + ", upTo:" + getUpToInstance() + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(upToInstance);
+    }
+}
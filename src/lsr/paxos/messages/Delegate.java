@@ -0,0 +1,84 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Represents the <code>Delegate</code> message. In the multi-leader mode, the
+ * leader sends it once it prepared the view; it assigns the instances starting
+ * from <code>firstInstance</code> round-robin to the replicas listed in
+ * <code>owners</code>. Each replica returns the message to the leader as an
+ * acknowledgement.
+ */
+public class Delegate extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int firstInstance;
+    private final int[] owners;
+
+    /**
+     * Creates new <code>Delegate</code> message.
+     *
+     * @param view - the view number
+     * @param firstInstance - the first instance assigned to the owners
+     * @param owners - ids of replicas in the order of their instances
+     */
+    public Delegate(int view, int firstInstance, int[] owners) {
+        super(view);
+        this.firstInstance = firstInstance;
+        this.owners = owners;
+    }
+
+    /**
+     * Creates new <code>Delegate</code> message from input stream with
+     * serialized message.
+     *
+     * @param input - input stream with serialized <code>Delegate</code>
+     *            message inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public Delegate(DataInputStream input) throws IOException {
+        super(input);
+        firstInstance = input.readInt();
+        owners = new int[input.readInt()];
+        for (int i = 0; i < owners.length; ++i)
+            owners[i] = input.readInt();
+    }
+
+    public Delegate(ByteBuffer bb) {
+        super(bb);
+        firstInstance = bb.getInt();
+        owners = new int[bb.getInt()];
+        for (int i = 0; i < owners.length; ++i)
+            owners[i] = bb.getInt();
+    }
+
+    public int getFirstInstance() {
+        return firstInstance;
+    }
+
+    public int[] getOwners() {
+        return owners;
+    }
+
+    public MessageType getType() {
+        return MessageType.Delegate;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4 + 4 + 4 * owners.length;
+    }
+
+    public String toString() {
+        return "Delegate(" + super.toString() + ", from:" + firstInstance + ", owners:" +
+               Arrays.toString(owners) + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(firstInstance);
+        bb.putInt(owners.length);
+        for (int i = 0; i < owners.length; ++i)
+            bb.putInt(owners[i]);
+    }
+}
@@ -0,0 +1,66 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>Lease</code> message. The leader sends it to all
+ * replicas to request a lease, and each replica sends it back to the leader
+ * unchanged to grant the lease. The timestamp is taken from the clock of the
+ * leader, so that the leader can compute since when the lease is granted.
+ */
+public class Lease extends Message {
+    private static final long serialVersionUID = 1L;
+    private final long timestamp;
+
+    /**
+     * Creates new <code>Lease</code> message.
+     * 
+     * @param view - the view number
+     * @param timestamp - the time the leader sent the request for the lease
+     */
+    public Lease(int view, long timestamp) {
+        super(view);
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Creates new <code>Lease</code> message from input stream with serialized
+     * message.
+     * 
+     * @param input - input stream with serialized <code>Lease</code> message
+     *            inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public Lease(DataInputStream input) throws IOException {
+        super(input);
+        timestamp = input.readLong();
+    }
+
+    public Lease(ByteBuffer bb) {
+        super(bb);
+        timestamp = bb.getLong();
+    }
+
+    /** Returns the time (on the leader clock) the lease was requested */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public MessageType getType() {
+        return MessageType.Lease;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 8;
+    }
+
+    public String toString() {
+        return "Lease(" + super.toString() + ", ts:" + getTimestamp() + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putLong(timestamp);
+    }
+}
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 
+import lsr.common.BoundedPool;
+import lsr.paxos.network.PooledBuffer;
+
 /**
  * Base class for all messages. Every message requires to know the view number
  * of the sender.
@@ -15,9 +18,14 @@ import java.nio.ByteBuffer;
  */
 public abstract class Message implements Serializable {
     private static final long serialVersionUID = 1L;
-    protected final int view;
+    protected int view;
     protected long sentTime;
 
+    /// pool of a flyweight message (see MessageFactory.Flyweights); else null
+    transient BoundedPool<Message> pool;
+    /// set while a flyweight message waits in its pool
+    transient boolean pooled;
+
     /**
      * Creates message from specified view number and current time.
      * 
@@ -54,6 +62,30 @@ public abstract class Message implements Serializable {
         sentTime = bb.getLong();
     }
 
+    /**
+     * Reads the header of a received message into this flyweight message.
+     * 
+     * @param bb - the buffer with the serialized message, past its type
+     */
+    protected void readHeader(ByteBuffer bb) {
+        view = bb.getInt();
+        sentTime = bb.getLong();
+    }
+
+    /**
+     * Hands a flyweight message (see {@link MessageFactory.Flyweights}) back
+     * for decoding further messages. Called by the last receiver of the
+     * message once done with it; the message must not be used afterwards.
+     * Does nothing for other messages.
+     */
+    public void recycle() {
+        if (pool == null)
+            return;
+        assert !pooled : "Message recycled twice: " + this;
+        pooled = true;
+        pool.offer(this);
+    }
+
     /**
      * Sets the time when the message was sent.
      * 
@@ -117,20 +149,38 @@ public abstract class Message implements Serializable {
         return bb.array();
     }
 
-    public ByteBuffer packMessageToBBWithSize() {
-        ByteBuffer bb = ByteBuffer.allocateDirect(Integer.BYTES + byteSize());
-        bb.putInt(byteSize());
+    /**
+     * Packs the message preceded by its size to a pooled direct buffer. The
+     * caller owns the returned reference and must release it once sent.
+     */
+    public PooledBuffer packMessageToBBWithSize() {
+        int size = byteSize();
+        PooledBuffer pb = PooledBuffer.allocate(Integer.BYTES + size);
+        ByteBuffer bb = pb.buffer();
+        bb.putInt(size);
         writeTo(bb);
         assert !bb.hasRemaining();
         bb.flip();
-        return bb;
+        return pb;
+    }
+
+    /**
+     * Called when the message is not going to be sent any more, e.g. when its
+     * retransmission stops. Frees the buffers kept for sending it, if any.
+     */
+    public void releaseBuffers() {
     }
 
     public final void writeTo(ByteBuffer bb) {
+        writeHeader(bb);
+        write(bb);
+    }
+
+    /** Writes the part of the message common to all types */
+    protected final void writeHeader(ByteBuffer bb) {
         bb.put((byte) getType().ordinal());
         bb.putInt(view);
         bb.putLong(sentTime);
-        write(bb);
     }
 
     /**
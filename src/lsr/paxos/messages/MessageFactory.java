@@ -5,6 +5,8 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import lsr.common.BoundedPool;
+
 /**
  * This class is responsible for serializing and deserializing messages to /
  * from byte array or input stream. The message has to be serialized using
@@ -38,7 +40,7 @@ public final class MessageFactory {
      *             from input
      */
     public static Message create(DataInputStream input) throws IOException {
-        MessageType type = MessageType.values()[input.readUnsignedByte()];
+        MessageType type = MessageType.fromOrdinal(input.readUnsignedByte());
         Message message = createMessage(type, input);
         return message;
     }
@@ -89,22 +91,104 @@ public final class MessageFactory {
             case ForwardedClientRequests:
                 message = new ForwardClientRequests(input);
                 break;
+            case Commit:
+                message = new Commit(input);
+                break;
+            case AcceptRange:
+                message = new AcceptRange(input);
+                break;
+            case Lease:
+                message = new Lease(input);
+                break;
+            case ReadIndexQuery:
+                message = new ReadIndexQuery(input);
+                break;
+            case ReadIndexReply:
+                message = new ReadIndexReply(input);
+                break;
+            case ValueFetch:
+                message = new ValueFetch(input);
+                break;
+            case ValueFetchReply:
+                message = new ValueFetchReply(input);
+                break;
+            case Delegate:
+                message = new Delegate(input);
+                break;
+            case Skip:
+                message = new Skip(input);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown message type: " + type);
         }
         return message;
     }
 
-    @SuppressWarnings("incomplete-switch")
+    /** Number of flyweight messages of each type kept for reuse */
+    private static final int FLYWEIGHT_POOL_SIZE = 64;
+
+    /**
+     * Reusable messages of a single decoding thread.
+     * 
+     * <code>Accept</code> and <code>Alive</code> messages decoded with
+     * flyweights are taken from these pools instead of being allocated. The
+     * receiver that handles such a message last calls {@link Message#recycle()}
+     * once done with it; a receiver that does not know if it is the last one
+     * must not keep the message after returning. As only the thread owning the
+     * flyweights takes messages from them, a message is not overwritten while
+     * the listeners called by that thread still run.
+     */
+    public static final class Flyweights {
+        private final BoundedPool<Message> accepts = new BoundedPool<Message>(FLYWEIGHT_POOL_SIZE);
+        private final BoundedPool<Message> alives = new BoundedPool<Message>(FLYWEIGHT_POOL_SIZE);
+
+        private Accept accept(ByteBuffer bb) {
+            Accept accept = (Accept) accepts.poll();
+            if (accept == null) {
+                accept = new Accept();
+                accept.pool = accepts;
+            }
+            accept.pooled = false;
+            accept.readFrom(bb);
+            return accept;
+        }
+
+        private Alive alive(ByteBuffer bb) {
+            Alive alive = (Alive) alives.poll();
+            if (alive == null) {
+                alive = new Alive();
+                alive.pool = alives;
+            }
+            alive.pooled = false;
+            alive.readFrom(bb);
+            return alive;
+        }
+    }
+
     public static Message create(ByteBuffer bb) {
+        return create(bb, null);
+    }
+
+    /**
+     * Creates a <code>Message</code> from the buffer.
+     * 
+     * @param bb - the buffer with the serialized message
+     * @param flyweights - if not null, <code>Accept</code> and
+     *            <code>Alive</code> messages are reused from the pools of the
+     *            calling thread, and a <code>Propose</code> refers to the value
+     *            within the buffer instead of copying it (see
+     *            {@link Propose#Propose(ByteBuffer, boolean)})
+     */
+    @SuppressWarnings("incomplete-switch")
+    public static Message create(ByteBuffer bb, Flyweights flyweights) {
         byte typeOrd = bb.get();
-        MessageType type = MessageType.values()[typeOrd];
+        MessageType type = MessageType.fromOrdinal(typeOrd);
 
         switch (type) {
             case Accept:
-                return new Accept(bb);
+                return flyweights != null ? flyweights.accept(bb) : new Accept(bb);
             case Alive:
-                return new Alive(bb);
+                return flyweights != null ? flyweights.alive(bb) : new Alive(bb);
             case CatchUpQuery:
                 return new CatchUpQuery(bb);
             case CatchUpResponse:
@@ -118,9 +202,27 @@ public final class MessageFactory {
             case PrepareOK:
                 return new PrepareOK(bb);
             case Propose:
-                return new Propose(bb);
+                return new Propose(bb, flyweights != null);
             case ForwardedClientRequests:
                 return new ForwardClientRequests(bb);
+            case Commit:
+                return new Commit(bb);
+            case AcceptRange:
+                return new AcceptRange(bb);
+            case Lease:
+                return new Lease(bb);
+            case ReadIndexQuery:
+                return new ReadIndexQuery(bb);
+            case ReadIndexReply:
+                return new ReadIndexReply(bb);
+            case ValueFetch:
+                return new ValueFetch(bb);
+            case ValueFetchReply:
+                return new ValueFetchReply(bb);
+            case Delegate:
+                return new Delegate(bb);
+            case Skip:
+                return new Skip(bb);
         }
         throw new IllegalArgumentException("Unknown message type: " + type);
     }
@@ -27,8 +27,31 @@ public enum MessageType {
 
     ForwardedClientRequests,
 
+    Commit,
+
+    AcceptRange,
+
+    Lease,
+
+    ReadIndexQuery,
+    ReadIndexReply,
+
+    ValueFetch,
+    ValueFetchReply,
+
+    Delegate,
+    Skip,
+
     // Special markers used by the network implementation to raise callbacks
     // There are no classes with this messages types
     ANY, // any message
-    SENT // sent messages
+    SENT; // sent messages
+
+    /** values() clones the array upon each call */
+    private static final MessageType[] values = values();
+
+    /** Returns the type of the given ordinal, as written to the wire */
+    public static MessageType fromOrdinal(int ordinal) {
+        return values[ordinal];
+    }
 }
@@ -7,15 +7,18 @@ import java.util.Arrays;
 
 import lsr.paxos.storage.ConsensusInstance;
 import lsr.paxos.storage.InMemoryConsensusInstance;
+import lsr.paxos.storage.InstanceDigest;
 
 /**
  * Represents the response to <code>Prepare</code> message. It contains view
- * number and list of consensus instances. If recovery with epoch vector is
- * used, then epoch vector is also sent.
+ * number and list of consensus instances, or only digests of the instances. If
+ * recovery with epoch vector is used, then epoch vector is also sent.
  */
 public class PrepareOK extends Message {
     private static final long serialVersionUID = 1L;
+    private static final InstanceDigest[] NO_DIGESTS = new InstanceDigest[0];
     private final ConsensusInstance[] prepared;
+    private final InstanceDigest[] digests;
     private final long[] epoch;
 
     /**
@@ -39,6 +42,23 @@ public class PrepareOK extends Message {
         super(view);
         assert epoch != null;
         this.prepared = prepared;
+        this.digests = NO_DIGESTS;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Creates new <code>PrepareOK</code> message carrying digests of the
+     * prepared instances instead of the instances.
+     * 
+     * @param view - sender view number
+     * @param digests - digests of prepared consensus instances
+     * @param epoch - the epoch vector
+     */
+    public PrepareOK(int view, InstanceDigest[] digests, long[] epoch) {
+        super(view);
+        assert epoch != null;
+        this.prepared = new ConsensusInstance[0];
+        this.digests = digests;
         this.epoch = epoch;
     }
 
@@ -54,6 +74,10 @@ public class PrepareOK extends Message {
         for (int i = 0; i < prepared.length; ++i) {
             prepared[i] = new InMemoryConsensusInstance(input);
         }
+        digests = new InstanceDigest[input.readInt()];
+        for (int i = 0; i < digests.length; ++i) {
+            digests[i] = new InstanceDigest(input);
+        }
 
         int epochSize = input.readInt();
         epoch = new long[epochSize];
@@ -68,6 +92,10 @@ public class PrepareOK extends Message {
         for (int i = 0; i < prepared.length; ++i) {
             prepared[i] = new InMemoryConsensusInstance(bb);
         }
+        digests = new InstanceDigest[bb.getInt()];
+        for (int i = 0; i < digests.length; ++i) {
+            digests[i] = new InstanceDigest(bb);
+        }
 
         int epochSize = bb.getInt();
         epoch = new long[epochSize];
@@ -85,6 +113,16 @@ public class PrepareOK extends Message {
         return prepared;
     }
 
+    /**
+     * Returns digests of prepared consensus instances. Empty unless the
+     * instances are sent as digests.
+     * 
+     * @return digests of prepared consensus instances
+     */
+    public InstanceDigest[] getDigests() {
+        return digests;
+    }
+
     /**
      * Returns epoch vector. This value should never be equal to
      * <code>null</code>. If this message doesn't contain epoch vector, then it
@@ -105,6 +143,7 @@ public class PrepareOK extends Message {
         for (ConsensusInstance ci : prepared) {
             size += ci.byteSize();
         }
+        size += 4 + digests.length * InstanceDigest.BYTE_SIZE;
 
         size += epoch.length * 8 + 4;
 
@@ -112,6 +151,9 @@ public class PrepareOK extends Message {
     }
 
     public String toString() {
+        if (digests.length != 0)
+            return "PrepareOK(" + super.toString() + ", digests: " + Arrays.toString(digests) +
+                   ")";
         return "PrepareOK(" + super.toString() + ", values: " + Arrays.toString(getPrepared()) +
                ")";
     }
@@ -121,6 +163,10 @@ public class PrepareOK extends Message {
         for (ConsensusInstance ci : prepared) {
             ci.writeAsLastVoted(bb);
         }
+        bb.putInt(digests.length);
+        for (InstanceDigest digest : digests) {
+            digest.write(bb);
+        }
 
         bb.putInt(epoch.length);
         for (int i = 0; i < epoch.length; ++i) {
@@ -4,6 +4,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import lsr.paxos.network.PooledBuffer;
 import lsr.paxos.storage.ConsensusInstance;
 
 /**
@@ -11,10 +12,35 @@ import lsr.paxos.storage.ConsensusInstance;
  * consensus instance. As every message it contains the view number of sender
  * process and additionally the id of new consensus instance and its value as
  * byte array.
+ * <p>
+ * The message is serialized at most once: the packed message is shared by all
+ * sends and retransmissions until {@link #releaseBuffers()}, and the value
+ * within it is what the proposer writes to its log (see
+ * {@link #getValueBuffer()}). A message received by
+ * TcpInterreplicaNioNetwork refers to the value in the receive buffer instead
+ * of copying it, so that acceptors write it to the log straight from there.
+ * <p>
+ * On the leader, the value is a batch that {@link lsr.paxos.BatchArena} built
+ * with room for the rest of the message in front of it, and the message is
+ * framed around it in place (see {@link #Propose(int, int, PooledBuffer)}).
+ * A request is thus copied once, into the batch, on its way from the client
+ * connection to the log and to the acceptors.
  */
 public class Propose extends Message {
     private static final long serialVersionUID = 1L;
-    private final byte[] value;
+    /** null if the value has been received and not asked for as an array */
+    private byte[] value;
+    /** direct buffer holding the value; null until needed */
+    private transient ByteBuffer valueBuffer = null;
+    /** the message as packed by {@link #packMessageToBBWithSize()} */
+    private transient PooledBuffer packed = null;
+    /** set once the message is not retransmitted any more */
+    private transient boolean buffersReleased = false;
+    /** set if the value is only in the packed message (framed in place) */
+    private transient boolean framed = false;
+    /** the receive buffer holding the value; released upon recycle() */
+    private transient PooledBuffer receivedIn = null;
+    private final int valueLength;
     private final int instanceId;
 
     /**
@@ -30,9 +56,46 @@ public class Propose extends Message {
         assert value != null;
         this.instanceId = instanceId;
         this.value = value;
+        this.valueLength = value.length;
         assert this.value != null;
     }
 
+    /**
+     * Packed message bytes before the value: the size of the message, the
+     * header common to all messages, the instance ID and the value length
+     */
+    public static final int FRAME_HEADER_SIZE = Integer.BYTES + 1 + 4 + 8 + 4 + 4;
+
+    /**
+     * Creates new <code>Propose</code> message framed in place around the
+     * value. The buffer holds FRAME_HEADER_SIZE spare bytes followed by the
+     * value; the rest of the message is written there, and the buffer becomes
+     * the packed message, so that the value is sent without being copied.
+     * The message takes over the reference to the buffer; the value must not
+     * be used after {@link #releaseBuffers()}.
+     * 
+     * @param view - sender view number
+     * @param instanceId - the ID of instance to propose
+     * @param frame - the value preceded by FRAME_HEADER_SIZE spare bytes
+     */
+    public Propose(int view, int instanceId, PooledBuffer frame) {
+        super(view);
+        this.instanceId = instanceId;
+        ByteBuffer bb = frame.buffer();
+        valueLength = bb.remaining() - FRAME_HEADER_SIZE;
+
+        ByteBuffer header = bb.duplicate();
+        header.putInt(byteSize());
+        writeHeader(header);
+        header.putInt(instanceId);
+        header.putInt(valueLength);
+        assert header.position() == bb.position() + FRAME_HEADER_SIZE;
+
+        packed = frame;
+        framed = true;
+        valueBuffer = bb.slice(header.position(), valueLength).asReadOnlyBuffer();
+    }
+
     /**
      * Creates new <code>Propose</code> message from consensus instance. The ID
      * and the value is taken from this object.
@@ -44,6 +107,7 @@ public class Propose extends Message {
         instanceId = instance.getId();
         value = instance.getValue();
         assert value != null;
+        valueLength = value.length;
     }
 
     /**
@@ -58,14 +122,58 @@ public class Propose extends Message {
         instanceId = input.readInt();
         value = new byte[input.readInt()];
         input.readFully(value);
+        valueLength = value.length;
     }
 
     public Propose(ByteBuffer bb) {
+        this(bb, false);
+    }
+
+    /**
+     * Creates new <code>Propose</code> message from the buffer.
+     * 
+     * @param bb - the buffer with serialized message
+     * @param shareBuffer - if true and the buffer is direct, the message refers
+     *            to the value within the buffer instead of copying it; the
+     *            caller must not overwrite the buffer contents afterwards (see
+     *            {@link #holdReceiveBuffer(PooledBuffer)})
+     */
+    public Propose(ByteBuffer bb, boolean shareBuffer) {
         super(bb);
 
         instanceId = bb.getInt();
-        value = new byte[bb.getInt()];
-        bb.get(value);
+        valueLength = bb.getInt();
+        if (shareBuffer && bb.isDirect()) {
+            valueBuffer = bb.slice(bb.position(), valueLength).asReadOnlyBuffer();
+            bb.position(bb.position() + valueLength);
+        } else {
+            value = new byte[valueLength];
+            bb.get(value);
+        }
+    }
+
+    /**
+     * Makes a message referring to the value within the buffer it has been
+     * received in keep a reference to that buffer, released once the message
+     * is recycled. Until then the receiver must not reuse the buffer.
+     */
+    public synchronized void holdReceiveBuffer(PooledBuffer buffer) {
+        assert receivedIn == null && valueBuffer != null && value == null;
+        receivedIn = buffer;
+    }
+
+    /**
+     * Drops the reference to the receive buffer; the value must not be used
+     * afterwards.
+     */
+    @Override
+    public synchronized void recycle() {
+        if (receivedIn != null) {
+            valueBuffer = null;
+            receivedIn.release();
+            receivedIn = null;
+        }
+        super.recycle();
     }
 
     /**
@@ -82,16 +190,67 @@ public class Propose extends Message {
      * 
      * @return value of proposed instance
      */
-    public byte[] getValue() {
+    public synchronized byte[] getValue() {
+        if (value == null) {
+            assert valueBuffer != null : "Value of a framed Propose used after releasing buffers";
+            value = new byte[valueLength];
+            valueBuffer.duplicate().get(value);
+        }
         return value;
     }
 
+    /**
+     * Returns the value of proposed instance in a direct buffer (from its
+     * position to its limit). The buffer is the one the message has been
+     * received in, or otherwise the packed message.
+     * 
+     * @return read-only buffer with the value
+     */
+    public synchronized ByteBuffer getValueBuffer() {
+        if (valueBuffer == null) {
+            if (buffersReleased)
+                return ByteBuffer.wrap(getValue()).asReadOnlyBuffer();
+            packMessageToBBWithSize().release();
+        }
+        return valueBuffer.duplicate();
+    }
+
+    /**
+     * Packs the message once, and then returns the same buffer for every send
+     * until {@link #releaseBuffers()}.
+     */
+    public synchronized PooledBuffer packMessageToBBWithSize() {
+        if (buffersReleased)
+            return super.packMessageToBBWithSize();
+        if (packed == null) {
+            packed = super.packMessageToBBWithSize();
+            if (valueBuffer == null) {
+                ByteBuffer bb = packed.buffer();
+                valueBuffer = bb.slice(bb.limit() - valueLength, valueLength).asReadOnlyBuffer();
+            }
+        }
+        return packed.retain();
+    }
+
+    public synchronized void releaseBuffers() {
+        if (buffersReleased)
+            return;
+        buffersReleased = true;
+        if (packed != null) {
+            if (value != null || framed)
+                // the value buffer is within the packed message
+                valueBuffer = null;
+            packed.release();
+            packed = null;
+        }
+    }
+
     public MessageType getType() {
         return MessageType.Propose;
     }
 
     public int byteSize() {
-        return super.byteSize() + 4 + 4 + value.length;
+        return super.byteSize() + 4 + 4 + valueLength;
     }
 
     public String toString() {
@@ -100,7 +259,10 @@ public class Propose extends Message {
 
     protected void write(ByteBuffer bb) {
         bb.putInt(instanceId);
-        bb.putInt(value.length);
-        bb.put(value);
+        bb.putInt(valueLength);
+        if (value != null)
+            bb.put(value);
+        else
+            bb.put(valueBuffer.duplicate());
     }
 }
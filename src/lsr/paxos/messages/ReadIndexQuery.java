@@ -0,0 +1,64 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>ReadIndexQuery</code> message. A follower sends it to
+ * the leader to learn up to which instance it must execute requests before
+ * serving the read-only requests that arrived prior to sending the query.
+ */
+public class ReadIndexQuery extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int queryId;
+
+    /**
+     * Creates new <code>ReadIndexQuery</code> message.
+     * 
+     * @param view - the view number
+     * @param queryId - id of the query, echoed in the reply
+     */
+    public ReadIndexQuery(int view, int queryId) {
+        super(view);
+        this.queryId = queryId;
+    }
+
+    /**
+     * Creates new <code>ReadIndexQuery</code> message from input stream with
+     * serialized message.
+     * 
+     * @param input - input stream with serialized <code>ReadIndexQuery</code>
+     *            message inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public ReadIndexQuery(DataInputStream input) throws IOException {
+        super(input);
+        queryId = input.readInt();
+    }
+
+    public ReadIndexQuery(ByteBuffer bb) {
+        super(bb);
+        queryId = bb.getInt();
+    }
+
+    public int getQueryId() {
+        return queryId;
+    }
+
+    public MessageType getType() {
+        return MessageType.ReadIndexQuery;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4;
+    }
+
+    public String toString() {
+        return "ReadIndexQuery(" + super.toString() + ", q:" + getQueryId() + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(queryId);
+    }
+}
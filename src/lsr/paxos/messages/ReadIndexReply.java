@@ -0,0 +1,76 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>ReadIndexReply</code> message, the answer of the leader
+ * to {@link ReadIndexQuery}. A non-negative read index means that reads may be
+ * served once all instances below it are executed; a negative one means that
+ * the leader cannot currently vouch for any index.
+ */
+public class ReadIndexReply extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int queryId;
+    private final int readIndex;
+
+    /**
+     * Creates new <code>ReadIndexReply</code> message.
+     * 
+     * @param view - the view number
+     * @param queryId - id of the answered query
+     * @param readIndex - the read index, or -1 if unavailable
+     */
+    public ReadIndexReply(int view, int queryId, int readIndex) {
+        super(view);
+        this.queryId = queryId;
+        this.readIndex = readIndex;
+    }
+
+    /**
+     * Creates new <code>ReadIndexReply</code> message from input stream with
+     * serialized message.
+     * 
+     * @param input - input stream with serialized <code>ReadIndexReply</code>
+     *            message inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public ReadIndexReply(DataInputStream input) throws IOException {
+        super(input);
+        queryId = input.readInt();
+        readIndex = input.readInt();
+    }
+
+    public ReadIndexReply(ByteBuffer bb) {
+        super(bb);
+        queryId = bb.getInt();
+        readIndex = bb.getInt();
+    }
+
+    public int getQueryId() {
+        return queryId;
+    }
+
+    public int getReadIndex() {
+        return readIndex;
+    }
+
+    public MessageType getType() {
+        return MessageType.ReadIndexReply;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4 + 4;
+    }
+
+    public String toString() {
+        return "ReadIndexReply(" + super.toString() + ", q:" + getQueryId() + ", i:" +
+               getReadIndex() + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(queryId);
+        bb.putInt(readIndex);
+    }
+}
@@ -3,6 +3,7 @@ package lsr.paxos.messages;
 import java.nio.ByteBuffer;
 
 import lsr.paxos.Snapshot;
+import lsr.paxos.network.PooledBuffer;
 
 /**
  * This class is a replacement for CatchUpSnapshot that saves copying data
@@ -38,8 +39,9 @@ public class SendonlyCatchUpSnapshot extends CatchUpSnapshot {
         bb.putInt(0, bb.limit() - 4);
     }
 
-    public ByteBuffer packMessageToBBWithSize() {
-        return bb;
+    public PooledBuffer packMessageToBBWithSize() {
+        // snapshots are too large to be pooled
+        return PooledBuffer.wrap(bb.duplicate());
     }
 
     @Override
@@ -0,0 +1,102 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Represents the <code>Skip</code> message. In the multi-leader mode, the
+ * owner of instances <code>firstInstance</code>, <code>firstInstance +
+ * step</code>, ... (<code>count</code> instances in total) proposes a no-op
+ * for all of them at once. Each replica that accepts the no-ops sends the
+ * message on to the others, which counts as an Accept for all the instances.
+ */
+public class Skip extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int owner;
+    private final int firstInstance;
+    private final int step;
+    private final int count;
+
+    /**
+     * Creates new <code>Skip</code> message.
+     *
+     * @param view - the view number
+     * @param owner - the replica that proposes the no-ops
+     * @param firstInstance - the first skipped instance
+     * @param step - distance between the consecutive skipped instances
+     * @param count - the number of skipped instances
+     */
+    public Skip(int view, int owner, int firstInstance, int step, int count) {
+        super(view);
+        this.owner = owner;
+        this.firstInstance = firstInstance;
+        this.step = step;
+        this.count = count;
+    }
+
+    /**
+     * Creates new <code>Skip</code> message from input stream with serialized
+     * message.
+     *
+     * @param input - input stream with serialized <code>Skip</code> message
+     *            inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public Skip(DataInputStream input) throws IOException {
+        super(input);
+        owner = input.readInt();
+        firstInstance = input.readInt();
+        step = input.readInt();
+        count = input.readInt();
+    }
+
+    public Skip(ByteBuffer bb) {
+        super(bb);
+        owner = bb.getInt();
+        firstInstance = bb.getInt();
+        step = bb.getInt();
+        count = bb.getInt();
+    }
+
+    public int getOwner() {
+        return owner;
+    }
+
+    public int getFirstInstance() {
+        return firstInstance;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** Returns the id of the last skipped instance */
+    public int getLastInstance() {
+        return firstInstance + (count - 1) * step;
+    }
+
+    public MessageType getType() {
+        return MessageType.Skip;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4 * 4;
+    }
+
+    public String toString() {
+        return "Skip(" + super.toString() + ", owner:" + owner + ", i:" + firstInstance + "+" +
+               step + "*" + count + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(owner);
+        bb.putInt(firstInstance);
+        bb.putInt(step);
+        bb.putInt(count);
+    }
+}
@@ -0,0 +1,71 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Represents the <code>ValueFetch</code> message. The new leader sends it
+ * while preparing a view to get the values of instances that were reported in
+ * a <code>PrepareOK</code> by their digests only.
+ */
+public class ValueFetch extends Message {
+    private static final long serialVersionUID = 1L;
+    private final int[] instanceIds;
+
+    /**
+     * Creates new <code>ValueFetch</code> message.
+     * 
+     * @param view - the view number
+     * @param instanceIds - ids of instances whose values are requested
+     */
+    public ValueFetch(int view, int[] instanceIds) {
+        super(view);
+        this.instanceIds = instanceIds;
+    }
+
+    /**
+     * Creates new <code>ValueFetch</code> message from input stream with
+     * serialized message.
+     * 
+     * @param input - input stream with serialized <code>ValueFetch</code>
+     *            message inside.
+     * @throws IOException if I/O error occurs when deserializing
+     */
+    public ValueFetch(DataInputStream input) throws IOException {
+        super(input);
+        instanceIds = new int[input.readInt()];
+        for (int i = 0; i < instanceIds.length; ++i)
+            instanceIds[i] = input.readInt();
+    }
+
+    public ValueFetch(ByteBuffer bb) {
+        super(bb);
+        instanceIds = new int[bb.getInt()];
+        for (int i = 0; i < instanceIds.length; ++i)
+            instanceIds[i] = bb.getInt();
+    }
+
+    public int[] getInstanceIds() {
+        return instanceIds;
+    }
+
+    public MessageType getType() {
+        return MessageType.ValueFetch;
+    }
+
+    public int byteSize() {
+        return super.byteSize() + 4 + 4 * instanceIds.length;
+    }
+
+    public String toString() {
+        return "ValueFetch(" + super.toString() + ", i:" + Arrays.toString(instanceIds) + ")";
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(instanceIds.length);
+        for (int i = 0; i < instanceIds.length; ++i)
+            bb.putInt(instanceIds[i]);
+    }
+}
@@ -0,0 +1,77 @@
+package lsr.paxos.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import lsr.paxos.storage.ConsensusInstance;
+import lsr.paxos.storage.InMemoryConsensusInstance;
+
+/**
+ * Represents the response to <code>ValueFetch</code> message. Carries the
+ * requested instances (as of their last vote) that the sender holds a value
+ * for. The answer to a single <code>ValueFetch</code> may be split into
+ * several such messages.
+ */
+public class ValueFetchReply extends Message {
+    private static final long serialVersionUID = 1L;
+    private final List<ConsensusInstance> instances;
+
+    public ValueFetchReply(int view, List<ConsensusInstance> instances) {
+        super(view);
+        // Create a copy
+        this.instances = new ArrayList<ConsensusInstance>(instances);
+    }
+
+    public ValueFetchReply(DataInputStream input) throws IOException {
+        super(input);
+        instances = new ArrayList<ConsensusInstance>();
+        for (int i = input.readInt(); i > 0; --i) {
+            instances.add(new InMemoryConsensusInstance(input));
+        }
+    }
+
+    public ValueFetchReply(ByteBuffer bb) {
+        super(bb);
+        instances = new ArrayList<ConsensusInstance>();
+        for (int i = bb.getInt(); i > 0; --i) {
+            instances.add(new InMemoryConsensusInstance(bb));
+        }
+    }
+
+    public List<ConsensusInstance> getInstances() {
+        return instances;
+    }
+
+    public MessageType getType() {
+        return MessageType.ValueFetchReply;
+    }
+
+    public int byteSize() {
+        int size = super.byteSize() + 4;
+        for (ConsensusInstance ci : instances) {
+            size += ci.byteSize();
+        }
+        return size;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ValueFetchReply(");
+        sb.append(super.toString()).append(", i:");
+        for (int i = 0; i < instances.size(); ++i) {
+            if (i != 0)
+                sb.append(',');
+            sb.append(instances.get(i).getId());
+        }
+        return sb.append(")").toString();
+    }
+
+    protected void write(ByteBuffer bb) {
+        bb.putInt(instances.size());
+        for (ConsensusInstance ci : instances) {
+            ci.writeAsLastVoted(bb);
+        }
+    }
+}
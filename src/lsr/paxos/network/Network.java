@@ -44,6 +44,15 @@ public abstract class Network {
 
     public abstract void start();
 
+    /**
+     * Tells if messages to the replica are queued faster than they can be
+     * sent, so that the network drops further messages to it for a while.
+     * Networks that do not bound their queues never report this.
+     */
+    public boolean isCongested(int replica) {
+        return false;
+    }
+
     /**
      * Sends the message to process with specified id.
      * 
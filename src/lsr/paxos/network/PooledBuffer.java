@@ -0,0 +1,188 @@
+package lsr.paxos.network;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A reference to a direct buffer holding a message packed for sending.
+ *
+ * The buffers come from a pool with size classes of powers of two, as
+ * allocating direct buffers is expensive and their memory is reclaimed only by
+ * the GC. A buffer may be referenced by many holders at once (e.g. the queues of
+ * all peers a message is broadcast to); each of them gets its own
+ * <code>PooledBuffer</code> with {@link #retain()}, with a separate position,
+ * and calls {@link #release()} once done. The buffer returns to the pool when
+ * the last holder releases it.
+ *
+ * If assertions are enabled, references collected by the GC without being
+ * released are reported together with the place they were created at.
+ */
+public final class PooledBuffer {
+
+    /** Smallest pooled buffer is 2^MIN_CLASS_SHIFT bytes */
+    private static final int MIN_CLASS_SHIFT = 9;
+    /** Larger buffers are allocated and freed by the GC as before */
+    private static final int MAX_CLASS_SHIFT = 22;
+    /** At most this many bytes of free buffers are kept in a size class */
+    private static final int MAX_FREE_BYTES_PER_CLASS = 16 * 1024 * 1024;
+
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] free =
+            (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[MAX_CLASS_SHIFT + 1];
+    private static final AtomicInteger[] freeCount = new AtomicInteger[MAX_CLASS_SHIFT + 1];
+    static {
+        for (int i = MIN_CLASS_SHIFT; i <= MAX_CLASS_SHIFT; ++i) {
+            free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            freeCount[i] = new AtomicInteger(0);
+        }
+    }
+
+    private static final boolean TRACK_LEAKS;
+    static {
+        boolean assertionsEnabled = false;
+        assert assertionsEnabled = true;
+        TRACK_LEAKS = assertionsEnabled;
+    }
+    private static final Cleaner leakDetector = TRACK_LEAKS ? Cleaner.create() : null;
+
+    /** State shared by all references to one buffer */
+    private static final class Shared {
+        final ByteBuffer buffer;
+        /** -1 for buffers that are not pooled */
+        final int sizeClass;
+        /** run once the buffer is free, for buffers managed elsewhere */
+        final Runnable onFree;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        Shared(ByteBuffer buffer, int sizeClass) {
+            this(buffer, sizeClass, null);
+        }
+
+        Shared(ByteBuffer buffer, int sizeClass, Runnable onFree) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.onFree = onFree;
+        }
+    }
+
+    /** Tells if a reference has been released; checked upon GC */
+    private static final class LeakCheck implements Runnable {
+        final Throwable createdAt = new Throwable("PooledBuffer created here");
+        volatile boolean released = false;
+
+        public void run() {
+            if (!released)
+                logger.error("PooledBuffer leaked - it has never been released", createdAt);
+        }
+    }
+
+    private final Shared shared;
+    private final ByteBuffer data;
+    private final LeakCheck leakCheck;
+    private boolean released = false;
+
+    private PooledBuffer(Shared shared, ByteBuffer data) {
+        this.shared = shared;
+        this.data = data;
+        if (TRACK_LEAKS) {
+            leakCheck = new LeakCheck();
+            leakDetector.register(this, leakCheck);
+        } else {
+            leakCheck = null;
+        }
+    }
+
+    /**
+     * Returns a buffer with at least the given number of bytes remaining. The
+     * buffer is cleared, its limit is set to <code>size</code>.
+     */
+    public static PooledBuffer allocate(int size) {
+        int sizeClass = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+        if (sizeClass > MAX_CLASS_SHIFT) {
+            ByteBuffer bb = ByteBuffer.allocateDirect(size);
+            return new PooledBuffer(new Shared(bb, -1), bb);
+        }
+
+        ByteBuffer bb = free[sizeClass].poll();
+        if (bb == null)
+            bb = ByteBuffer.allocateDirect(1 << sizeClass);
+        else
+            freeCount[sizeClass].decrementAndGet();
+        bb.clear().limit(size);
+        return new PooledBuffer(new Shared(bb, sizeClass), bb.duplicate());
+    }
+
+    /** Wraps a buffer that is not pooled, e.g. a very large message */
+    public static PooledBuffer wrap(ByteBuffer bb) {
+        return new PooledBuffer(new Shared(bb, -1), bb);
+    }
+
+    /**
+     * Wraps a buffer managed elsewhere, e.g. a part of a larger buffer;
+     * <code>onFree</code> is run once the last reference is released.
+     */
+    public static PooledBuffer wrap(ByteBuffer bb, Runnable onFree) {
+        return new PooledBuffer(new Shared(bb, -1, onFree), bb);
+    }
+
+    /** The data of this reference; each reference has its own position */
+    public ByteBuffer buffer() {
+        assert !released : "Use of a released buffer";
+        return data;
+    }
+
+    /**
+     * Returns a new reference to the same buffer, with the position and limit
+     * of this one.
+     */
+    public PooledBuffer retain() {
+        assert !released : "Retaining a released buffer";
+        int old = shared.refCount.getAndIncrement();
+        assert old > 0 : "Retaining a recycled buffer";
+        return new PooledBuffer(shared, data.duplicate());
+    }
+
+    /**
+     * Returns a new reference to <code>length</code> bytes of the buffer,
+     * starting <code>offset</code> bytes after the position of this one. The
+     * part is cleared: its position is 0 and its limit is its length.
+     */
+    public PooledBuffer retainSlice(int offset, int length) {
+        assert !released : "Retaining a released buffer";
+        int old = shared.refCount.getAndIncrement();
+        assert old > 0 : "Retaining a recycled buffer";
+        return new PooledBuffer(shared, data.slice(data.position() + offset, length));
+    }
+
+    /**
+     * Drops this reference. The buffer goes back to the pool once all
+     * references are released. Must be called exactly once.
+     */
+    public void release() {
+        assert !released : "PooledBuffer released twice";
+        released = true;
+        if (leakCheck != null)
+            leakCheck.released = true;
+
+        int left = shared.refCount.decrementAndGet();
+        assert left >= 0 : "PooledBuffer released too many times";
+        if (left == 0 && shared.onFree != null)
+            shared.onFree.run();
+        if (left == 0 && shared.sizeClass != -1 &&
+            freeCount[shared.sizeClass].get() << shared.sizeClass < MAX_FREE_BYTES_PER_CLASS) {
+            freeCount[shared.sizeClass].incrementAndGet();
+            free[shared.sizeClass].offer(shared.buffer);
+        }
+    }
+
+    public String toString() {
+        return "PooledBuffer(" + data + ", refs: " + shared.refCount.get() + ")";
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(PooledBuffer.class);
+}
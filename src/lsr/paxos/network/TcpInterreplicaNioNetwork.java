@@ -9,20 +9,21 @@ import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.Pipe;
-import java.nio.channels.Pipe.SinkChannel;
-import java.nio.channels.Pipe.SourceChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,15 +32,19 @@ import lsr.common.KillOnExceptionHandler;
 import lsr.common.PID;
 import lsr.paxos.messages.Message;
 import lsr.paxos.messages.MessageFactory;
+import lsr.paxos.messages.MessageType;
+import lsr.paxos.messages.Propose;
 
-public class TcpInterreplicaNioNetwork extends Network implements Runnable {
-
-    /// handles incoming data and dispatching writes
-    protected final Thread worker = new Thread(this, "TcpInterreplicaNioNetwork");
+public class TcpInterreplicaNioNetwork extends Network {
 
     /// number of replicas
     protected final int n = processDescriptor.numReplicas;
 
+    /// handle incoming data and dispatch writes; the first one also accepts
+    protected final IoThread[] ioThreads;
+    /// the I/O thread serving a peer; it alone touches the per-peer arrays
+    protected final IoThread[] ioThreadOf = new IoThread[n];
+
     /*
      * Approximately this many previous messages are are kept in outgoing
      * buffers when no connection to a replica is available.
@@ -49,6 +54,53 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
      */
     public static final int outBuffersMaxBacklogCount = 128;
 
+    /*
+     * A single write to a peer takes at most this many queued messages, and
+     * stops adding messages once this many bytes are gathered.
+     */
+    public static final int gatherMaxBuffers = 64;
+    public static final int gatherMaxBytes = 1024 * 1024;
+
+    /** Initial size of the buffer messages from a peer are read into */
+    protected static final int RECEIVE_BUFFER_SIZE = 2 * 1024 * 1024;
+
+    /*
+     * Bulk messages (catch-up responses and snapshots) have a queue of their
+     * own and are sent in chunks of at most this many bytes, only when no
+     * other message waits. Hence a consensus message waits for at most one
+     * chunk instead of a whole snapshot.
+     *
+     * A chunk is framed by a negative size: the lowest bits hold the length of
+     * the chunk, and BULK_FIRST_CHUNK marks the first chunk of a message.
+     */
+    public static final int bulkChunkBytes = 64 * 1024;
+    protected static final int BULK_FIRST_CHUNK = 1 << 30;
+    protected static final int BULK_LENGTH_MASK = BULK_FIRST_CHUNK - 1;
+
+    /*
+     * Messages of at least stripedMessageMinBytes are split into one part per
+     * stripe, i.e. extra connection to the peer, and the parts are sent in
+     * parallel. A part is framed by its size, the sequence number of the
+     * message, the size of the message and the offset of the part. As every
+     * stripe is FIFO and the parts of a message are queued on all stripes at
+     * once, striped messages complete at the receiver in the order they were
+     * sent. Other messages use the regular connection.
+     *
+     * The order is kept only among striped messages, and separately among the
+     * other ones: a message sent on the regular connection may overtake a
+     * striped message sent before it. Paxos does not rely on the order of
+     * messages (it is not kept across reconnections either); at worst a
+     * replica starts catch-up, e.g. upon a Commit overtaking the Propose.
+     *
+     * The hello of a connection carries the number of the stripe above
+     * HELLO_STRIPE_SHIFT; it is 0 for the regular connection.
+     */
+    protected final int stripes = processDescriptor.networkStripes;
+    protected final int stripedMessageMinBytes = processDescriptor.stripedMessageMinBytes;
+    protected static final int STRIPE_HEADER_BYTES = Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+    protected static final int HELLO_STRIPE_SHIFT = 16;
+    protected static final int HELLO_ID_MASK = (1 << HELLO_STRIPE_SHIFT) - 1;
+
     /// holds the preferred connection between this replica and a peer
     protected final SocketChannel[] liveConnection = new SocketChannel[n];
     /// holds the preferred connection key between this replica and a peer
@@ -64,45 +116,92 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
     /// listens for incoming connection from peer replicas
     protected final ServerSocketChannel listeningSocket;
-    /// nio is missing timers; hence, we use a timer that sends data to pipe
-    protected final SinkChannel retryConnectionPipe;
-    protected final AbstractSelector selector;
 
+    /// data to be sent to a target peer; each buffer is released once written
     @SuppressWarnings("unchecked")
-    /// data to be sent to a target peer
-    protected final ConcurrentLinkedQueue<ByteBuffer>[] outBuffers = new ConcurrentLinkedQueue[n];
+    protected final ConcurrentLinkedQueue<PooledBuffer>[] outBuffers =
+            (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[n];
+    /// bulk messages to be cut into chunks; the position of the head tells
+    /// how much of it is already moved to outBuffers
+    @SuppressWarnings("unchecked")
+    protected final ConcurrentLinkedQueue<PooledBuffer>[] bulkBuffers =
+            (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[n];
     /// approximate information if there is a connection to the peer replica
     AtomicBoolean[] isLive = new AtomicBoolean[n];
     /// approximate count of msgs in outBuffers; valid iff !isLive
     protected final AtomicInteger[] outBuffersSize = new AtomicInteger[n];
+    /// bytes of the messages in outBuffers
+    protected final AtomicLong[] outBuffersBytes = new AtomicLong[n];
+    /// set when outBuffersBytes exceeds the limit, until half of it is sent
+    protected final AtomicBoolean[] congested = new AtomicBoolean[n];
+
+    /// limit of outBuffersBytes
+    protected final long peerSendQueueBytes = processDescriptor.peerSendQueueBytes;
+
+    /// stripes to a peer: current connection or attempt to connect
+    protected final SocketChannel[][] stripeConnection = new SocketChannel[n][];
+    /// keys of connected stripes; null while connecting
+    protected final SelectionKey[][] stripeConnectionKeys = new SelectionKey[n][];
+    /// parts of messages to be sent on a stripe; counted in outBuffersBytes
+    @SuppressWarnings("unchecked")
+    protected final ConcurrentLinkedQueue<PooledBuffer>[][] stripeBuffers =
+            (ConcurrentLinkedQueue<PooledBuffer>[][]) new ConcurrentLinkedQueue<?>[n][];
+    /// number of connected stripes to a peer
+    protected final AtomicInteger[] stripesLive = new AtomicInteger[n];
+    /// sequence number of the next striped message; guarded by stripeBuffers[id]
+    protected final long[] stripeSeq = new long[n];
+    /// striped messages from a peer being put together
+    protected final StripedMessages[] stripedMessages = new StripedMessages[n];
 
     {
         for (int id = (localId != 0 ? 0 : 1); id < n; id += ((id + 1 == localId) ? 2 : 1)) {
-            outBuffers[id] = new ConcurrentLinkedQueue<ByteBuffer>();
+            stripeConnection[id] = new SocketChannel[stripes];
+            stripeConnectionKeys[id] = new SelectionKey[stripes];
+            stripeBuffers[id] = newStripeQueues();
+            for (int s = 0; s < stripes; ++s)
+                stripeBuffers[id][s] = new ConcurrentLinkedQueue<PooledBuffer>();
+            stripesLive[id] = new AtomicInteger(0);
+            stripedMessages[id] = new StripedMessages(id);
+            outBuffers[id] = new ConcurrentLinkedQueue<PooledBuffer>();
+            bulkBuffers[id] = new ConcurrentLinkedQueue<PooledBuffer>();
             isLive[id] = new AtomicBoolean(false);
             outBuffersSize[id] = new AtomicInteger(0);
+            outBuffersBytes[id] = new AtomicLong(0);
+            congested[id] = new AtomicBoolean(false);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private ConcurrentLinkedQueue<PooledBuffer>[] newStripeQueues() {
+        return (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[stripes];
+    }
+
     public TcpInterreplicaNioNetwork() {
+        int threads = Math.max(1, Math.min(processDescriptor.networkIoThreads, n - 1));
+        ioThreads = new IoThread[threads];
         try {
-            selector = SelectorProvider.provider().openSelector();
+            for (int i = 0; i < threads; ++i)
+                ioThreads[i] = new IoThread(threads == 1 ? "TcpInterreplicaNioNetwork"
+                        : "TcpInterreplicaNioNetwork-" + i);
             listeningSocket = SelectorProvider.provider().openServerSocketChannel();
-            Pipe pipe = SelectorProvider.provider().openPipe();
-            SourceChannel source = pipe.source();
-            source.configureBlocking(false);
-            source.register(selector, SelectionKey.OP_READ).attach(new handleRetryRequest(source));
-            retryConnectionPipe = pipe.sink();
-
         } catch (IOException e) {
             throw new RuntimeException("Java is mean. No selector/ssc granted!", e);
         }
+
+        // peers are dealt to the threads in turns
+        int rank = 0;
+        for (int id = (localId != 0 ? 0 : 1); id < n; id += ((id + 1 == localId) ? 2 : 1)) {
+            ioThreadOf[id] = ioThreads[rank++ % threads];
+            ioThreadOf[id].peers.set(id);
+        }
     }
 
     @Override
     public void start() {
-        assert (worker.getState() == State.NEW);
-        worker.start();
+        for (IoThread ioThread : ioThreads) {
+            assert (ioThread.getState() == State.NEW);
+            ioThread.start();
+        }
     }
 
     /*-
@@ -118,29 +217,61 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
     @Override
     protected void send(Message message, int destination) {
-        ByteBuffer bb = message.packMessageToBBWithSize();
-        if (queueSend(bb, destination))
-            selector.wakeup();
+        PooledBuffer pb = message.packMessageToBBWithSize();
+        boolean bulk = isBulk(message);
+        boolean droppable = isDroppable(message);
+        if (!bulk && isStriped(pb, destination))
+            queueStriped(pb, destination, droppable);
+        else if (queueSend(pb, destination, bulk, droppable))
+            ioThreadOf[destination].selector.wakeup();
     }
 
     @Override
     protected void send(Message message, BitSet /* const */ destinations) {
-        ByteBuffer bb = message.packMessageToBBWithSize();
-        boolean shouldWake = false;
-        for (int it = destinations.nextSetBit(0); it >= 0; it = destinations.nextSetBit(it + 1))
-            shouldWake |= queueSend(bb.duplicate(), it);
-        if (shouldWake)
-            selector.wakeup();
+        PooledBuffer pb = message.packMessageToBBWithSize();
+        boolean bulk = isBulk(message);
+        boolean droppable = isDroppable(message);
+        for (int it = destinations.nextSetBit(0); it >= 0; it = destinations.nextSetBit(it + 1)) {
+            if (!bulk && isStriped(pb, it))
+                queueStriped(pb.retain(), it, droppable);
+            else if (queueSend(pb.retain(), it, bulk, droppable))
+                ioThreadOf[it].selector.wakeup();
+        }
+        pb.release();
+    }
+
+    /// tells if the message is sent in chunks, after other messages
+    protected boolean isBulk(Message message) {
+        return message.getType() == MessageType.CatchUpResponse ||
+               message.getType() == MessageType.CatchUpSnapshot;
+    }
+
+    /**
+     * Tells if the message is dropped when the peer lags. Only the bulk of the
+     * traffic is; control messages (Alive, Commit, Prepare, PrepareOK, ...) are
+     * small and always queued, so that the protocol keeps making progress.
+     */
+    protected boolean isDroppable(Message message) {
+        return message.getType() == MessageType.Propose ||
+               message.getType() == MessageType.ForwardedClientRequests || isBulk(message);
     }
 
-    protected boolean queueSend(ByteBuffer buffer, int destination) {
+    protected boolean queueSend(PooledBuffer buffer, int destination, boolean bulk,
+                                boolean droppable) {
         // TODO (JK): the isLive.get below should be as fast as possible, and
         // both false-positives and false-negatives are fine as long as they can
         // happen for a bounded time.
         if (!isLive[destination].get()) {
             // if there is no connection:
 
+            // catch-up is repeated once the peer is back; do not keep a backlog
+            if (bulk) {
+                buffer.release();
+                return false;
+            }
+
             // put the new message
+            outBuffersBytes[destination].addAndGet(buffer.buffer().limit());
             outBuffers[destination].offer(buffer);
 
             // TODO (JK): in a corner case this can deadlock - if connection is
@@ -153,101 +284,315 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 // so the size of the buffer is bounded to
                 // (outBuffersBacklogCount + #threads)
                 outBuffersSize[destination].incrementAndGet();
-            else
+            else {
                 // remove an old message
-                outBuffers[destination].poll();
+                PooledBuffer old = outBuffers[destination].poll();
+                if (old != null) {
+                    dequeued(destination, old);
+                    old.release();
+                }
+            }
+
+            return false;
+        }
 
+        // the peer does not keep up; drop rather than buffer without bound
+        int size = buffer.buffer().limit();
+        if (droppable && overBudget(destination, size)) {
+            buffer.release();
             return false;
         }
-        boolean wasEmpty = outBuffers[destination].isEmpty();
-        outBuffers[destination].offer(buffer);
+
+        ConcurrentLinkedQueue<PooledBuffer> queue = bulk ? bulkBuffers[destination]
+                : outBuffers[destination];
+        boolean wasEmpty = queue.isEmpty();
+        outBuffersBytes[destination].addAndGet(size);
+        queue.offer(buffer);
         return wasEmpty;
     }
 
-    protected void handleWrite(int id) {
-        assert !outBuffers[id].isEmpty();
-        ByteBuffer buffer = outBuffers[id].peek();
-        do {
-            try {
-                liveConnection[id].write(buffer);
-            } catch (IOException e) {
-                handleConnectionError(liveConnection[id], id, e, true);
-                return;
-            }
-            if (buffer.hasRemaining()) {
-                // wait for write
-                liveConnectionKeys[id].interestOpsOr(SelectionKey.OP_WRITE);
-                return;
+    /// tells if a message of the given size must be dropped, as the peer lags
+    protected boolean overBudget(int destination, int size) {
+        long queued = outBuffersBytes[destination].get();
+        if (!congested[destination].get() && (queued == 0 || queued + size <= peerSendQueueBytes))
+            return false;
+        if (congested[destination].compareAndSet(false, true))
+            logger.warn("Send queue to p{} is full ({} bytes); dropping messages to it",
+                    destination, queued);
+        return true;
+    }
+
+    /// tells if the message is split across the stripes to the peer
+    protected boolean isStriped(PooledBuffer buffer, int destination) {
+        return stripes != 0 && buffer.buffer().limit() >= stripedMessageMinBytes &&
+               stripesLive[destination].get() == stripes;
+    }
+
+    /// queues the parts of the message on all stripes to the peer
+    protected void queueStriped(PooledBuffer buffer, int destination, boolean droppable) {
+        int total = buffer.buffer().remaining() - Integer.BYTES;
+        if (droppable && overBudget(destination, total + stripes * STRIPE_HEADER_BYTES)) {
+            buffer.release();
+            return;
+        }
+
+        int partSize = (total + stripes - 1) / stripes;
+        synchronized (stripeBuffers[destination]) {
+            long seq = stripeSeq[destination]++;
+            for (int s = 0, offset = 0; offset < total; ++s, offset += partSize) {
+                int length = Math.min(partSize, total - offset);
+                PooledBuffer header = PooledBuffer.allocate(STRIPE_HEADER_BYTES);
+                header.buffer().putInt(STRIPE_HEADER_BYTES - Integer.BYTES + length);
+                header.buffer().putLong(seq).putInt(total).putInt(offset).flip();
+                // the part refers to the packed message, skipping its size
+                PooledBuffer part = buffer.retainSlice(Integer.BYTES + offset, length);
+                outBuffersBytes[destination].addAndGet(STRIPE_HEADER_BYTES + length);
+                stripeBuffers[destination][s].offer(header);
+                stripeBuffers[destination][s].offer(part);
             }
-            outBuffers[id].poll();
-        } while ((buffer = outBuffers[id].peek()) != null);
+        }
+        buffer.release();
+        ioThreadOf[destination].selector.wakeup();
+    }
+
+    /**
+     * Moves the next chunk of the head bulk message to outBuffers. The chunk is
+     * copied, so that it is sent like any other message.
+     *
+     * @return false if there is no bulk message
+     */
+    protected boolean queueBulkChunk(int id) {
+        PooledBuffer bulk = bulkBuffers[id].peek();
+        if (bulk == null)
+            return false;
+
+        ByteBuffer src = bulk.buffer();
+        boolean first = src.position() == 0;
+        int length = Math.min(src.remaining(), bulkChunkBytes);
+
+        PooledBuffer chunk = PooledBuffer.allocate(Integer.BYTES + length);
+        ByteBuffer bb = chunk.buffer();
+        bb.putInt(Integer.MIN_VALUE | (first ? BULK_FIRST_CHUNK : 0) | length);
+        ByteBuffer part = src.duplicate();
+        part.limit(src.position() + length);
+        bb.put(part);
+        bb.flip();
+        src.position(src.position() + length);
 
-        // wrote all; don't wait for write
-        liveConnectionKeys[id].interestOpsAnd(~SelectionKey.OP_WRITE);
+        if (!src.hasRemaining()) {
+            bulkBuffers[id].poll();
+            dequeued(id, bulk);
+            bulk.release();
+        }
+
+        outBuffersBytes[id].addAndGet(bb.limit());
+        outBuffers[id].offer(chunk);
+        return true;
+    }
+
+    /// accounts for a buffer taken off outBuffers
+    protected void dequeued(int id, PooledBuffer buffer) {
+        long queued = outBuffersBytes[id].addAndGet(-buffer.buffer().limit());
+        if (queued <= peerSendQueueBytes / 2 && congested[id].get() &&
+            congested[id].compareAndSet(true, false))
+            logger.info("Send queue to p{} drained ({} bytes)", id, queued);
     }
 
     @Override
-    public void run() {
-        Thread.currentThread().setUncaughtExceptionHandler(new KillOnExceptionHandler());
+    public boolean isCongested(int replica) {
+        return replica != localId && congested[replica].get();
+    }
 
-        try {
-            // setup
-            listeningSocket.configureBlocking(false);
-            SelectionKey listeningKey = listeningSocket.register(selector, SelectionKey.OP_ACCEPT);
-            listeningKey.attach(new handleAccept());
-            int myPort = processDescriptor.config.getProcess(localId).getReplicaPort();
-            listeningSocket.bind(new InetSocketAddress(myPort), Math.min(n, 10));
+    /// bytes queued for sending to the peer
+    public long getQueuedBytes(int replica) {
+        return outBuffersBytes[replica].get();
+    }
 
-            logger.debug("TcpInterreplicaNioNetwork started");
+    protected void handleWrite(int id) {
+        assert !outBuffers[id].isEmpty() || !bulkBuffers[id].isEmpty();
+        try {
+            while (writeQueue(id, liveConnection[id], outBuffers[id])) {
+                // other messages are sent; continue with bulk ones
+                if (!queueBulkChunk(id)) {
+                    // wrote all; don't wait for write
+                    liveConnectionKeys[id].interestOpsAnd(~SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            handleConnectionError(liveConnection[id], id, e, true);
+            return;
+        }
+        // wait for write
+        liveConnectionKeys[id].interestOpsOr(SelectionKey.OP_WRITE);
+    }
 
-            for (int id = (localId != 0 ? 0 : 1); id < n; id += ((id + 1 == localId) ? 2 : 1))
-                retryConnection(id);
+    protected void handleStripeWrite(int id, int s) {
+        SelectionKey key = stripeConnectionKeys[id][s];
+        try {
+            if (writeQueue(id, stripeConnection[id][s], stripeBuffers[id][s]))
+                key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            else
+                key.interestOpsOr(SelectionKey.OP_WRITE);
         } catch (IOException e) {
-            throw new RuntimeException("Setting up TcpInterreplicaNioNetwork failed", e);
+            stripeFailed(id, s, e);
         }
+    }
 
-        // main l∞p
+    /**
+     * Writes the queued messages to the connection with gathering writes.
+     *
+     * @return true if the queue is empty, false if the connection takes no
+     *         more data for now
+     */
+    protected boolean writeQueue(int id, SocketChannel sc, ConcurrentLinkedQueue<PooledBuffer> queue)
+            throws IOException {
+        ByteBuffer[] gatherBuffers = ioThreadOf[id].gatherBuffers;
         while (true) {
+            // take as many messages from the head of the queue as allowed
+            int count = 0;
+            long bytes = 0;
+            for (PooledBuffer pb : queue) {
+                gatherBuffers[count++] = pb.buffer();
+                bytes += pb.buffer().remaining();
+                if (count == gatherMaxBuffers || bytes >= gatherMaxBytes)
+                    break;
+            }
+            if (count == 0)
+                return true;
+
             try {
-                selector.select();
+                sc.write(gatherBuffers, 0, count);
             } catch (IOException e) {
-                throw new RuntimeException("Selector selected an error for you", e);
+                Arrays.fill(gatherBuffers, 0, count, null);
+                throw e;
             }
 
-            // writes
-            for (int id = (localId != 0 ? 0 : 1); id < n; id += ((id + 1 == localId) ? 2 : 1)) {
-                // no data to write
-                if (outBuffers[id].isEmpty())
-                    continue;
+            // the buffers are written in order, so all but the last one
+            // written are complete; the head of the queue is the only buffer
+            // that may be partially written
+            int written = 0;
+            while (written < count && !gatherBuffers[written].hasRemaining()) {
+                PooledBuffer pb = queue.poll();
+                assert pb.buffer() == gatherBuffers[written];
+                dequeued(id, pb);
+                pb.release();
+                written++;
+            }
+            Arrays.fill(gatherBuffers, 0, count, null);
 
-                // no connection
-                if (liveConnectionKeys[id] == null || !liveConnectionKeys[id].isValid())
-                    continue;
+            if (written < count)
+                return false;
+        }
+    }
 
-                boolean writeWanted = 0 == (liveConnectionKeys[id].interestOps() &
-                                            SelectionKey.OP_WRITE);
-                boolean writeFired = 0 == (liveConnectionKeys[id].readyOps() &
-                                           SelectionKey.OP_WRITE);
+    /**
+     * Serves the connections to a subset of the peers: establishes them, writes
+     * the messages queued for the peers and reads, deserializes and delivers
+     * the messages coming from them. As a connection is served by a single
+     * thread, messages from a peer are delivered in order.
+     */
+    protected final class IoThread extends Thread {
+        protected final AbstractSelector selector;
+        /// peers served by this thread
+        protected final BitSet peers = new BitSet(n);
+        /// messages for the current gathering write
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[gatherMaxBuffers];
+        /// reusable messages decoded by this thread
+        private final MessageFactory.Flyweights flyweights = new MessageFactory.Flyweights();
+        /// nio is missing timers and hand-offs; other threads post tasks here
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        IoThread(String name) throws IOException {
+            super(name);
+            selector = SelectorProvider.provider().openSelector();
+        }
 
-                // cannot write yet
-                if (writeWanted && !writeFired)
-                    continue;
+        /// runs the task on this thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
 
-                handleWrite(id);
-            }
+        @Override
+        public void run() {
+            setUncaughtExceptionHandler(new KillOnExceptionHandler());
+
+            try {
+                // setup
+                if (this == ioThreads[0]) {
+                    listeningSocket.configureBlocking(false);
+                    SelectionKey listeningKey = listeningSocket.register(selector,
+                            SelectionKey.OP_ACCEPT);
+                    listeningKey.attach(new handleAccept());
+                    int myPort = processDescriptor.config.getProcess(localId).getReplicaPort();
+                    listeningSocket.bind(new InetSocketAddress(myPort), Math.min(n, 10));
+
+                    logger.debug("TcpInterreplicaNioNetwork started");
+                }
 
-            // reads, connects, accepts, killer pipe
-            for (SelectionKey key : selector.selectedKeys()) {
-                assert key.attachment() != null : key;
-                ((Runnable) key.attachment()).run();
+                for (int id = peers.nextSetBit(0); id >= 0; id = peers.nextSetBit(id + 1)) {
+                    retryConnection(id);
+                    for (int s = 0; s < stripes; ++s)
+                        connectStripe(id, s);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Setting up TcpInterreplicaNioNetwork failed", e);
             }
 
-            selector.selectedKeys().clear();
+            // main l∞p
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    throw new RuntimeException("Selector selected an error for you", e);
+                }
+
+                // reconnects, incoming connections of own peers
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                // writes
+                for (int id = peers.nextSetBit(0); id >= 0; id = peers.nextSetBit(id + 1)) {
+                    // parts of striped messages
+                    for (int s = 0; s < stripes; ++s)
+                        if (stripeConnectionKeys[id][s] != null && !stripeBuffers[id][s].isEmpty())
+                            handleStripeWrite(id, s);
+
+                    // no data to write
+                    if (outBuffers[id].isEmpty() && bulkBuffers[id].isEmpty())
+                        continue;
+
+                    // no connection
+                    if (liveConnectionKeys[id] == null || !liveConnectionKeys[id].isValid())
+                        continue;
+
+                    boolean writeWanted = 0 == (liveConnectionKeys[id].interestOps() &
+                                                SelectionKey.OP_WRITE);
+                    boolean writeFired = 0 == (liveConnectionKeys[id].readyOps() &
+                                               SelectionKey.OP_WRITE);
+
+                    // cannot write yet
+                    if (writeWanted && !writeFired)
+                        continue;
+
+                    handleWrite(id);
+                }
+
+                // reads, connects, accepts
+                for (SelectionKey key : selector.selectedKeys()) {
+                    assert key.attachment() != null : key;
+                    ((Runnable) key.attachment()).run();
+                }
+
+                selector.selectedKeys().clear();
+            }
         }
     }
 
     void retryConnection(int id) {
-        assert Thread.currentThread() == worker;
+        assert Thread.currentThread() == ioThreadOf[id];
 
         PID process = processDescriptor.config.getProcess(id);
         InetSocketAddress target = new InetSocketAddress(process.getHostname(),
@@ -267,7 +612,7 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
             SocketChannel sc = SelectorProvider.provider().openSocketChannel();
             myAtteptToConnect[id] = sc;
             sc.configureBlocking(false);
-            SelectionKey key = sc.register(selector, SelectionKey.OP_CONNECT);
+            SelectionKey key = sc.register(ioThreadOf[id].selector, SelectionKey.OP_CONNECT);
             key.attach(new handleConnect(sc, key, id));
             sc.connect(target);
         } catch (IOException e) {
@@ -275,8 +620,68 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
         }
     }
 
+    void connectStripe(int id, int s) {
+        assert Thread.currentThread() == ioThreadOf[id];
+
+        if (stripeConnection[id][s] != null)
+            closeStripe(id, s);
+
+        PID process = processDescriptor.config.getProcess(id);
+        InetSocketAddress target = new InetSocketAddress(process.getHostname(),
+                process.getReplicaPort());
+
+        try {
+            SocketChannel sc = SelectorProvider.provider().openSocketChannel();
+            stripeConnection[id][s] = sc;
+            sc.configureBlocking(false);
+            SelectionKey key = sc.register(ioThreadOf[id].selector, SelectionKey.OP_CONNECT);
+            key.attach(new handleConnect(sc, key, id, s + 1));
+            sc.connect(target);
+        } catch (IOException e) {
+            throw new RuntimeException("Connectablility lost", e);
+        }
+    }
+
+    void stripeConnected(int id, int s, SelectionKey key) {
+        stripeConnectionKeys[id][s] = key;
+        key.attach(new handleStripeOut(key, id, s));
+        if (stripesLive[id].incrementAndGet() == stripes)
+            logger.info("All {} stripes to p{} are connected", stripes, id);
+    }
+
+    /// closes a stripe; the parts queued for it are dropped
+    void closeStripe(int id, int s) {
+        SelectionKey key = stripeConnectionKeys[id][s];
+        if (key != null) {
+            // closing cancels the key; handleStripeOut skips cancelled keys
+            stripeConnectionKeys[id][s] = null;
+            stripesLive[id].decrementAndGet();
+        }
+
+        try {
+            stripeConnection[id][s].close();
+        } catch (IOException e) {
+            // ignore
+        }
+        stripeConnection[id][s] = null;
+
+        // the receiver drops the messages that miss a part
+        PooledBuffer pb;
+        while ((pb = stripeBuffers[id][s].poll()) != null) {
+            dequeued(id, pb);
+            pb.release();
+        }
+    }
+
+    void stripeFailed(int id, int s, IOException e) {
+        logger.info("Stripe {} to p{} died ({})", s, id, e.getMessage());
+        // messages use the regular connection until the stripe is back
+        connectStripe(id, s);
+    }
+
     public void choosePreferredConnection(int id) {
-        assert Thread.currentThread() == worker;
+        assert Thread.currentThread() == ioThreadOf[id];
+        AbstractSelector selector = ioThreadOf[id].selector;
 
         SocketChannel oldLive = liveConnection[id];
 
@@ -298,17 +703,27 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
             liveConnectionKeys[id] = null;
             logger.info("There is no connection to p" + id);
 
+            // bulk messages are not kept for a peer that is gone
+            PooledBuffer bulk;
+            while ((bulk = bulkBuffers[id].poll()) != null) {
+                dequeued(id, bulk);
+                bulk.release();
+            }
+
             int overflowBacklogCount = outBuffersSize[id].get() - outBuffersMaxBacklogCount;
             if (overflowBacklogCount > 0) {
                 // limit backlog
                 outBuffersSize[id].addAndGet(-overflowBacklogCount);
-                while (--overflowBacklogCount > 0)
-                    outBuffers[id].remove();
+                while (--overflowBacklogCount > 0) {
+                    PooledBuffer old = outBuffers[id].remove();
+                    dequeued(id, old);
+                    old.release();
+                }
             } else {
                 // make first message be sent as whole
-                ByteBuffer first = outBuffers[id].peek();
+                PooledBuffer first = outBuffers[id].peek();
                 if (first != null)
-                    first.rewind();
+                    first.buffer().rewind();
             }
 
             return;
@@ -334,19 +749,26 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
         // unlikely paths.
         if (oldLive != liveConnection[id]) {
+            // the new connection gets the current bulk message from its start;
+            // the receiver ignores chunks of a message it did not see start
+            PooledBuffer bulk = bulkBuffers[id].peek();
+            if (bulk != null)
+                bulk.buffer().position(0);
+
             // we already sent part of a message to live and this method fires
-            ByteBuffer bb = outBuffers[id].peek();
-            if (bb != null && bb.position() != 0) {
+            PooledBuffer bb = outBuffers[id].peek();
+            if (bb != null && bb.buffer().position() != 0) {
                 assert oldLive != null;
                 if (oldLive.isConnected()) {
                     // if back is live, then send the rest to it
                     outBuffers[id].poll();
+                    dequeued(id, bb);
                     SelectionKey oldKey = oldLive.keyFor(selector);
                     handleIO oldIo = (handleIO) oldKey.attachment();
                     oldIo.addPartialBufferToWrite(bb);
                 } else {
                     // else re-send whole msg
-                    bb.position(0);
+                    bb.buffer().position(0);
                 }
             }
 
@@ -357,8 +779,9 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
             if (attachment instanceof handleIO) {
                 // attachment can be instanceof handleHello
                 handleIO io = (handleIO) attachment;
-                ByteBuffer staleData = io.removePartialBufferToWrite();
+                PooledBuffer staleData = io.removePartialBufferToWrite();
                 if (staleData != null) {
+                    outBuffersBytes[id].addAndGet(staleData.buffer().limit());
                     outBuffers[id].add(staleData);
                     while (outBuffers[id].peek() != staleData) {
                         outBuffers[id].add(outBuffers[id].poll());
@@ -370,6 +793,8 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
     private void handleConnectionError(SocketChannel sc, int id, IOException e,
                                        boolean removeFromSelected) {
+        AbstractSelector selector = ioThreadOf[id].selector;
+
         // make sure that if write failed, then we're not going to attempt a
         // read form this channel
         if (removeFromSelected)
@@ -377,6 +802,16 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
         boolean issueReconnect = false;
 
+        // a chunk left for this connection by choosePreferredConnection
+        SelectionKey key = sc.keyFor(selector);
+        if (key != null && key.attachment() instanceof handleIO) {
+            handleIO io = (handleIO) key.attachment();
+            PooledBuffer lastChunk = io.removePartialBufferToWrite();
+            if (lastChunk != null)
+                lastChunk.release();
+            io.releaseReceiveBuffer();
+        }
+
         // erase that connection
         if (sc == myAtteptToConnect[id]) {
             issueReconnect = true;
@@ -405,7 +840,7 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
     final class handleAccept implements Runnable {
         public void run() {
-            assert listeningSocket.keyFor(selector).isAcceptable();
+            assert listeningSocket.keyFor(ioThreads[0].selector).isAcceptable();
 
             SocketChannel incoming = null;
             SelectionKey key;
@@ -424,7 +859,7 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 throw new RuntimeException("Socket is bananas", e);
             }
             try {
-                key = incoming.register(selector, SelectionKey.OP_READ);
+                key = incoming.register(ioThreads[0].selector, SelectionKey.OP_READ);
             } catch (ClosedChannelException e) {
                 logger.info("Reading from a newly accepted socket failed", e);
                 return;
@@ -452,6 +887,7 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
         public void run() {
             ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
             int id;
+            int stripe;
             try {
                 int read = incoming.read(bb);
                 if (read != Integer.BYTES)
@@ -459,8 +895,10 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                             "Could not read replica ID - got less than 4 bytes (got " + read +
                                           " bytes)");
                 bb.flip();
-                id = bb.getInt();
-                if (id < 0 || id >= n || id == localId) {
+                int hello = bb.getInt();
+                id = hello & HELLO_ID_MASK;
+                stripe = hello >>> HELLO_STRIPE_SHIFT;
+                if (id >= n || id == localId) {
                     throw new IOException("Got incorrect ID (" + id + ")");
                 }
             } catch (IOException e) {
@@ -472,63 +910,80 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 return;
             }
 
-            logger.info("Replica {} connected", id);
-            incomingConnection[id] = incoming;
+            if (stripe == 0)
+                logger.info("Replica {} connected", id);
+            else
+                logger.info("Replica {} connected stripe {}", id, stripe - 1);
 
-            key.attach(new handleIO(incoming, key, id));
+            if (ioThreadOf[id] != ioThreads[0]) {
+                // the peer is served by another thread; hand the connection over
+                key.cancel();
+                ioThreadOf[id].execute(() -> adoptIncomingConnection(incoming, id, stripe));
+                return;
+            }
 
-            choosePreferredConnection(id);
+            serveIncomingConnection(incoming, key, id, stripe);
         }
 
     }
 
-    class handleRetryRequest implements Runnable {
-        private final ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
-        private final SourceChannel source;
+    /// serves a connection accepted by another I/O thread
+    void adoptIncomingConnection(SocketChannel incoming, int id, int stripe) {
+        assert Thread.currentThread() == ioThreadOf[id];
 
-        public handleRetryRequest(SourceChannel source) {
-            this.source = source;
+        SelectionKey key;
+        try {
+            key = incoming.register(ioThreadOf[id].selector, SelectionKey.OP_READ);
+        } catch (ClosedChannelException e) {
+            logger.info("Incoming connection from p{} closed before handing over", id);
+            return;
         }
 
-        public void run() {
-            try {
-                source.read(bb);
-            } catch (IOException e) {
-                throw new RuntimeException("Source dried");
-            }
-            bb.flip();
-            int id = bb.getInt();
-            bb.flip();
-            retryConnection(id);
+        serveIncomingConnection(incoming, key, id, stripe);
+    }
+
+    void serveIncomingConnection(SocketChannel incoming, SelectionKey key, int id, int stripe) {
+        if (stripe != 0) {
+            // carries parts of striped messages only
+            key.attach(new handleIO(incoming, key, id, true));
+            return;
         }
+
+        incomingConnection[id] = incoming;
+
+        key.attach(new handleIO(incoming, key, id, false));
+
+        choosePreferredConnection(id);
     }
 
     protected final Timer javaNioIsMissingTimers = new Timer(true);
 
     final class handleConnect implements Runnable {
         private final int id;
+        /// 0 for the regular connection, else the stripe + 1
+        private final int stripe;
         private final SocketChannel sc;
         private final SelectionKey key;
 
         TimerTask killer = new TimerTask() {
             public void run() {
                 logger.debug("Timed out connecting to {}", id);
-                // writes victim id to a pipe that is registered in selector
-                ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
-                bb.putInt(id);
-                bb.flip();
-                try {
-                    retryConnectionPipe.write(bb);
-                } catch (IOException e) {
-                    throw new RuntimeException("You hear clanking from the pipes...");
-                }
+                if (stripe == 0)
+                    ioThreadOf[id].execute(() -> retryConnection(id));
+                else
+                    ioThreadOf[id].execute(() -> connectStripe(id, stripe - 1));
             }
         };
 
         public handleConnect(SocketChannel sc, SelectionKey key, int id) {
+            this(sc, key, id, 0);
+        }
+
+        public handleConnect(SocketChannel sc, SelectionKey key, int id, int stripe) {
             this.sc = sc;
             this.key = key;
             this.id = id;
+            this.stripe = stripe;
             javaNioIsMissingTimers.schedule(killer, processDescriptor.tcpReconnectTimeout);
         }
 
@@ -548,10 +1003,13 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
             }
             assert success;
 
-            logger.info("Connected to replica {}", id);
+            if (stripe == 0)
+                logger.info("Connected to replica {}", id);
+            else
+                logger.info("Connected stripe {} to replica {}", stripe - 1, id);
 
             ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
-            bb.putInt(localId);
+            bb.putInt(localId | stripe << HELLO_STRIPE_SHIFT);
             bb.flip();
             try {
                 sc.write(bb);
@@ -575,46 +1033,190 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
 
             killer.cancel();
 
-            key.attach(new handleIO(sc, key, id));
+            if (stripe != 0) {
+                stripeConnected(id, stripe - 1, key);
+                return;
+            }
+
+            key.attach(new handleIO(sc, key, id, false));
 
             choosePreferredConnection(id);
         }
     }
 
+    /// sends on a stripe; nothing is read, but reading detects its end
+    final class handleStripeOut implements Runnable {
+        private final SelectionKey key;
+        private final int id;
+        private final int s;
+        private final ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES);
+
+        public handleStripeOut(SelectionKey key, int id, int s) {
+            this.key = key;
+            this.id = id;
+            this.s = s;
+        }
+
+        public void run() {
+            // the stripe could have failed while writing earlier on
+            if (!key.isValid())
+                return;
+            if (key.isWritable())
+                handleStripeWrite(id, s);
+
+            if (!key.isValid() || !key.isReadable())
+                return;
+            try {
+                if (stripeConnection[id][s].read(bb) == -1)
+                    throw new EOFException();
+                bb.clear();
+            } catch (IOException e) {
+                stripeFailed(id, s, e);
+            }
+        }
+    }
+
+    /**
+     * Striped messages from a peer, put together from their parts. Used by the
+     * I/O thread of the peer only (stripe connections are adopted by it too).
+     *
+     * Parts are copied once, into a pooled buffer; a completed Propose refers
+     * to its value within that buffer, like one received in a single frame.
+     */
+    final class StripedMessages {
+        private final int id;
+        /// messages missing some parts by sequence number; the position of a
+        /// buffer counts the bytes received
+        private final TreeMap<Long, PooledBuffer> partial = new TreeMap<Long, PooledBuffer>();
+
+        StripedMessages(int id) {
+            this.id = id;
+        }
+
+        void onPart(ByteBuffer frame) {
+            long seq = frame.getLong();
+            int total = frame.getInt();
+            int offset = frame.getInt();
+            int length = frame.remaining();
+
+            PooledBuffer pooled = partial.get(seq);
+            if (pooled == null) {
+                if (total <= 0) {
+                    logger.warn("Malformed part of a striped message from p{}; dropping it", id);
+                    return;
+                }
+                pooled = PooledBuffer.allocate(total);
+                partial.put(seq, pooled);
+            }
+            ByteBuffer message = pooled.buffer();
+            if (message.limit() != total || offset < 0 || length > total - offset) {
+                logger.warn("Malformed part of a striped message from p{}; dropping it", id);
+                partial.remove(seq).release();
+                return;
+            }
+            message.put(offset, frame, frame.position(), length);
+            message.position(message.position() + length);
+            if (message.hasRemaining())
+                return;
+
+            partial.remove(seq);
+            // older messages missing a part lost it with a broken stripe
+            SortedMap<Long, PooledBuffer> lost = partial.headMap(seq);
+            for (PooledBuffer buffer : lost.values())
+                buffer.release();
+            lost.clear();
+
+            // values of Propose messages are not copied out of the buffer
+            message.flip();
+            Message msg = MessageFactory.create(message, ioThreadOf[id].flyweights);
+            assert !message.hasRemaining() : "Serialisation error of: " + msg.toString() +
+                                             " remaining: " + message.remaining();
+            if (msg.getType() == MessageType.Propose)
+                ((Propose) msg).holdReceiveBuffer(pooled);
+            else
+                pooled.release();
+            fireReceiveMessage(msg, id);
+        }
+    }
+
     final class handleIO implements Runnable {
 
-        ByteBuffer bb = ByteBuffer.allocateDirect(2 * 1024 * 1024);
+        /*
+         * The receive buffer comes from the pool of PooledBuffer. Received
+         * Propose messages refer to their values within it and hold a
+         * reference to it until they are recycled, so once the buffer is
+         * replaced it returns to the pool after all its Proposes are handled.
+         */
+        PooledBuffer received = PooledBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        ByteBuffer bb = received.buffer();
         int bbMyMark = 0;
+        /// received Propose messages refer to the contents of bb
+        boolean bbShared = false;
 
         final SocketChannel sc;
         final SelectionKey key;
         final int id;
+        /// set for incoming stripes, which carry parts of striped messages
+        final boolean stripe;
 
         boolean readingSize = true;
         int msgSize;
+        /// set if the frame being read is a chunk of a bulk message
+        boolean readingChunk;
+        boolean firstChunk;
+        /// bulk message assembled from chunks
+        ByteBuffer bulk = null;
 
-        public handleIO(SocketChannel sc, SelectionKey key, int id) {
+        public handleIO(SocketChannel sc, SelectionKey key, int id, boolean stripe) {
             this.sc = sc;
             this.key = key;
             this.id = id;
+            this.stripe = stripe;
         }
 
         private void moveBbContentsFromEndToBegin() {
             bb.limit(bb.position());
             bb.position(bbMyMark);
-            bb.compact();
+            if (bbShared) {
+                // the old buffer must stay intact until the messages are gone
+                replaceReceiveBuffer(bb.capacity());
+            } else {
+                bb.compact();
+            }
             bbMyMark = 0;
         }
 
+        /**
+         * Moves the unprocessed data (from the position to the limit of bb) to
+         * a new receive buffer of the given size, ready for reading
+         */
+        private void replaceReceiveBuffer(int size) {
+            PooledBuffer newReceived = PooledBuffer.allocate(size);
+            ByteBuffer newBB = newReceived.buffer();
+            newBB.put(bb);
+            received.release();
+            received = newReceived;
+            bb = newBB;
+            bbShared = false;
+        }
+
+        /** Called once the connection is closed */
+        protected void releaseReceiveBuffer() {
+            if (received != null) {
+                received.release();
+                received = null;
+            }
+        }
+
         // this is used iff preferred connection changes
-        private ByteBuffer messageLastChunk = null;
+        private PooledBuffer messageLastChunk = null;
 
-        protected void addPartialBufferToWrite(ByteBuffer bb) {
+        protected void addPartialBufferToWrite(PooledBuffer bb) {
             messageLastChunk = bb;
         }
 
-        protected ByteBuffer removePartialBufferToWrite() {
-            ByteBuffer bb = messageLastChunk;
+        protected PooledBuffer removePartialBufferToWrite() {
+            PooledBuffer bb = messageLastChunk;
             messageLastChunk = null;
             return bb;
         }
@@ -626,13 +1228,14 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 // appeared while half of a message was sent in the backup one,
                 // and we need to send the remaining chunk in backup
                 try {
-                    sc.write(messageLastChunk);
+                    sc.write(messageLastChunk.buffer());
                 } catch (IOException e) {
                     handleConnectionError(sc, id, e, false);
                     return;
                 }
-                if (!messageLastChunk.hasRemaining()) {
+                if (!messageLastChunk.buffer().hasRemaining()) {
                     key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                    removePartialBufferToWrite().release();
                 }
             }
 
@@ -645,6 +1248,16 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 if (bytesRead == -1)
                     throw new EOFException();
             } catch (IOException e) {
+                if (stripe) {
+                    logger.info("Stripe from p{} died ({})", id, e.getMessage());
+                    releaseReceiveBuffer();
+                    try {
+                        sc.close();
+                    } catch (IOException e1) {
+                        // ignore
+                    }
+                    return;
+                }
                 handleConnectionError(sc, id, e, false);
                 return;
             }
@@ -664,17 +1277,20 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                     msgSize = bb.getInt(bbMyMark);
                     bbMyMark += Integer.BYTES;
 
+                    readingChunk = msgSize < 0;
+                    if (readingChunk) {
+                        firstChunk = (msgSize & BULK_FIRST_CHUNK) != 0;
+                        msgSize &= BULK_LENGTH_MASK;
+                    }
+
                     // resize buffer if needed
                     if (msgSize > bb.capacity() / 2) {
                         long newSize = msgSize * 2L;
                         if (newSize > Integer.MAX_VALUE)
                             newSize = Integer.MAX_VALUE;
-                        ByteBuffer newBB = ByteBuffer.allocateDirect((int) newSize);
                         bb.limit(bb.position());
                         bb.position(bbMyMark);
-                        newBB.put(bb);
-                        assert !bb.hasRemaining();
-                        bb = newBB;
+                        replaceReceiveBuffer((int) newSize);
                         bbMyMark = 0;
                     }
                 } else {
@@ -694,7 +1310,21 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                     bbMyMark += msgSize;
                     tempBB.limit(bbMyMark);
 
-                    Message message = MessageFactory.create(tempBB);
+                    if (stripe) {
+                        stripedMessages[id].onPart(tempBB);
+                        continue;
+                    }
+                    if (readingChunk) {
+                        handleBulkChunk(tempBB);
+                        continue;
+                    }
+
+                    // values of Propose messages are not copied out of bb
+                    Message message = MessageFactory.create(tempBB, ioThreadOf[id].flyweights);
+                    if (message.getType() == MessageType.Propose) {
+                        ((Propose) message).holdReceiveBuffer(received.retain());
+                        bbShared = true;
+                    }
                     assert !tempBB.hasRemaining() : "Serialisation error of: " +
                                                     message.toString() + " remaining: " +
                                                     tempBB.remaining();
@@ -703,6 +1333,34 @@ public class TcpInterreplicaNioNetwork extends Network implements Runnable {
                 }
             }
         }
+
+        private void handleBulkChunk(ByteBuffer chunk) {
+            if (firstChunk) {
+                if (bulk != null)
+                    logger.debug("Bulk message from p{} restarted", id);
+                bulk = ByteBuffer.allocate(chunk.getInt());
+            } else if (bulk == null) {
+                // the start of the message went to another connection
+                return;
+            }
+
+            if (chunk.remaining() > bulk.remaining()) {
+                logger.warn("Malformed bulk message from p{}; dropping it", id);
+                bulk = null;
+                return;
+            }
+            bulk.put(chunk);
+            if (bulk.hasRemaining())
+                return;
+
+            bulk.flip();
+            Message message = MessageFactory.create(bulk);
+            assert !bulk.hasRemaining() : "Serialisation error of: " + message.toString() +
+                                          " remaining: " + bulk.remaining();
+            bulk = null;
+
+            fireReceiveMessage(message, id);
+        }
     }
 
     private final static Logger logger = LoggerFactory.getLogger(TcpInterreplicaNioNetwork.class);
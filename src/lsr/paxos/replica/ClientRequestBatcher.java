@@ -3,63 +3,48 @@ package lsr.paxos.replica;
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
 import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lsr.common.ClientRequest;
 import lsr.common.MovingAverage;
+import lsr.common.nio.SelectorThread;
 
 /**
- * This thread builds the batches with the requests received from the client and
- * forwards them to the leader. The selectors place the requests in a queue
- * managed owned by this class. The ForwardingThread reads requests from this
- * queue and groups them into batches.
- * 
- * There is some contention between the Selector threads and the Forwarding
- * thread in the shared queue, but it should be acceptable. For 4 selectors, in
- * a 180s run:
- * 
- * <pre>
- *  (# blocked times, blocking time) (#waits, waiting time)
- * Selector-X (67388 3365) (194668  11240) 
- * ForwardingBatcher (95081 3810) (1210222  96749) 
- *  </pre>
- * 
+ * Builds the batches with the requests received from the clients and forwards
+ * them to the leader.
+ *
+ * Each Selector thread builds its own batch from the requests it reads and
+ * sends it to the leader itself, so the selectors neither share a queue nor
+ * wait for each other or for a separate thread. A batch is sent once it
+ * reaches ForwardMaxBatchSize, once the next request is not expected to fit and
+ * the selector has handled all requests read so far, or ForwardMaxBatchDelay
+ * after its first request; the delay is measured by the timer of the Selector
+ * thread.
+ *
+ * Requests enqueued by other threads (which happens only after failing to
+ * become the leader) are forwarded one by one at once.
+ *
  * @author Nuno Santos (LSR)
  */
-public class ClientRequestBatcher implements Runnable {
+public class ClientRequestBatcher {
 
     /**
      * If the process executes slower than decides, the batcher waits longer in
      * case the execution queue is large.
-     * 
+     *
      * This time describes how often the queue size will be checked after normal
      * timeout expires, but the queue in decide callback has a lot of unexecuted
      * requests.
      */
     public static final int PRELONGED_BATCHING_TIME = 50;
 
-    /*
-     * Selector threads enqueue requests in this queue. The Batcher thread takes
-     * requests from here to prepare batches.
-     */
-    private final ArrayBlockingQueue<ClientRequest> cBatcherQueue = new ArrayBlockingQueue<ClientRequest>(
-            128);
-
-    /*
-     * Stores the requests that will make the next batch. We use two queues to
-     * minimize contention between the Selector threads and the Batcher thread,
-     * since they only have to contend for the first queue, which is accessed
-     * very briefly by either thread.
-     */
-    private final ArrayList<ClientRequest> batch = new ArrayList<ClientRequest>(16);
-    // Total size of the requests stored in the batch array.
-    private int sizeInBytes = 0;
-
-    private final Thread batcherThread;
+    private final ThreadLocal<SelectorBatch> selectorBatch = new ThreadLocal<SelectorBatch>() {
+        protected SelectorBatch initialValue() {
+            return new SelectorBatch((SelectorThread) Thread.currentThread());
+        }
+    };
 
     private final DecideCallback decideCallback;
 
@@ -69,117 +54,104 @@ public class ClientRequestBatcher implements Runnable {
                                 DecideCallback decideCallback) {
         this.requestForwarder = requestForwarder;
         this.decideCallback = decideCallback;
-        this.batcherThread = new Thread(this, "CliReqBatcher");
     }
 
-    public void start() {
-        batcherThread.start();
+    /** Adds the request to the batch of the calling thread; never blocks */
+    public void enqueueRequest(ClientRequest fReqMsg) {
+        if (!(Thread.currentThread() instanceof SelectorThread)) {
+            requestForwarder.forward(new ClientRequest[] {fReqMsg});
+            return;
+        }
+        selectorBatch.get().add(fReqMsg);
     }
 
-    public void enqueueRequest(ClientRequest fReqMsg) throws InterruptedException {
-        cBatcherQueue.put(fReqMsg);
-    }
+    /**
+     * The batch under construction by one Selector thread. Accessed only by
+     * this thread. Doubles as the task of the timer of the thread.
+     */
+    private final class SelectorBatch implements Runnable {
+        private final SelectorThread selector;
+
+        private final ArrayList<ClientRequest> batch = new ArrayList<ClientRequest>(16);
+        // Total size of the requests stored in the batch array.
+        private int sizeInBytes = 0;
+        // When the batch has to be sent, in System.nanoTime() units.
+        private long deadline;
 
-    @Override
-    public void run() {
-        long batchStart = 0;
+        private final MovingAverage averageRequestSize = new MovingAverage(0.2, 0);
 
-        MovingAverage averageRequestSize = new MovingAverage(0.2, 0);
+        SelectorBatch(SelectorThread selector) {
+            this.selector = selector;
+        }
 
-        ClientRequest overflow = null;
+        void add(ClientRequest request) {
+            int size = request.byteSize();
+            averageRequestSize.add(size);
 
-        while (true) {
-            ClientRequest request;
+            if (!batch.isEmpty() && sizeInBytes + size > processDescriptor.forwardBatchMaxSize)
+                // request won't fit.
+                sendBatch();
 
-            try {
-                if (overflow == null) {
-                    request = cBatcherQueue.take();
-                    averageRequestSize.add(request.byteSize());
-                    batchStart = System.currentTimeMillis();
-                } else {
-                    request = overflow;
-                    overflow = null;
-                }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Thread interrupted. Quitting.");
+            if (batch.isEmpty()) {
+                deadline = System.nanoTime() + processDescriptor.forwardBatchMaxDelay * 1000000L;
+                selector.setTimer(deadline, this);
             }
             batch.add(request);
-            sizeInBytes = request.byteSize();
-
-            while (sizeInBytes < processDescriptor.forwardBatchMaxSize) {
-
-                request = null;
-
-                try {
-                    int timeToExpire = (int) (batchStart + processDescriptor.forwardBatchMaxDelay -
-                                              System.currentTimeMillis());
-                    request = cBatcherQueue.poll(timeToExpire, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("Thread interrupted. Quitting.");
-                }
-
-                if (request == null) {
-                    // Timeout expired
-                    logger.trace("Batch timed out with {}/{}", sizeInBytes,
-                            processDescriptor.forwardBatchMaxSize);
-
-                    // if the service has much to do, one can wait for client
-                    // requests longer
-                    if (decideCallback.hasDecidedNotExecutedOverflow()) {
-                        batchStart = System.currentTimeMillis();
-                        if (processDescriptor.forwardBatchMaxDelay < PRELONGED_BATCHING_TIME) {
-                            batchStart += PRELONGED_BATCHING_TIME -
-                                          processDescriptor.forwardBatchMaxDelay;
-                        }
-                        logger.info("Prelonging batching in ClientRequestBatcher");
-                        continue;
-                    } else {
-                        break;
-                    }
-                }
-
-                averageRequestSize.add(request.byteSize());
-
-                if (sizeInBytes + request.byteSize() > processDescriptor.forwardBatchMaxSize) {
-                    // request won't fit.
-                    batchStart = System.currentTimeMillis();
-                    overflow = request;
-                    break;
+            sizeInBytes += size;
+
+            if (sizeInBytes >= processDescriptor.forwardBatchMaxSize) {
+                sendBatch();
+            } else if (sizeInBytes +
+                       (averageRequestSize.get() / 2) > processDescriptor.forwardBatchMaxSize) {
+                // small chance to fit the next request; send the batch once the
+                // requests read in this round of the selector are added
+                if (logger.isTraceEnabled()) {
+                    logger.trace(
+                            "Predicting that next request won't fit. Left with {} bytes, estimated request size: {}",
+                            (sizeInBytes - processDescriptor.forwardBatchMaxSize),
+                            averageRequestSize.get());
                 }
+                selector.setTimer(System.nanoTime(), this);
+            }
+        }
 
-                batch.add(request);
-                sizeInBytes += request.byteSize();
-
-                if (sizeInBytes +
-                    (averageRequestSize.get() / 2) > processDescriptor.forwardBatchMaxSize) {
-                    // small chance to fit the next request.
-                    if (cBatcherQueue.isEmpty()) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace(
-                                    "Predicting that next request won't fit. Left with {} bytes, estimated request size: {}",
-                                    (sizeInBytes - processDescriptor.forwardBatchMaxSize),
-                                    averageRequestSize.get());
-                        }
-                        break;
-                    }
+        /** Timer expired */
+        public void run() {
+            if (batch.isEmpty())
+                return;
+
+            if (System.nanoTime() - deadline >= 0) {
+                logger.trace("Batch timed out with {}/{}", sizeInBytes,
+                        processDescriptor.forwardBatchMaxSize);
+
+                // if the service has much to do, one can wait for client
+                // requests longer
+                if (decideCallback.hasDecidedNotExecutedOverflow()) {
+                    deadline = System.nanoTime() +
+                               Math.max(processDescriptor.forwardBatchMaxDelay,
+                                       PRELONGED_BATCHING_TIME) * 1000000L;
+                    selector.setTimer(deadline, this);
+                    logger.info("Prelonging batching in ClientRequestBatcher");
+                    return;
                 }
             }
 
             sendBatch();
         }
-    }
 
-    private void sendBatch() {
-        assert Thread.currentThread() == batcherThread;
-        assert sizeInBytes > 0 : "Trying to send an empty batch.";
+        private void sendBatch() {
+            assert selector.amIInSelector();
+            assert sizeInBytes > 0 : "Trying to send an empty batch.";
 
-        // Transform the ArrayList into an array with the exact size.
-        final ClientRequest[] batches = batch.toArray(new ClientRequest[batch.size()]);
+            // Transform the ArrayList into an array with the exact size.
+            final ClientRequest[] batches = batch.toArray(new ClientRequest[batch.size()]);
 
-        requestForwarder.forward(batches);
+            batch.clear();
+            sizeInBytes = 0;
+            selector.cancelTimer();
 
-        batch.clear();
-        sizeInBytes = 0;
+            requestForwarder.forward(batches);
+        }
     }
 
     static final Logger logger = LoggerFactory.getLogger(ClientRequestBatcher.class);
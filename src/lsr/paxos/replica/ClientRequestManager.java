@@ -2,6 +2,7 @@ package lsr.paxos.replica;
 
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
@@ -18,6 +19,7 @@ import lsr.common.Reply;
 import lsr.common.RequestId;
 import lsr.common.SingleThreadDispatcher;
 import lsr.common.nio.SelectorThread;
+import lsr.paxos.core.LeaseManager;
 import lsr.paxos.core.Paxos;
 import lsr.paxos.replica.storage.ReplicaStorage;
 
@@ -73,20 +75,25 @@ final public class ClientRequestManager {
      */
     private final ReplicaStorage replicaStorage;
 
-    /* Thread responsible to create and forward batches to leader */
+    /* Creates and forwards batches to leader on the Selector threads */
     private final ClientRequestBatcher cBatcher;
 
     private final SingleThreadDispatcher replicaDispatcher;
+    private final Replica replica;
     private final Paxos paxos;
+    /** null unless FollowerReads are enabled */
+    private final FollowerReadManager followerReads;
     private NioClientManager clientManager = null;
 
     public ClientRequestManager(Replica replica, DecideCallbackImpl decideCallback,
                                 ClientRequestForwarder requestForwarder, Paxos paxos) {
         replicaDispatcher = replica.getReplicaDispatcher();
+        this.replica = replica;
         this.replicaStorage = replica.getReplicaStorage();
         this.paxos = paxos;
+        followerReads = processDescriptor.followerReads == FollowerReadManager.Mode.Disabled
+                ? null : new FollowerReadManager(replica, paxos, this);
         cBatcher = new ClientRequestBatcher(requestForwarder, decideCallback);
-        cBatcher.start();
     }
 
     public void setClientManager(NioClientManager clientManager) {
@@ -140,6 +147,10 @@ final public class ClientRequestManager {
                 onClientRequest(request, client);
                 break;
 
+            case READ_ONLY:
+                onReadOnlyRequest(command.getRequest(), client);
+                break;
+
             default:
                 logger.error("Received invalid command {} from {}", command, client);
                 client.send(new ClientReply(Result.NACK, "Unknown command.".getBytes()));
@@ -149,11 +160,52 @@ final public class ClientRequestManager {
 
     public void onClientRequest(ClientRequest request, ClientProxy client)
             throws InterruptedException {
-        RequestId reqId = request.getRequestId();
+        if (!admitRequest(request.getRequestId(), client))
+            return;
+
+        if (paxos.isProposer()) {
+            paxos.enqueueRequest(request, cBatcher);
+        } else {
+            cBatcher.enqueueRequest(request);
+        }
+    }
+
+    /**
+     * Handles a request received directly from a client, serialized as by
+     * {@link ClientRequest#writeTo(ByteBuffer)} from the position to the limit
+     * of the buffer. On the leader the request is copied straight to the batch
+     * under construction, with no ClientRequest created. The buffer may be
+     * reused once this returns.
+     */
+    public void onClientRequest(ByteBuffer request, ClientProxy client)
+            throws InterruptedException {
+        int start = request.position();
+        RequestId reqId = new RequestId(request.getLong(start), request.getInt(start + 8));
+
+        if (!admitRequest(reqId, client))
+            return;
+
+        if (paxos.isProposer() && paxos.enqueueRequest(request))
+            return;
+
+        ClientRequest clientRequest = ClientRequest.create(request);
+        if (paxos.isProposer()) {
+            paxos.enqueueRequest(clientRequest, cBatcher);
+        } else {
+            cBatcher.enqueueRequest(clientRequest);
+        }
+    }
 
+    /**
+     * Tells if the request is new and must be ordered; if so, remembers the
+     * client awaiting the reply. Otherwise answers the client with the stored
+     * reply, if any.
+     */
+    private boolean admitRequest(RequestId reqId, ClientProxy client)
+            throws InterruptedException {
         if (client != null && fendOffClients.get()) {
             if (client.redirectElsewhere())
-                return;
+                return false;
         }
 
         /*
@@ -169,7 +221,7 @@ final public class ClientRequestManager {
 
         if (newRequest) {
             logger.debug(processDescriptor.logMark_OldBenchmark, "Received client request: {}",
-                    request);
+                    reqId);
 
             /*
              * Flow control. Wait for a permit. May block the selector thread.
@@ -188,14 +240,10 @@ final public class ClientRequestManager {
             else if (USE_FLOW_CONTROL)
                 pendingClientProxies.put(reqId, NULL_CLIENT_PROXY);
 
-            if (paxos.isLeader()) {
-                paxos.enqueueRequest(request, cBatcher);
-            } else {
-                cBatcher.enqueueRequest(request);
-            }
+            return true;
         } else {
             if (client == null)
-                return;
+                return false;
             Reply lastReply = replicaStorage.getLastReplyForClient(reqId.getClientId());
 
             /*
@@ -208,23 +256,44 @@ final public class ClientRequestManager {
             if (lastReply.getRequestId().equals(reqId)) {
                 client.send(new ClientReply(Result.OK, lastReply.toByteArray()));
             } else {
-                String errorMsg = "Request too old: " + request.getRequestId() +
+                String errorMsg = "Request too old: " + reqId +
                                   ", Last reply: " + lastReply.getRequestId();
                 logger.error(errorMsg);
                 client.send(new ClientReply(Result.NACK, errorMsg.getBytes()));
             }
+            return false;
+        }
+    }
+
+    /**
+     * Executes the read-only request locally if the leader lease or follower
+     * reads allow that, otherwise orders it as any other request.
+     */
+    private void onReadOnlyRequest(ClientRequest request, ClientProxy client)
+            throws InterruptedException {
+        if (followerReads != null && client != null &&
+            followerReads.onReadOnlyRequest(request, client))
+            return;
+
+        LeaseManager leaseManager = paxos.getLeaseManager();
+        if (leaseManager != null && client != null) {
+            int readIndex = leaseManager.getReadIndex();
+            if (readIndex >= 0) {
+                replica.executeReadOnly(request, client, readIndex);
+                return;
+            }
         }
+        onClientRequest(request, client);
     }
 
     /**
      * Caches the reply from the client. If the connection with the client is
      * still active, then reply is sent.
      * 
-     * @param request - request for which reply is generated
      * @param reply - reply to send to client
      */
     @SuppressWarnings("unused")
-    public void onRequestExecuted(final ClientRequest request, final Reply reply) {
+    public void onRequestExecuted(final Reply reply) {
         assert replicaDispatcher.amIInDispatcher() : "Not in replica dispatcher. " +
                                                      Thread.currentThread().getName();
 
@@ -234,12 +303,12 @@ final public class ClientRequestManager {
             // The other replicas discard the reply.
             if (logger.isTraceEnabled())
                 logger.trace("Client proxy not found, discarding reply. {}",
-                        request.getRequestId());
+                        reply.getRequestId());
 
         } else if (USE_FLOW_CONTROL && client == NULL_CLIENT_PROXY) {
 
             if (logger.isTraceEnabled())
-                logger.trace("Forwarded request, discarding reply {}", request.getRequestId());
+                logger.trace("Forwarded request, discarding reply {}", reply.getRequestId());
 
             if (USE_FLOW_CONTROL)
                 pendingRequestsSem.release();
@@ -259,7 +328,7 @@ final public class ClientRequestManager {
             ClientReply clientReply = new ClientReply(Result.OK, reply.toByteArray());
             if (logger.isDebugEnabled(processDescriptor.logMark_OldBenchmark)) {
                 logger.debug(processDescriptor.logMark_OldBenchmark,
-                        "Scheduling sending reply: {} {}", request.getRequestId(), clientReply);
+                        "Scheduling sending reply: {} {}", reply.getRequestId(), clientReply);
             }
 
             client.send(clientReply);
@@ -32,4 +32,10 @@ public interface DecideCallback {
      */
     boolean hasDecidedNotExecutedOverflow();
 
+    /**
+     * Returns the predicted time, in milliseconds, needed to execute the
+     * requests decided, but not yet executed
+     */
+    double executionBacklogMs();
+
 }
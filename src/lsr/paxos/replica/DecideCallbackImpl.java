@@ -2,16 +2,16 @@ package lsr.paxos.replica;
 
 import static lsr.common.ProcessDescriptor.processDescriptor;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import lsr.common.ClientRequest;
 import lsr.common.CrashModel;
 import lsr.common.MovingAverage;
 import lsr.common.SingleThreadDispatcher;
+import lsr.paxos.BatchCompressor;
 import lsr.paxos.UnBatcher;
 import lsr.paxos.NATIVE.PersistentMemory;
 import lsr.paxos.storage.ConsensusInstance;
@@ -22,7 +22,7 @@ public class DecideCallbackImpl implements DecideCallback {
 
     private final SingleThreadDispatcher replicaDispatcher;
 
-    private final SingleThreadDispatcher unpackerDispatcher = new SingleThreadDispatcher(
+    private final SingleThreadDispatcher unpackerDispatcher = SingleThreadDispatcher.create(
             "DecidedInstUnpacker");
 
     /**
@@ -32,6 +32,9 @@ public class DecideCallbackImpl implements DecideCallback {
      */
     private final AtomicBoolean isUnpackingRequests = new AtomicBoolean(false);
 
+    /** Used by the unpacker thread only */
+    private final BatchCompressor batchCompressor = new BatchCompressor();
+
     /** Used to predict how much time a single instance takes */
     private MovingAverage averageInstanceExecTime = new MovingAverage(0.4, 0);
 
@@ -88,7 +91,23 @@ public class DecideCallbackImpl implements DecideCallback {
             return;
         }
 
-        final ClientRequest[] requests = UnBatcher.unpackCR(ci.getValue());
+        /*
+         * Either the value kept by the log is executed in place, or it is
+         * copied here first, so that the replica thread reads from DRAM and
+         * the copy overlaps with execution of the previous instances. Either
+         * way the requests are not unpacked to objects. Compressed batches
+         * are decompressed straight from the log.
+         */
+        ByteBuffer batch = ci.getValueBuffer();
+        if (BatchCompressor.isCompressed(batch)) {
+            batch = batchCompressor.decompress(batch);
+        } else if (!processDescriptor.unpackInPlace) {
+            // copied from the view, so that the log is read only once
+            ByteBuffer copy = ByteBuffer.allocate(batch.remaining());
+            copy.put(batch).flip();
+            batch = copy.asReadOnlyBuffer();
+        }
+        final UnBatcher.Cursor requests = UnBatcher.cursor(batch);
 
         replicaDispatcher.execute(() -> executeRequests(unpackUB, requests));
 
@@ -107,7 +126,7 @@ public class DecideCallbackImpl implements DecideCallback {
             scheduleExecuteRequests();
     }
 
-    private void executeRequests(final int unpackUB, final ClientRequest[] requests) {
+    private void executeRequests(final int unpackUB, final UnBatcher.Cursor requests) {
         final int executeUB = replica.getReplicaStorage().getExecuteUB();
         if (executeUB != unpackUB) {
             /*-
@@ -124,7 +143,7 @@ public class DecideCallbackImpl implements DecideCallback {
         if (logger.isDebugEnabled(processDescriptor.logMark_OldBenchmark)) {
             logger.info(processDescriptor.logMark_OldBenchmark,
                     "Executing instance: {} {}",
-                    executeUB, Arrays.toString(requests));
+                    executeUB, requests);
         } else {
             logger.info("Executing instance: {}", executeUB);
         }
@@ -135,7 +154,7 @@ public class DecideCallbackImpl implements DecideCallback {
         // Done with all the client batches in this instance
         if (processDescriptor.crashModel == CrashModel.Pmem)
             PersistentMemory.startThreadLocalTx();
-        replica.instanceExecuted(executeUB, requests);
+        replica.instanceExecuted(executeUB);
         replica.getReplicaStorage().releaseDecidedWaitingExecution(executeUB);
         replica.getReplicaStorage().incrementExecuteUB();
         if (processDescriptor.crashModel == CrashModel.Pmem)
@@ -144,8 +163,12 @@ public class DecideCallbackImpl implements DecideCallback {
 
     @Override
     public boolean hasDecidedNotExecutedOverflow() {
-        double predictedTime = averageInstanceExecTime.get() * decidedButNotExecutedCount();
-        return predictedTime >= OVERFLOW_THRESHOLD_MS;
+        return executionBacklogMs() >= OVERFLOW_THRESHOLD_MS;
+    }
+
+    @Override
+    public double executionBacklogMs() {
+        return averageInstanceExecTime.get() * decidedButNotExecutedCount();
     }
 
     static final Logger logger = LoggerFactory.getLogger(DecideCallbackImpl.class);
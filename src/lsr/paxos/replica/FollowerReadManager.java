@@ -0,0 +1,248 @@
+package lsr.paxos.replica;
+
+import static lsr.common.ProcessDescriptor.processDescriptor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.common.ClientRequest;
+import lsr.common.Pair;
+import lsr.paxos.core.LeaseManager;
+import lsr.paxos.core.Paxos;
+import lsr.paxos.messages.Alive;
+import lsr.paxos.messages.Message;
+import lsr.paxos.messages.MessageType;
+import lsr.paxos.messages.Propose;
+import lsr.paxos.messages.ReadIndexQuery;
+import lsr.paxos.messages.ReadIndexReply;
+import lsr.paxos.network.MessageHandler;
+import lsr.paxos.network.Network;
+import lsr.paxos.replica.storage.ReplicaStorage;
+
+/**
+ * Serves read-only requests on followers, so that read throughput scales with
+ * the number of replicas. Two modes are available:
+ *
+ * <ul>
+ * <li>ReadIndex - the follower asks the leader for its read index (see
+ * {@link LeaseManager#getReadIndex()}) and executes the reads once all
+ * instances below the index are executed. One query serves all reads that
+ * arrived while the previous query was outstanding. Linearizable.
+ * <li>BoundedStaleness - the follower executes the read at once if it is at
+ * most StalenessMaxInstances behind the last instance it knows the leader
+ * started, or if it executed all instances the leader had started at most
+ * StalenessMaxDelay ms ago. The position of the leader is learnt from Alive
+ * and Propose messages.
+ * </ul>
+ *
+ * Reads that cannot be served this way are ordered as all other requests.
+ *
+ * Accessed by the Selector threads, network threads and the Replica thread;
+ * all state is guarded by this object's monitor.
+ */
+public class FollowerReadManager {
+
+    public enum Mode {
+        Disabled, ReadIndex, BoundedStaleness
+    }
+
+    /** Number of remembered leader positions used for the time bound */
+    private static final int POSITION_HISTORY = 64;
+
+    private final Replica replica;
+    private final ReplicaStorage replicaStorage;
+    private final Paxos paxos;
+    private final ClientRequestManager requestManager;
+
+    /* ReadIndex mode */
+    private List<Pair<ClientRequest, ClientProxy>> waiting = new ArrayList<Pair<ClientRequest, ClientProxy>>();
+    private List<Pair<ClientRequest, ClientProxy>> queried = null;
+    private int queryId = 0;
+    /* Instances executed here when the query was sent */
+    private int queriedExecuteUB = 0;
+
+    /* BoundedStaleness mode: ring of leader positions and reception times */
+    private final int[] positions = new int[POSITION_HISTORY];
+    private final long[] positionTimes = new long[POSITION_HISTORY];
+    private int lastPosition = 0;
+    private final long maxDelayNs;
+
+    public FollowerReadManager(Replica replica, Paxos paxos, ClientRequestManager requestManager) {
+        this.replica = replica;
+        this.replicaStorage = replica.getReplicaStorage();
+        this.paxos = paxos;
+        this.requestManager = requestManager;
+        maxDelayNs = TimeUnit.MILLISECONDS.toNanos(processDescriptor.stalenessMaxDelay);
+
+        MessageHandler handler = new InnerMessageHandler();
+        switch (processDescriptor.followerReads) {
+            case ReadIndex:
+                Network.addMessageListener(MessageType.ReadIndexQuery, handler);
+                Network.addMessageListener(MessageType.ReadIndexReply, handler);
+                break;
+            case BoundedStaleness:
+                Network.addMessageListener(MessageType.Alive, handler);
+                Network.addMessageListener(MessageType.Propose, handler);
+                break;
+            default:
+                throw new IllegalArgumentException("Follower reads disabled");
+        }
+    }
+
+    /**
+     * Serves the read-only request received by this follower.
+     *
+     * @return false if the request must be ordered instead
+     */
+    public boolean onReadOnlyRequest(ClientRequest request, ClientProxy client) {
+        if (paxos.isLeader())
+            return false;
+
+        if (processDescriptor.followerReads == Mode.BoundedStaleness) {
+            int executeUB = replicaStorage.getExecuteUB();
+            if (!isFreshEnough(executeUB))
+                return false;
+            replica.executeReadOnly(request, client, executeUB);
+            return true;
+        }
+
+        synchronized (this) {
+            waiting.add(new Pair<ClientRequest, ClientProxy>(request, client));
+            if (queried == null)
+                sendQuery();
+        }
+        return true;
+    }
+
+    private synchronized boolean isFreshEnough(int executeUB) {
+        long now = System.nanoTime();
+        int last = lastPosition % POSITION_HISTORY;
+        if (positionTimes[last] == 0)
+            return false;
+
+        if (now - positionTimes[last] <= TimeUnit.MILLISECONDS.toNanos(
+                processDescriptor.fdSuspectTimeout) &&
+            positions[last] - executeUB <= processDescriptor.stalenessMaxInstances)
+            return true;
+
+        // find the latest position of the leader that is already executed
+        for (int i = 0; i < POSITION_HISTORY; ++i) {
+            int slot = (lastPosition - i + POSITION_HISTORY) % POSITION_HISTORY;
+            if (positionTimes[slot] == 0)
+                return false;
+            if (positions[slot] <= executeUB)
+                return now - positionTimes[slot] <= maxDelayNs;
+        }
+        return false;
+    }
+
+    private synchronized void onLeaderPosition(int nextId) {
+        int last = lastPosition % POSITION_HISTORY;
+        if (nextId <= positions[last] && positionTimes[last] != 0)
+            return;
+        long now = System.nanoTime();
+        if (now - positionTimes[last] < 1000000) {
+            // at most one entry per millisecond
+            positions[last] = nextId;
+            return;
+        }
+        lastPosition = (lastPosition + 1) % POSITION_HISTORY;
+        positions[lastPosition] = nextId;
+        positionTimes[lastPosition] = now;
+    }
+
+    private void sendQuery() {
+        assert Thread.holdsLock(this);
+        queried = waiting;
+        waiting = new ArrayList<Pair<ClientRequest, ClientProxy>>();
+        queriedExecuteUB = replicaStorage.getExecuteUB();
+        final int id = ++queryId;
+        paxos.getNetwork().sendMessage(new ReadIndexQuery(paxos.getStorage().getView(), id),
+                paxos.getLeaderId());
+
+        replica.getReplicaDispatcher().schedule(new Runnable() {
+            public void run() {
+                synchronized (FollowerReadManager.this) {
+                    if (queryId != id || queried == null)
+                        return;
+                    logger.info("No read index from the leader, ordering {} reads",
+                            queried.size());
+                    onReadIndex(-1);
+                }
+            }
+        }, processDescriptor.retransmitTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void onReadIndex(int readIndex) {
+        assert Thread.holdsLock(this);
+        if (readIndex >= 0 && readIndex < queriedExecuteUB) {
+            // a write this replica executed, and maybe acknowledged, before
+            // the reads arrived would not be visible to them
+            logger.error("Read index {} below the instances executed here ({}), ordering reads",
+                    readIndex, queriedExecuteUB);
+            assert false : readIndex + " < " + queriedExecuteUB;
+            readIndex = -1;
+        }
+        for (Pair<ClientRequest, ClientProxy> read : queried) {
+            if (readIndex >= 0)
+                replica.executeReadOnly(read.getKey(), read.getValue(), readIndex);
+            else
+                requestManager.dispatchOnClientRequest(new ClientRequest[] {read.getKey()},
+                        read.getValue());
+        }
+        queried = null;
+        if (!waiting.isEmpty())
+            sendQuery();
+    }
+
+    private synchronized void onReadIndexReply(ReadIndexReply reply) {
+        if (reply.getQueryId() != queryId || queried == null)
+            return;
+        onReadIndex(reply.getReadIndex());
+    }
+
+    /** Leader role: answers with the read index if the lease is valid */
+    private void onReadIndexQuery(ReadIndexQuery query, int sender) {
+        if (!paxos.isLeader())
+            return;
+        LeaseManager leaseManager = paxos.getLeaseManager();
+        int readIndex = leaseManager == null ? -1 : leaseManager.getReadIndex();
+        paxos.getNetwork().sendMessage(
+                new ReadIndexReply(paxos.getStorage().getView(), query.getQueryId(), readIndex),
+                sender);
+    }
+
+    private final class InnerMessageHandler implements MessageHandler {
+        public void onMessageReceived(Message msg, int sender) {
+            switch (msg.getType()) {
+                case ReadIndexQuery:
+                    onReadIndexQuery((ReadIndexQuery) msg, sender);
+                    break;
+                case ReadIndexReply:
+                    onReadIndexReply((ReadIndexReply) msg);
+                    break;
+                case Alive:
+                    if (sender == paxos.getLeaderId())
+                        onLeaderPosition(((Alive) msg).getLogNextId());
+                    break;
+                case Propose:
+                    if (sender == paxos.getLeaderId())
+                        onLeaderPosition(((Propose) msg).getInstanceId() + 1);
+                    break;
+                default:
+                    assert false : msg;
+            }
+        }
+
+        public void onMessageSent(Message message, BitSet destinations) {
+            // Empty
+        }
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(FollowerReadManager.class);
+}
@@ -0,0 +1,61 @@
+package lsr.paxos.replica;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Class loader of a single Paxos group of a {@link MultiGroupReplica}.
+ *
+ * JPaxos keeps the state of a replica in static fields (ProcessDescriptor,
+ * network listeners, the native storage), so a second replica cannot run in
+ * the same class loader. This loader defines its own copy of all JPaxos
+ * classes (child first), except for the <code>lsr.service</code> package, which
+ * is shared so that the services, created by the parent, can be handed to the
+ * replicas of all groups. Other libraries are loaded by the parent.
+ */
+final class GroupClassLoader extends URLClassLoader {
+    private final int group;
+
+    GroupClassLoader(int group, ClassLoader parent) {
+        super("jpaxos-group-" + group, classPath(), parent);
+        this.group = group;
+    }
+
+    int getGroup() {
+        return group;
+    }
+
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith("lsr.") || name.startsWith("lsr.service."))
+            return super.loadClass(name, resolve);
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    c = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    c = super.loadClass(name, false);
+                }
+            }
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+
+    private static URL[] classPath() {
+        String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            try {
+                urls[i] = new File(entries[i]).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new RuntimeException("Invalid class path entry " + entries[i], e);
+            }
+        }
+        return urls;
+    }
+}
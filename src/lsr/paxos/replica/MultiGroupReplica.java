@@ -0,0 +1,109 @@
+package lsr.paxos.replica;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lsr.common.Configuration;
+import lsr.common.ProcessDescriptor;
+import lsr.service.Service;
+
+/**
+ * Launches several independent replicas in one JVM, each ordering the requests
+ * of one partition of the service state in its own log. Every group is a
+ * complete {@link Replica}, exactly as if started in a process of its own: its
+ * own Protocol and Replica threads, pmem pool, replica network and client
+ * manager, listening on its own ports (see {@link Configuration#forGroup(int)}).
+ * Nothing is shared between the groups but the JVM; in particular the groups
+ * do not share the inter-replica connections nor the client port, and a
+ * client connects to every group separately.
+ *
+ * As a replica keeps its state in static fields, each group is loaded by its
+ * own {@link GroupClassLoader}. The services are created by the caller; the
+ * clients choose the group of a request with a {@link lsr.service.Partitioner}
+ * (see lsr.paxos.client.PartitionedClient).
+ */
+public class MultiGroupReplica {
+    private final int localId;
+    private final Object[] replicas;
+
+    /**
+     * Creates the replicas of all groups, as set by the <code>Groups</code>
+     * property of the configuration file.
+     *
+     * @param configFile - the configuration file shared by all groups
+     * @param localId - the id of the replica in each group
+     * @param services - creates the service of the given group
+     */
+    public MultiGroupReplica(String configFile, int localId, IntFunction<Service> services)
+            throws IOException {
+        this.localId = localId;
+        int groups = new Configuration(configFile).getIntProperty(ProcessDescriptor.GROUPS,
+                ProcessDescriptor.DEFAULT_GROUPS);
+        replicas = new Object[groups];
+
+        for (int group = 0; group < groups; ++group) {
+            GroupClassLoader loader = new GroupClassLoader(group, getClass().getClassLoader());
+            replicas[group] = inGroup(loader, () -> {
+                Class<?> configClass = loader.loadClass(Configuration.class.getName());
+                Object config = configClass.getConstructor(String.class).newInstance(configFile);
+                config = configClass.getMethod("forGroup", int.class).invoke(config,
+                        loader.getGroup());
+                return loader.loadClass(Replica.class.getName()).getConstructor(configClass,
+                        int.class, Service.class).newInstance(config, localId,
+                        services.apply(loader.getGroup()));
+            });
+        }
+        logger.info("Created replica {} of {} groups", localId, groups);
+    }
+
+    public int getGroups() {
+        return replicas.length;
+    }
+
+    /** Starts the replicas of all groups; see {@link Replica#start()} */
+    public void start() throws IOException {
+        for (Object replica : replicas) {
+            inGroup((GroupClassLoader) replica.getClass().getClassLoader(), () -> {
+                replica.getClass().getMethod("start").invoke(replica);
+                return null;
+            });
+        }
+        logger.info("Started replica {} of {} groups", localId, replicas.length);
+    }
+
+    private interface GroupTask {
+        Object run() throws ReflectiveOperationException;
+    }
+
+    /**
+     * Runs the task with the context class loader set to the one of the group,
+     * so that the threads created by the group inherit it.
+     */
+    private static Object inGroup(GroupClassLoader loader, GroupTask task) throws IOException {
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(loader);
+        try {
+            return task.run();
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException("Group " + loader.getGroup() + " failed", cause);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot load group " + loader.getGroup(), e);
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
+    private final static Logger logger = LoggerFactory.getLogger(MultiGroupReplica.class);
+}
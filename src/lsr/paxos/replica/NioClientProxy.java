@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lsr.common.ClientCommand;
+import lsr.common.ClientCommand.CommandType;
 import lsr.common.ClientReply;
 import lsr.common.ClientReply.Result;
 import lsr.common.Pair;
@@ -102,6 +103,12 @@ public class NioClientProxy implements ClientProxy {
      * @throws InterruptedException
      */
     private void execute(ByteBuffer buffer) throws InterruptedException {
+        if (buffer.getInt(buffer.position()) == CommandType.REQUEST.ordinal()) {
+            // the request is copied from the buffer straight to the batch
+            buffer.position(buffer.position() + 4);
+            requestManager.onClientRequest(buffer, this);
+            return;
+        }
         ClientCommand command = new ClientCommand(buffer);
         requestManager.onClientRequest(command, this);
     }
@@ -5,12 +5,15 @@ import static lsr.common.ProcessDescriptor.processDescriptor;
 import java.io.IOException;
 import java.nio.file.AccessDeniedException;
 import java.util.ArrayList;
+import java.util.PriorityQueue;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import lsr.common.ClientReply;
+import lsr.common.ClientReply.Result;
 import lsr.common.ClientRequest;
 import lsr.common.Configuration;
 import lsr.common.CrashModel;
@@ -21,6 +24,7 @@ import lsr.common.RequestId;
 import lsr.common.SingleThreadDispatcher;
 import lsr.paxos.Batcher;
 import lsr.paxos.Snapshot;
+import lsr.paxos.UnBatcher;
 import lsr.paxos.NATIVE.PersistentMemory;
 import lsr.paxos.core.Paxos;
 import lsr.paxos.messages.CatchUpQuery;
@@ -83,6 +87,27 @@ public class Replica {
     private final SingleThreadDispatcher replicaDispatcher;
     private ClientRequestForwarder requestForwarder;
 
+    /**
+     * Read-only requests waiting for the execution of instances decided before
+     * they arrived, by read index. The reads do not arrive in the order of
+     * their read indexes, as followers get them from the leader. Accessed by
+     * the Replica thread only.
+     */
+    private final PriorityQueue<PendingRead> pendingReads = new PriorityQueue<PendingRead>(
+            (a, b) -> Integer.compare(a.readIndex, b.readIndex));
+
+    private static final class PendingRead {
+        final ClientRequest request;
+        final ClientProxy client;
+        final int readIndex;
+
+        PendingRead(ClientRequest request, ClientProxy client, int readIndex) {
+            this.request = request;
+            this.client = client;
+            this.readIndex = readIndex;
+        }
+    }
+
     // // // // // // //
     // Public methods //
     // // // // // // //
@@ -102,7 +127,11 @@ public class Replica {
         if (logger.isWarnEnabled(processDescriptor.logMark_Benchmark2019))
             logger.warn(processDescriptor.logMark_Benchmark2019, "START");
 
-        stableStoragePath = processDescriptor.logPath + '/' + localId;
+        // groups other than 0 of a MultiGroupReplica need files of their own
+        String groupSuffix = processDescriptor.group == 0 ? ""
+                : "." + processDescriptor.group;
+
+        stableStoragePath = processDescriptor.logPath + '/' + localId + groupSuffix;
 
         switch (processDescriptor.crashModel) {
             case CrashStop:
@@ -113,7 +142,7 @@ public class Replica {
                         "Unsupported crash recovery model - only pmem allowed with this JPaxos version");
             case Pmem:
                 String pmemFile = processDescriptor.nvmDirectory + '/' + "jpaxos." +
-                                  String.valueOf(localId);
+                                  String.valueOf(localId) + groupSuffix;
                 try {
                     PersistentMemory.loadLib(pmemFile);
                 } catch (UnsatisfiedLinkError e) {
@@ -129,7 +158,7 @@ public class Replica {
                 throw new UnsupportedOperationException();
         }
 
-        replicaDispatcher = new SingleThreadDispatcher("Replica");
+        replicaDispatcher = SingleThreadDispatcher.create("Replica");
 
         serviceProxy = new ServiceProxy(service, replicaDispatcher);
 
@@ -273,13 +302,27 @@ public class Replica {
     // // // // // // // // // // // //
 
     /* package access */void executeClientBatchAndWait(final int instance,
-                                                       final ClientRequest[] requests) {
+                                                       final UnBatcher.Cursor requests) {
         innerExecuteClientBatch(instance, requests);
     }
 
-    /* package access */void instanceExecuted(final int instance,
-                                              final ClientRequest[] requests) {
-        innerInstanceExecuted(instance, requests);
+    /* package access */void instanceExecuted(final int instance) {
+        innerInstanceExecuted(instance);
+    }
+
+    /**
+     * Executes the read-only request without ordering it, once all instances
+     * below readIndex are executed. The reply is neither persisted nor cached.
+     * If the service declines to execute it so, the request is ordered.
+     */
+    /* package access */void executeReadOnly(final ClientRequest request,
+                                             final ClientProxy client, final int readIndex) {
+        replicaDispatcher.execute(() -> {
+            if (replicaStorage.getExecuteUB() >= readIndex)
+                innerExecuteReadOnly(request, client);
+            else
+                pendingReads.add(new PendingRead(request, client, readIndex));
+        });
     }
 
     /* package access */SingleThreadDispatcher getReplicaDispatcher() {
@@ -297,36 +340,39 @@ public class Replica {
      * @param instance
      * @param bInfo
      */
-    private void innerExecuteClientBatch(int instance, ClientRequest[] requests) {
+    private void innerExecuteClientBatch(int instance, UnBatcher.Cursor requests) {
         assert replicaDispatcher.amIInDispatcher() : "Wrong thread: " +
                                                      Thread.currentThread().getName();
 
         if (logger.isTraceEnabled(processDescriptor.logMark_Benchmark2019nope))
             logger.trace(processDescriptor.logMark_Benchmark2019nope, "IX {}", instance);
 
-        for (ClientRequest cRequest : requests) {
-            RequestId rID = cRequest.getRequestId();
+        // the requests are read in place; nothing is copied unless the service
+        // keeps it
+        while (requests.next()) {
+            long clientId = requests.clientId();
+            int seqNumber = requests.seqNumber();
             Integer lastSequenceNumberFromClient = replicaStorage.getLastReplySeqNoForClient(
-                    rID.getClientId());
+                    clientId);
             if (lastSequenceNumberFromClient != null) {
 
                 // Do not execute the same request several times.
-                if (rID.getSeqNumber() <= lastSequenceNumberFromClient) {
+                if (seqNumber <= lastSequenceNumberFromClient) {
                     // with Pmem this message is normal for the first
                     // instance after recovery
                     logger.warn(
                             "Request ordered multiple times. inst: {}, req: {}, lastSequenceNumberFromClient: ",
-                            instance, cRequest, lastSequenceNumberFromClient);
+                            instance, requests.requestId(), lastSequenceNumberFromClient);
 
                     // (JK) FIXME: investigate if the client could get the
                     // response multiple times here.
 
                     // Send the cached reply back to the client
-                    if (rID.getSeqNumber() == lastSequenceNumberFromClient) {
+                    if (seqNumber == lastSequenceNumberFromClient) {
                         // req manager can be null on fullss disk read
                         if (requestManager != null)
-                            requestManager.onRequestExecuted(cRequest,
-                                    replicaStorage.getLastReplyForClient(rID.getClientId()));
+                            requestManager.onRequestExecuted(
+                                    replicaStorage.getLastReplyForClient(clientId));
                     }
                     continue;
                 }
@@ -336,29 +382,47 @@ public class Replica {
 
             // Executing the request (at last!)
             // Here the replica thread is given to Service.
-            byte[] result = serviceProxy.execute(replicaStorage.getServiceSeqNo(), cRequest);
+            byte[] result = serviceProxy.execute(replicaStorage.getServiceSeqNo(), requests);
 
-            Reply reply = new Reply(cRequest.getRequestId(), result);
+            Reply reply = new Reply(clientId, seqNumber, result);
 
             PersistentMemory.startThreadLocalTx();
-            replicaStorage.setLastReplyForClient(rID.getClientId(), reply);
+            replicaStorage.setLastReplyForClient(clientId, reply);
             replicaStorage.incServiceSeqNo();
             PersistentMemory.commitThreadLocalTx();
 
             // req manager can be null on fullss disk read
             if (requestManager != null)
-                requestManager.onRequestExecuted(cRequest, reply);
+                requestManager.onRequestExecuted(reply);
+
+        }
+    }
 
+    private void innerExecuteReadOnly(ClientRequest request, ClientProxy client) {
+        // the read follows the last executed request, not the next one
+        byte[] result = serviceProxy.executeReadOnly(replicaStorage.getServiceSeqNo() - 1,
+                request);
+        if (result == null) {
+            // the service does not serve this read locally
+            requestManager.dispatchOnClientRequest(new ClientRequest[] {request}, client);
+            return;
         }
+        Reply reply = new Reply(request.getRequestId(), result);
+        client.send(new ClientReply(Result.OK, reply.toByteArray()));
     }
 
-    private void innerInstanceExecuted(final int instance, final ClientRequest[] requests) {
+    private void innerInstanceExecuted(final int instance) {
         replicaDispatcher.checkInDispatcher();
         assert replicaStorage.getExecuteUB() == instance : replicaStorage.getExecuteUB() + " " +
                                                            instance;
         logger.info("Instance finished: {}", instance);
+        // all instances up to this one are executed now
+        while (!pendingReads.isEmpty() && pendingReads.peek().readIndex <= instance + 1) {
+            PendingRead read = pendingReads.poll();
+            innerExecuteReadOnly(read.request, read.client);
+        }
         paxos.getProposer().instanceExecuted(instance);
-        batcher.instanceExecuted(instance, requests);
+        batcher.instanceExecuted(instance);
         paxos.getCatchup().instanceExecuted(instance);
     }
 
@@ -11,6 +11,7 @@ import lsr.common.ClientRequest;
 import lsr.common.CrashModel;
 import lsr.common.SingleThreadDispatcher;
 import lsr.paxos.Snapshot;
+import lsr.paxos.UnBatcher;
 import lsr.service.Service;
 
 public class ServiceProxy {
@@ -34,12 +35,27 @@ public class ServiceProxy {
      * Executes the request on underlying service with correct sequence number.
      * 
      * @param seqNo - the sequential number of this SM command (starting at 0)
-     * @param request - the request to execute on service
+     * @param request - the cursor at the request to execute on service
      * @return the reply from service
      */
-    public byte[] execute(long seqNo, ClientRequest request) {
-        logger.debug("Executing request {} ({})", seqNo, request.getRequestId());
-        return service.execute(seqNo, request.getValue());
+    public byte[] execute(long seqNo, UnBatcher.Cursor request) {
+        if (logger.isDebugEnabled())
+            logger.debug("Executing request {} ({})", seqNo, request.requestId());
+        return service.execute(seqNo, request.value());
+    }
+
+    /**
+     * Executes the read-only request on underlying service. The request is not
+     * ordered and must not modify the service state.
+     * 
+     * @param lastSeqNo - the sequential number of the last executed SM command
+     * @param request - the request to execute on service
+     * @return the reply from service, or null if the request must be ordered
+     */
+    public byte[] executeReadOnly(long lastSeqNo, ClientRequest request) {
+        logger.debug("Executing read-only request after {} ({})", lastSeqNo,
+                request.getRequestId());
+        return service.executeReadOnly(lastSeqNo, request.getValue());
     }
 
     /**
@@ -77,6 +77,16 @@ public interface ConsensusInstance {
      */
     byte[] getValue();
 
+    /**
+     * Returns a read-only view of the value, without copying it where the log
+     * permits. The view is valid only as long as the value of the instance
+     * does not change and the instance is not truncated from the log.
+     */
+    default ByteBuffer getValueBuffer() {
+        byte[] value = getValue();
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
     /**
      * Gets the current state of this instance. When the state is set to
      * <code>DECIDED</code> no values should be changed.
@@ -85,7 +95,7 @@ public interface ConsensusInstance {
      */
     LogEntryState getState();
 
-    /** Returns if the instances is accepted by the majority */
+    /** Returns if the instances is accepted by a phase 2 quorum */
     boolean isMajority();
 
     /**
@@ -133,6 +143,17 @@ public interface ConsensusInstance {
      */
     boolean updateStateFromPropose(int sender, int newView, byte[] newValue);
 
+    /**
+     * As {@link #updateStateFromPropose(int, int, byte[])}, with the value
+     * given as the remaining bytes of the buffer. The position of the buffer
+     * is not changed.
+     */
+    default boolean updateStateFromPropose(int sender, int newView, ByteBuffer newValue) {
+        byte[] value = new byte[newValue.remaining()];
+        newValue.duplicate().get(value);
+        return updateStateFromPropose(sender, newView, value);
+    }
+
     /**
      * Called upon an <code>Accept</code>. The Accept must be in no lesser view
      * than the current. Instance must not be decided. Returns whether the
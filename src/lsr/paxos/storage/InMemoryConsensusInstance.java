@@ -208,7 +208,7 @@ public class InMemoryConsensusInstance implements Serializable, ConsensusInstanc
 
     @Override
     public boolean isMajority() {
-        return accepts == null || accepts.cardinality() >= processDescriptor.majority;
+        return accepts == null || processDescriptor.isPhase2Quorum(accepts);
     }
 
     @Override
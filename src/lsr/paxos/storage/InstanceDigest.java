@@ -0,0 +1,113 @@
+package lsr.paxos.storage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import lsr.paxos.storage.ConsensusInstance.LogEntryState;
+
+/**
+ * Metadata of a consensus instance as of its last vote: the id, the view, the
+ * state and a digest (length and checksum) of the value. Sent instead of the
+ * whole instance in <code>PrepareOK</code> messages.
+ *
+ * Within a view a single value may be voted for, so the view identifies the
+ * value; the digest allows to verify the value once it is fetched.
+ */
+public class InstanceDigest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Size of serialized digest in bytes */
+    public static final int BYTE_SIZE = 5 * 4;
+
+    private final int id;
+    private final int lastVotedView;
+    private final LogEntryState state;
+    /** -1 iff the state is UNKNOWN */
+    private final int valueLength;
+    private final int checksum;
+
+    /**
+     * Creates the digest of the last vote of given instance. As in
+     * {@link ConsensusInstance#writeAsLastVoted(ByteBuffer)}, a RESET
+     * instance is reported as KNOWN. The value is read through
+     * {@link ConsensusInstance#getValueBuffer()}, so a value kept in the
+     * native log is checksummed in place rather than copied.
+     */
+    public InstanceDigest(ConsensusInstance instance) {
+        id = instance.getId();
+        lastVotedView = instance.getLastVotedView();
+        state = instance.getState() != LogEntryState.RESET ? instance.getState()
+                : LogEntryState.KNOWN;
+        ByteBuffer value = state == LogEntryState.UNKNOWN ? null : instance.getValueBuffer();
+        valueLength = value == null ? -1 : value.remaining();
+        checksum = value == null ? 0 : checksum(value);
+    }
+
+    public InstanceDigest(DataInputStream input) throws IOException {
+        id = input.readInt();
+        lastVotedView = input.readInt();
+        state = LogEntryState.values()[input.readInt()];
+        valueLength = input.readInt();
+        checksum = input.readInt();
+    }
+
+    public InstanceDigest(ByteBuffer bb) {
+        id = bb.getInt();
+        lastVotedView = bb.getInt();
+        state = LogEntryState.values()[bb.getInt()];
+        valueLength = bb.getInt();
+        checksum = bb.getInt();
+    }
+
+    public void write(ByteBuffer bb) {
+        bb.putInt(id);
+        bb.putInt(lastVotedView);
+        bb.putInt(state.ordinal());
+        bb.putInt(valueLength);
+        bb.putInt(checksum);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getLastVotedView() {
+        return lastVotedView;
+    }
+
+    public LogEntryState getState() {
+        return state;
+    }
+
+    /** Tells if the given value is the one described by this digest */
+    public boolean matches(byte[] value) {
+        if (value == null)
+            return valueLength == -1;
+        return value.length == valueLength && checksum(value) == checksum;
+    }
+
+    /** Tells if both digests describe the same value */
+    public boolean sameValue(InstanceDigest other) {
+        return valueLength == other.valueLength && checksum == other.checksum;
+    }
+
+    private static int checksum(byte[] value) {
+        CRC32C crc = new CRC32C();
+        crc.update(value, 0, value.length);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(ByteBuffer value) {
+        CRC32C crc = new CRC32C();
+        crc.update(value.duplicate());
+        return (int) crc.getValue();
+    }
+
+    public String toString() {
+        return "(" + id + ", " + state + ", lastVotedView=" + lastVotedView + ", value=" +
+               valueLength + "B/" + Integer.toHexString(checksum) + ")";
+    }
+}
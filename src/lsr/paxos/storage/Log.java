@@ -58,4 +58,15 @@ public interface Log {
      */
     void clearUndecidedBelow(int instanceId);
 
+    /**
+     * Updates the state of all instances in range [first, last] as upon
+     * receiving an Accept from given sender in given view, in a single storage
+     * update. Instances that are missing or already decided are skipped. All
+     * instances in the range must be lower than {@link #getNextId()}.
+     * 
+     * @return ids of instances that are ready to be decided
+     * @see ConsensusInstance#updateStateFromAccept(int, int)
+     */
+    int[] updateStateFromAcceptRange(int first, int last, int view, int acceptSender);
+
 }
\ No newline at end of file
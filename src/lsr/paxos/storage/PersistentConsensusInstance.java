@@ -37,6 +37,15 @@ public class PersistentConsensusInstance implements ConsensusInstance {
         return getValue(id);
     }
 
+    private static native ByteBuffer getValueDirect(int id);
+
+    @Override
+    public ByteBuffer getValueBuffer() {
+        // a direct buffer over the value kept by the log
+        ByteBuffer value = getValueDirect(id);
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
     @Native
     private static final byte ENUM_LOGENTRYSTATE_UNKNOWN = 0;
     @Native
@@ -114,6 +123,19 @@ public class PersistentConsensusInstance implements ConsensusInstance {
         return updateStateFromPropose(id, sender, newView, newValue);
     }
 
+    private static native boolean updateStateFromProposeDirect(int id, int sender, int newView,
+                                                               ByteBuffer newValue, int offset,
+                                                               int length);
+
+    @Override
+    public boolean updateStateFromPropose(int sender, int newView, ByteBuffer newValue) {
+        if (!newValue.isDirect())
+            return ConsensusInstance.super.updateStateFromPropose(sender, newView, newValue);
+        // the log copies the value straight from the buffer
+        return updateStateFromProposeDirect(id, sender, newView, newValue, newValue.position(),
+                newValue.remaining());
+    }
+
     public static native void updateStateFromDecision(int id, int newView, byte[] newValue);
 
     @Override
@@ -7,7 +7,8 @@ import java.util.TreeMap;
 public class PersistentLog implements Log {
 
     protected TreeMap<Integer, PersistentConsensusInstance> instanceMapView = new TreeMap<Integer, PersistentConsensusInstance>();
-    protected int nextIdCache;
+    /** Volatile, as the leader reads it when serving reads from other threads */
+    protected volatile int nextIdCache;
 
     private static native int[] getExistingInstances();
 
@@ -78,4 +79,13 @@ public class PersistentLog implements Log {
             instanceMapView.remove(id);
         }
     }
+
+    private static native int[] updateStateFromAcceptRange_(int first, int last, int view,
+                                                            int acceptSender);
+
+    @Override
+    public int[] updateStateFromAcceptRange(int first, int last, int view, int acceptSender) {
+        assert last < nextIdCache;
+        return updateStateFromAcceptRange_(first, last, view, acceptSender);
+    }
 }
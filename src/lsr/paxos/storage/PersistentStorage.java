@@ -39,7 +39,7 @@ public class PersistentStorage implements Storage {
 
     private static native int getFirstUncommitted_();
 
-    protected int firstUncommittedCache = getFirstUncommitted_();
+    protected volatile int firstUncommittedCache = getFirstUncommitted_();
 
     @Override
     public int getFirstUncommitted() {
@@ -60,9 +60,22 @@ public class PersistentStorage implements Storage {
         firstUncommittedCache = updateFirstUncommitted_(snapshotFirstUncommited);
     }
 
+    /** written by the Protocol thread, read by the others */
+    private volatile int windowSize = processDescriptor.windowSizeMax;
+
+    @Override
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
     @Override
     public boolean isInWindow(int instanceId) {
-        return instanceId < firstUncommittedCache + processDescriptor.windowSize;
+        return instanceId < firstUncommittedCache + windowSize;
     }
 
     @Override
@@ -72,7 +85,8 @@ public class PersistentStorage implements Storage {
 
     @Override
     public boolean isWindowFull() {
-        return getWindowUsed() == processDescriptor.windowSize;
+        // the window may shrink below the number of instances in flight
+        return getWindowUsed() >= windowSize;
     }
 
     @Override
@@ -94,7 +108,7 @@ public class PersistentStorage implements Storage {
 
     private static native int getView_();
 
-    protected int viewCache = getView_();
+    protected volatile int viewCache = getView_();
 
     @Override
     public int getView() {
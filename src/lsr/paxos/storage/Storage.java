@@ -44,6 +44,16 @@ public interface Storage {
      */
     boolean isInWindow(int instanceId);
 
+    /**
+     * Returns the current window size, i.e., the maximum number of
+     * concurrently proposed instances. It may change in runtime if the window
+     * is adaptive.
+     */
+    int getWindowSize();
+
+    /** Sets the current window size */
+    void setWindowSize(int windowSize);
+
     /** Number of instances from lowest not yet decided to highest known */
     int getWindowUsed();
 
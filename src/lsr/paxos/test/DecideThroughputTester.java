@@ -0,0 +1,135 @@
+package lsr.paxos.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import lsr.common.Configuration;
+import lsr.common.PID;
+import lsr.common.ProcessDescriptor;
+import lsr.paxos.NATIVE.PersistentMemory;
+import lsr.paxos.storage.ConsensusInstance;
+import lsr.paxos.storage.InMemoryConsensusInstance;
+import lsr.paxos.storage.PersistentLog;
+
+/*-
+Measures how many instances per second the leader decides, as a function of
+the number of replicas. The leader proposes a value, then the Accepts of the
+other replicas are applied in-process until a phase 2 quorum is reached. This
+exercises the accept set bookkeeping only, without the network.
+
+Native consensus instances (default; one replica count per run, as natives
+load once; 65 replicas unless given):
+rm -rf /mnt/pmem/dtt.0; java -Djava.library.path=natives/jpaxos-pmem/build-release -cp lib/logback-classic-1.2.3.jar:lib/logback-core-1.2.3.jar:lib/slf4j-api-1.7.26.jar:bin lsr.paxos.test.DecideThroughputTester -p /mnt/pmem/dtt.0 65
+
+In-memory consensus instances (any number of replica counts):
+java -cp lib/logback-classic-1.2.3.jar:lib/logback-core-1.2.3.jar:lib/slf4j-api-1.7.26.jar:bin lsr.paxos.test.DecideThroughputTester -m 3 5 9 33 65
+-*/
+
+public class DecideThroughputTester {
+
+    /** Instances kept in the log before truncating it */
+    private static final int LOG_WINDOW = 1024;
+
+    private final int numReplicas;
+    private final byte[] value;
+    private final PersistentLog log;
+
+    private int instance = 0;
+
+    public static void main(String[] _args) throws Exception {
+        LinkedList<String> args = new LinkedList<>(Arrays.asList(_args));
+        int valueSize = 128;
+        int warmup = 3;
+        int sampleTime = 5;
+        int sampleCount = 3;
+        String pmemFile = "/mnt/pmem/dtt.0";
+        boolean inMemory = false;
+        List<Integer> replicaCounts = new ArrayList<Integer>();
+
+        while (!args.isEmpty()) {
+            String token = args.pop();
+            if (token.matches("-v|--valueSize"))
+                valueSize = Integer.parseInt(args.pop());
+            else if (token.matches("-w|--warmup"))
+                warmup = Integer.parseInt(args.pop());
+            else if (token.matches("-s|--samplingTime"))
+                sampleTime = Integer.parseInt(args.pop());
+            else if (token.matches("-S|--sampleCount"))
+                sampleCount = Integer.parseInt(args.pop());
+            else if (token.matches("-p|--pmemFile"))
+                pmemFile = args.pop();
+            else if (token.matches("-m|--inMemory"))
+                inMemory = true;
+            else if (token.matches("[0-9]+"))
+                replicaCounts.add(Integer.parseInt(token));
+            else
+                throw new IllegalArgumentException(token);
+        }
+        if (replicaCounts.isEmpty())
+            replicaCounts.addAll(inMemory ? Arrays.asList(3, 5, 9, 33, 65) : Arrays.asList(65));
+        if (inMemory)
+            pmemFile = null;
+        else if (replicaCounts.size() != 1)
+            throw new IllegalArgumentException("Natives support one replica count per run");
+
+        for (int n : replicaCounts) {
+            DecideThroughputTester dtt = new DecideThroughputTester(n, valueSize, pmemFile);
+
+            if (warmup > 0)
+                dtt.loop(System.currentTimeMillis() + warmup * 1000);
+
+            for (int sample = 0; sample < sampleCount; ++sample) {
+                int startInst = dtt.instance;
+                long deadline = System.currentTimeMillis() + sampleTime * 1000;
+                long startTime = System.nanoTime();
+                dtt.loop(deadline);
+                long nanoDuration = System.nanoTime() - startTime;
+                double instancesPerSecond = (dtt.instance - startInst) * 1e9 /
+                                            (double) nanoDuration;
+                System.out.print("Replicas " + n + " Inst/s " + instancesPerSecond + "\n");
+            }
+        }
+    }
+
+    public DecideThroughputTester(int numReplicas, int valueSize, String pmemFile)
+            throws Exception {
+        this.numReplicas = numReplicas;
+        value = new byte[valueSize];
+
+        List<PID> processes = new ArrayList<PID>(numReplicas);
+        for (int i = 0; i < numReplicas; ++i)
+            processes.add(new PID(i, "localhost", 2000 + i, 3000 + i));
+        ProcessDescriptor.initialize(new Configuration(processes), 0);
+
+        if (pmemFile != null) {
+            PersistentMemory.loadLib(pmemFile);
+            log = new PersistentLog();
+            instance = log.getNextId();
+        } else {
+            log = null;
+        }
+    }
+
+    private void loop(long deadline) {
+        while (System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < LOG_WINDOW; ++i)
+                decideOne();
+            if (log != null)
+                log.truncateBelow(instance);
+        }
+    }
+
+    private void decideOne() {
+        ConsensusInstance ci = log != null ? log.append()
+                : new InMemoryConsensusInstance(instance);
+        instance++;
+
+        boolean ready = ci.updateStateFromPropose(0, 0, value);
+        for (int sender = 1; !ready && sender < numReplicas; ++sender)
+            ready = ci.updateStateFromAccept(0, sender);
+        assert ready : ci;
+        ci.setDecided();
+    }
+}
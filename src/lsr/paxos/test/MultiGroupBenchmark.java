@@ -0,0 +1,170 @@
+package lsr.paxos.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lsr.common.Configuration;
+import lsr.common.ProcessDescriptor;
+import lsr.paxos.client.PartitionedClient;
+import lsr.paxos.client.ReplicationException;
+import lsr.paxos.replica.MultiGroupReplica;
+import lsr.service.Partitioner;
+import lsr.service.Service;
+
+/**
+ * Measures the throughput of a service partitioned over many Paxos groups.
+ *
+ * The groups are run by {@link MultiGroupReplica}, i.e., as separate replicas
+ * in one JVM, each with its own connections and ports.
+ *
+ * Each request starts with a random 8-byte key; the key chooses the group. The
+ * service of every group keeps the number and a checksum of the executed
+ * requests, so the throughput is limited by ordering only.
+ *
+ * Run the replicas and a client with the same paxos.properties, setting
+ * <code>Groups</code> to 1, 2, 4 and 8 in turn:
+ *
+ * <pre>
+ * MultiGroupBenchmark replica &lt;localId&gt;
+ * MultiGroupBenchmark client &lt;threads&gt; &lt;seconds&gt; &lt;requestSize&gt;
+ * </pre>
+ *
+ * The client prints the throughput of all groups together.
+ */
+public class MultiGroupBenchmark {
+
+    /** Routes requests by their key */
+    public static final class KeyPartitioner implements Partitioner {
+        public int getGroup(byte[] request, int groups) {
+            long key = ByteBuffer.wrap(request).getLong();
+            return (int) Math.floorMod(key ^ (key >>> 32), (long) groups);
+        }
+    }
+
+    /** State of a group: the number and a checksum of executed requests */
+    static final class CountingService implements Service {
+        private final File snapshotFile;
+        private long executed = 0;
+        private long checksum = 0;
+
+        CountingService(int localId, int group) {
+            snapshotFile = new File(System.getProperty("java.io.tmpdir"),
+                    "multigroup." + localId + "." + group);
+        }
+
+        public byte[] execute(long seqNo, byte[] value) {
+            return execute(seqNo, ByteBuffer.wrap(value));
+        }
+
+        /** Reads the key in place; the value is not kept */
+        public byte[] execute(long seqNo, ByteBuffer value) {
+            executed++;
+            checksum = checksum * 31 + value.getLong(value.position());
+            return ByteBuffer.allocate(8).putLong(executed).array();
+        }
+
+        public List<String> getAndLockSnapshotFiles() {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(
+                    snapshotFile))) {
+                out.writeLong(executed);
+                out.writeLong(checksum);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot write " + snapshotFile, e);
+            }
+            return Collections.singletonList(snapshotFile.getPath());
+        }
+
+        public void releaseSnapshotFiles() {
+        }
+
+        public void updateToSnapshotFiles(List<String> snapshotFiles) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(
+                    snapshotFiles.get(0)))) {
+                executed = in.readLong();
+                checksum = in.readLong();
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot read " + snapshotFiles.get(0), e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("replica")) {
+            runReplica(Integer.parseInt(args[1]));
+        } else if (args.length == 4 && args[0].equals("client")) {
+            runClient(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]));
+        } else {
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    private static void runReplica(int localId) throws IOException {
+        MultiGroupReplica replica = new MultiGroupReplica("paxos.properties", localId,
+                group -> new CountingService(localId, group));
+        replica.start();
+        System.in.read();
+        System.exit(-1);
+    }
+
+    private static void runClient(int threads, int seconds, int requestSize)
+            throws IOException, InterruptedException {
+        Configuration config = new Configuration();
+        int groups = config.getIntProperty(ProcessDescriptor.GROUPS,
+                ProcessDescriptor.DEFAULT_GROUPS);
+        final AtomicLong completed = new AtomicLong();
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+
+        Thread[] clients = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            final PartitionedClient client = new PartitionedClient(config,
+                    new KeyPartitioner());
+            clients[i] = new Thread("MultiGroupClient-" + i) {
+                public void run() {
+                    Random random = new Random();
+                    byte[] request = new byte[Math.max(8, requestSize)];
+                    client.connect();
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            random.nextBytes(request);
+                            client.execute(request);
+                            completed.incrementAndGet();
+                        }
+                    } catch (ReplicationException e) {
+                        System.err.println(e.getLocalizedMessage());
+                        System.exit(1);
+                    }
+                }
+            };
+        }
+
+        long start = System.currentTimeMillis();
+        for (Thread client : clients)
+            client.start();
+        for (Thread client : clients)
+            client.join();
+        long duration = System.currentTimeMillis() - start;
+
+        System.out.println(String.format("groups=%d threads=%d size=%d requests=%d %.2f req/s",
+                groups, threads, requestSize, completed.get(),
+                completed.get() * 1000.0 / duration));
+        System.exit(0);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage:");
+        System.err.println("  MultiGroupBenchmark replica <localId>");
+        System.err.println("  MultiGroupBenchmark client <threads> <seconds> <requestSize>");
+        System.err.println("Set Groups (1, 2, 4, 8) in paxos.properties for all processes.");
+    }
+}
@@ -0,0 +1,89 @@
+package lsr.paxos.test;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lsr.common.Configuration;
+import lsr.common.ProcessDescriptor;
+import lsr.paxos.messages.Message;
+import lsr.paxos.messages.MessageType;
+import lsr.paxos.messages.Propose;
+import lsr.paxos.network.MessageHandler;
+import lsr.paxos.network.Network;
+import lsr.paxos.network.TcpInterreplicaNioNetwork;
+
+/**
+ * Measures the bandwidth of the network between replicas for large proposals.
+ *
+ * Replica 0 sends Propose messages of the given size to all other replicas as
+ * fast as the network takes them; the other replicas print the received
+ * megabytes per second. Run all replicas with the same paxos.properties,
+ * setting <code>NetworkStripes</code> to 0, 1, 2 and 4 in turn:
+ *
+ * <pre>
+ * NetworkBandwidthBenchmark &lt;localId&gt; &lt;seconds&gt; &lt;messageBytes&gt;
+ * </pre>
+ */
+public class NetworkBandwidthBenchmark {
+
+    /** The sender keeps at most this many bytes queued to a peer */
+    private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: NetworkBandwidthBenchmark <localId> <seconds> <messageBytes>");
+            System.err.println("Set NetworkStripes (0, 1, 2, 4) in paxos.properties for all replicas.");
+            System.exit(1);
+        }
+        int localId = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        int messageBytes = Integer.parseInt(args[2]);
+
+        ProcessDescriptor.initialize(new Configuration(), localId);
+        ProcessDescriptor pd = ProcessDescriptor.processDescriptor;
+
+        final AtomicLong received = new AtomicLong();
+        Network.addMessageListener(MessageType.Propose, new MessageHandler() {
+            public void onMessageReceived(Message msg, int sender) {
+                received.addAndGet(((Propose) msg).getValue().length);
+            }
+
+            public void onMessageSent(Message message, BitSet destinations) {
+            }
+        });
+
+        TcpInterreplicaNioNetwork network = new TcpInterreplicaNioNetwork();
+        network.start();
+
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        if (localId != 0) {
+            long last = received.get();
+            while (System.currentTimeMillis() < end) {
+                Thread.sleep(1000);
+                long now = received.get();
+                System.out.println(String.format("stripes=%d size=%d %.2f MB/s",
+                        pd.networkStripes, messageBytes, (now - last) / 1e6));
+                last = now;
+            }
+            System.exit(0);
+        }
+
+        byte[] value = new byte[messageBytes];
+        int instance = 0;
+        while (System.currentTimeMillis() < end) {
+            boolean full = false;
+            for (int id = 1; id < pd.numReplicas; ++id)
+                full |= network.getQueuedBytes(id) > MAX_QUEUED_BYTES;
+            if (full) {
+                Thread.sleep(1);
+                continue;
+            }
+            Propose propose = new Propose(0, instance++, value);
+            network.sendToOthers(propose);
+            propose.releaseBuffers();
+        }
+        System.out.println(String.format("stripes=%d size=%d sent %d messages",
+                pd.networkStripes, messageBytes, instance));
+        System.exit(0);
+    }
+}
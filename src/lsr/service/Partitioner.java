@@ -0,0 +1,22 @@
+package lsr.service;
+
+/**
+ * Partition key of a service whose state is split into independent parts, each
+ * ordered by a separate Paxos group (see
+ * lsr.paxos.replica.MultiGroupReplica). Requests that touch the same part of
+ * the state must be mapped to the same group; requests of different groups are
+ * not ordered with respect to each other.
+ *
+ * Used by lsr.paxos.client.PartitionedClient to route the requests.
+ */
+public interface Partitioner {
+
+    /**
+     * Returns the group that orders the given request.
+     *
+     * @param request - the request, as passed to {@link Service#execute}
+     * @param groups - the number of groups
+     * @return group index, from 0 to groups - 1
+     */
+    int getGroup(byte[] request, int groups);
+}
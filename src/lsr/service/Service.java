@@ -1,5 +1,6 @@
 package lsr.service;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import lsr.paxos.replica.Replica;
@@ -27,6 +28,45 @@ public interface Service {
      */
     byte[] execute(long seqNo, byte[] value);
 
+    /**
+     * As {@link #execute(long, byte[])}, with the value given as the remaining
+     * bytes of a read-only buffer. The buffer is a view of the batch the
+     * command was decided in and is valid only during the call, so the service
+     * must copy whatever it keeps. The default implementation copies the value
+     * and calls {@link #execute(long, byte[])}; services that can read the
+     * command in place should override it.
+     * 
+     * @param seqNo - the sequential number of this command (starting at 0)
+     * @param value - value of instance to execute on this service
+     * @return generated reply which will be sent back to client
+     */
+    default byte[] execute(long seqNo, ByteBuffer value) {
+        byte[] copy = new byte[value.remaining()];
+        value.get(copy);
+        return execute(seqNo, copy);
+    }
+
+    /**
+     * Executes a read-only command from client locally, without ordering it
+     * with the other commands. The command must not change the state of this
+     * state machine; it sees the state after the command
+     * <code>lastSeqNo</code>, and takes no sequential number.
+     * 
+     * A service that cannot serve the command this way (e.g. as the command
+     * would change the state) returns null; the command is then ordered and
+     * executed as any other. The default implementation always does so, hence
+     * only services overriding this method serve reads locally.
+     * 
+     * @param lastSeqNo - the sequential number of the last executed command,
+     *            or -1 if none has been executed
+     * @param value - the read-only command
+     * @return generated reply which will be sent back to client, or null if
+     *         the command must be ordered
+     */
+    default byte[] executeReadOnly(long lastSeqNo, byte[] value) {
+        return null;
+    }
+
     /**
      * Called when a peer replica needs state to catch up (or recover). Shall
      * return the paths to files that contain the state. Service must ensure